@@ -0,0 +1,78 @@
+package org.nbc.csvtospreadsheet.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.nbc.csvtospreadsheet.AggregationKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SUM and PROD over {@code terms} values: the stream pipeline the evaluator used to run, the
+ * scalar kernels, and the dispatching kernels. The fork enables the vector kernel, so with a jar
+ * built by {@code mvn -Pvector package} the dispatching kernels show where vectors start to pay
+ * off; without it they fall back to the scalar loops.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Dcsvtospreadsheet.vector=true"})
+public class AggregationBenchmark {
+
+    @Param({"4", "16", "64", "256", "1024", "16384", "1048576"})
+    public int terms;
+
+    private double[] values;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        values = new double[terms];
+        for (int i = 0; i < terms; i++) {
+            // Close to 1, so long products neither overflow nor vanish
+            values[i] = 1.0 + (random.nextDouble() - 0.5) * 1e-3;
+        }
+    }
+
+    @Benchmark
+    public double streamSum() {
+        return Arrays.stream(values).sum();
+    }
+
+    @Benchmark
+    public double scalarSum() {
+        return AggregationKernels.scalarSum(values, 0, terms);
+    }
+
+    @Benchmark
+    public double sum() {
+        return AggregationKernels.sum(values, 0, terms);
+    }
+
+    @Benchmark
+    public double streamProduct() {
+        return Arrays.stream(values).reduce(1, (a, b) -> a * b);
+    }
+
+    @Benchmark
+    public double scalarProduct() {
+        return AggregationKernels.scalarProduct(values, 0, terms);
+    }
+
+    @Benchmark
+    public double product() {
+        return AggregationKernels.product(values, 0, terms);
+    }
+}
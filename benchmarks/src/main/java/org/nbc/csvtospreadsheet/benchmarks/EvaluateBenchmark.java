@@ -0,0 +1,49 @@
+package org.nbc.csvtospreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nbc.csvtospreadsheet.SpreadSheet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluating every formula of a freshly built sheet. Evaluation writes its results into the
+ * grid and blacklists cycles, so each invocation gets a new sheet, built outside the timing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EvaluateBenchmark {
+
+    @Param({"FLAT", "DEEP_CHAIN", "WIDE_FAN_IN", "CYCLIC"})
+    public Sheets.Shape shape;
+
+    @Param({"10000", "200000"})
+    public int rows;
+
+    private SpreadSheet sheet;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        sheet = Sheets.build(shape, rows);
+    }
+
+    @Benchmark
+    public SpreadSheet evaluateAllExpressions() {
+        sheet.evaluateAllExpressions();
+        return sheet;
+    }
+}
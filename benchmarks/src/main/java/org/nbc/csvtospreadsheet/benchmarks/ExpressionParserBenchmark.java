@@ -0,0 +1,57 @@
+package org.nbc.csvtospreadsheet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nbc.csvtospreadsheet.ExpressionInfo;
+import org.nbc.csvtospreadsheet.ExpressionParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Recognising and parsing cell texts, most of which are not expressions at all. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionParserBenchmark {
+
+    /** Number of references in each expression. */
+    @Param({"2", "16"})
+    public int references;
+
+    private String[] cells;
+    private String expression;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder("#(sum");
+        for (int i = 0; i < references; i++) {
+            sb.append(' ').append((char) ('A' + i % 26)).append(i + 1);
+        }
+        expression = sb.append(')').toString();
+        cells = new String[] {"Total:", "12345", "-7.5", "#hl", expression, "#(prod AA12 XFD1)", ""};
+    }
+
+    @Benchmark
+    public void isExpression(Blackhole blackhole) {
+        for (String cell : cells) {
+            blackhole.consume(ExpressionParser.isExpression(cell));
+        }
+    }
+
+    @Benchmark
+    public ExpressionInfo parseExpression() {
+        return ExpressionParser.parseExpression(expression);
+    }
+}
@@ -0,0 +1,52 @@
+package org.nbc.csvtospreadsheet.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.nbc.csvtospreadsheet.SpreadSheet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Loading a CSV file into a fresh sheet with each of the loaders. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private Path csv;
+
+    @Setup
+    public void setUp() throws IOException {
+        csv = Sheets.writeCsv(rows);
+    }
+
+    @Benchmark
+    public SpreadSheet loadCsv() throws IOException {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsv(csv.toString());
+        return sheet;
+    }
+
+    @Benchmark
+    public SpreadSheet loadCsvMapped() throws IOException {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsvMapped(csv.toString());
+        return sheet;
+    }
+}
@@ -0,0 +1,59 @@
+package org.nbc.csvtospreadsheet.benchmarks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.nbc.csvtospreadsheet.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Hashing cell positions, alone and as keys of a hash set over a whole sheet. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PairBenchmark {
+
+    /** Number of rows; the sheet has 8 columns. */
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private Pair[] pairs;
+
+    @Setup
+    public void setUp() {
+        pairs = new Pair[rows * 8];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = new Pair(i % 8, i / 8);
+        }
+    }
+
+    @Benchmark
+    public void hashCodes(Blackhole blackhole) {
+        for (Pair pair : pairs) {
+            blackhole.consume(pair.hashCode());
+        }
+    }
+
+    @Benchmark
+    public int fillHashSet() {
+        Set<Pair> set = new HashSet<>();
+        for (Pair pair : pairs) {
+            set.add(pair);
+        }
+        return set.size();
+    }
+}
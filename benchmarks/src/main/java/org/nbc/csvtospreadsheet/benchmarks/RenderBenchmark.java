@@ -0,0 +1,49 @@
+package org.nbc.csvtospreadsheet.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.nbc.csvtospreadsheet.SpreadSheet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Writing an evaluated sheet to a file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private SpreadSheet sheet;
+    private String output;
+
+    @Setup
+    public void setUp() throws IOException {
+        sheet = new SpreadSheet();
+        sheet.loadCsvMapped(Sheets.writeCsv(rows).toString());
+        sheet.evaluateAllExpressions();
+        File file = File.createTempFile("benchmark", ".txt");
+        file.deleteOnExit();
+        output = file.getAbsolutePath();
+    }
+
+    @Benchmark
+    public void printGridToFile() throws IOException {
+        sheet.printGridToFile(output);
+    }
+}
@@ -0,0 +1,81 @@
+package org.nbc.csvtospreadsheet.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.nbc.csvtospreadsheet.Pair;
+import org.nbc.csvtospreadsheet.SpreadSheet;
+
+/**
+ * Builds the sheets the benchmarks run on. Column A always holds numbers; the formulas
+ * follow one of the {@link Shape}s so that each exercises a different part of evaluation.
+ */
+public final class Sheets {
+
+    /** How the formulas of a sheet reference each other. */
+    public enum Shape {
+        /** Every formula reads two plain cells: no formula-to-formula edges at all. */
+        FLAT,
+        /** Each formula reads the one above it, so the whole column is one long chain. */
+        DEEP_CHAIN,
+        /** One formula per 64 rows, each reading the 64 cells above it. */
+        WIDE_FAN_IN,
+        /** Formulas read each other in rings of 8, so every one of them is blacklisted. */
+        CYCLIC
+    }
+
+    private Sheets() {
+    }
+
+    /** A sheet of {@code rows} rows whose column B holds formulas of the given shape. */
+    static SpreadSheet build(Shape shape, int rows) {
+        SpreadSheet sheet = new SpreadSheet();
+        for (int row = 0; row < rows; row++) {
+            sheet.setCellValue(new Pair(0, row), Integer.toString(row % 1000));
+            String formula = formula(shape, row, rows);
+            if (formula != null) {
+                Pair cell = new Pair(1, row);
+                sheet.setCellValue(cell, formula);
+                sheet.getCachedExpressions().put(cell, formula);
+            }
+        }
+        return sheet;
+    }
+
+    private static String formula(Shape shape, int row, int rows) {
+        int ref = row + 1;
+        switch (shape) {
+            case FLAT:
+                return "#(sum A" + ref + " A" + (rows - row) + ")";
+            case DEEP_CHAIN:
+                return (row == 0) ? "#(sum A1)" : "#(sum B" + row + " A" + ref + ")";
+            case WIDE_FAN_IN:
+                if (row % 64 != 63) {
+                    return null;
+                }
+                StringBuilder sb = new StringBuilder("#(sum");
+                for (int r = row - 62; r <= ref; r++) {
+                    sb.append(" A").append(r);
+                }
+                return sb.append(')').toString();
+            default:
+                int next = (row % 8 == 7) ? row - 7 : row + 1;
+                return (next < rows) ? "#(sum A" + ref + " B" + (next + 1) + ")" : "#(sum A" + ref + ")";
+        }
+    }
+
+    /** Writes a CSV of {@code rows} rows mixing text, numbers and formulas to a temp file. */
+    static Path writeCsv(int rows) throws IOException {
+        StringBuilder sb = new StringBuilder("Name,Value,Factor,Total\n#hl,#hl,#hl,#hl\n");
+        for (int row = 3; row <= rows; row++) {
+            sb.append("item").append(row).append(',').append(row).append(',').append(row % 7)
+                    .append(",#(prod B").append(row).append(" C").append(row).append(")\n");
+        }
+        Path path = Files.createTempFile("benchmark", ".csv");
+        path.toFile().deleteOnExit();
+        Files.writeString(path, sb, StandardCharsets.UTF_8);
+        return path;
+    }
+}
@@ -0,0 +1,26 @@
+package org.nbc.csvtospreadsheet;
+
+/**
+ * Folds the values of one formula evaluation in a single pass. An accumulator is created per
+ * evaluation by {@link Operation#newAccumulator()} and receives the numeric value of every
+ * referenced cell in order, straight from storage.
+ */
+public interface Accumulator {
+    /** Takes in the value of one cell. */
+    void add(double value);
+
+    /**
+     * Takes in {@code count} zeros, the empty cells of a range past the end of the sheet, for
+     * operations that count blanks as 0. The default adds them one at a time; a range may reach
+     * billions of rows past the last one stored, so accumulators that can fold them at once
+     * should override it.
+     */
+    default void addZeros(long count) {
+        for (long i = 0; i < count; i++) {
+            add(0.0);
+        }
+    }
+
+    /** The result of the values added so far. */
+    double result();
+}
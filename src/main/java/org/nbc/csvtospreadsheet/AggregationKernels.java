@@ -0,0 +1,104 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.logging.Logger;
+
+/**
+ * Loops that aggregate a slice of a {@code double[]} without building a stream.
+ *
+ * <p>The scalar kernels give exactly the results of {@code Arrays.stream(terms).sum()} and
+ * {@code .reduce(1, (a, b) -> a * b)}: sums use the same compensated (Kahan) summation and
+ * products multiply left to right, so switching to them changes no output.
+ *
+ * <p>Slices of at least {@link #VECTOR_THRESHOLD} terms can go through a kernel built on
+ * {@code jdk.incubator.vector}. It is opt-in: its source is only compiled by the {@code vector}
+ * Maven profile, and it is only used when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector -Dcsvtospreadsheet.vector=true}. Otherwise, or if it
+ * cannot be loaded, the scalar kernels are used. The vector kernel combines terms lane by lane,
+ * so its results may differ from the scalar ones in the last bits.
+ */
+public class AggregationKernels {
+    private static final Logger logger = Logger.getLogger(AggregationKernels.class.getName());
+
+    /** System property that turns the vector kernel on. */
+    public static final String VECTOR_PROPERTY = "csvtospreadsheet.vector";
+
+    /** Slices shorter than this always use the scalar kernels; below it vector setup costs more than it saves. */
+    public static final int VECTOR_THRESHOLD = 256;
+
+    private static final String VECTOR_KERNEL = "org.nbc.csvtospreadsheet.VectorKernels";
+
+    /** An implementation of the aggregation loops over {@code terms[from..to)}. */
+    public interface Kernel {
+        double sum(double[] terms, int from, int to);
+
+        double product(double[] terms, int from, int to);
+    }
+
+    private static final Kernel VECTOR = loadVectorKernel();
+
+    private AggregationKernels() {
+    }
+
+    private static Kernel loadVectorKernel() {
+        if (!Boolean.getBoolean(VECTOR_PROPERTY)) {
+            return null;
+        }
+        try {
+            return (Kernel) Class.forName(VECTOR_KERNEL).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warning("Vector kernels are not available, using scalar loops: " + e);
+            return null;
+        }
+    }
+
+    /** True if long slices are aggregated by the vector kernel. */
+    public static boolean vectorEnabled() {
+        return VECTOR != null;
+    }
+
+    /** Sum of {@code terms[from..to)}. */
+    public static double sum(double[] terms, int from, int to) {
+        if (VECTOR != null && to - from >= VECTOR_THRESHOLD) {
+            return VECTOR.sum(terms, from, to);
+        }
+        return scalarSum(terms, from, to);
+    }
+
+    /** Product of {@code terms[from..to)}; 1 for an empty slice. */
+    public static double product(double[] terms, int from, int to) {
+        if (VECTOR != null && to - from >= VECTOR_THRESHOLD) {
+            return VECTOR.product(terms, from, to);
+        }
+        return scalarProduct(terms, from, to);
+    }
+
+    /** Compensated sum, step for step the one {@code DoubleStream.sum()} computes. */
+    public static double scalarSum(double[] terms, int from, int to) {
+        double sum = 0.0;
+        double compensation = 0.0; // the negated low-order bits of the sum
+        double simpleSum = 0.0;    // kept to return the right infinity, as DoubleStream does
+        for (int i = from; i < to; i++) {
+            double value = terms[i];
+            double corrected = value - compensation;
+            double next = sum + corrected;
+            compensation = (next - sum) - corrected;
+            sum = next;
+            simpleSum += value;
+        }
+        double result = sum - compensation;
+        return (Double.isNaN(result) && Double.isInfinite(simpleSum)) ? simpleSum : result;
+    }
+
+    /** Left-to-right product, unrolled by four; the order of multiplications is unchanged. */
+    public static double scalarProduct(double[] terms, int from, int to) {
+        double product = 1.0;
+        int i = from;
+        for (int bound = to - 3; i < bound; i += 4) {
+            product = product * terms[i] * terms[i + 1] * terms[i + 2] * terms[i + 3];
+        }
+        for (; i < to; i++) {
+            product *= terms[i];
+        }
+        return product;
+    }
+}
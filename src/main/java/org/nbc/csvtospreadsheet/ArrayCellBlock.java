@@ -0,0 +1,120 @@
+package org.nbc.csvtospreadsheet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CellBlock} backed by Java arrays. Only the tag array is allocated up front;
+ * the other arrays appear when the first cell needing them is written.
+ */
+public class ArrayCellBlock implements CellBlock {
+    /** Size of a block written with {@link #writeTo}. */
+    static final int SERIALIZED_BYTES = 1 + ROWS * (Byte.BYTES + Double.BYTES + Integer.BYTES + Byte.BYTES);
+
+    private static final int HAS_NUMBERS = 1;
+    private static final int HAS_TEXT_IDS = 2;
+    private static final int HAS_NUMBER_LENGTHS = 4;
+
+    private final byte[] tags = new byte[ROWS];
+    private double[] numbers;
+    private int[] textIds;
+    private byte[] numberLengths;
+
+    @Override
+    public byte tag(int offset) {
+        return tags[offset];
+    }
+
+    @Override
+    public void setTag(int offset, byte tag) {
+        tags[offset] = tag;
+    }
+
+    @Override
+    public double number(int offset) {
+        return (numbers == null) ? 0.0 : numbers[offset];
+    }
+
+    @Override
+    public void setNumber(int offset, double value) {
+        if (numbers == null) {
+            numbers = new double[ROWS];
+        }
+        numbers[offset] = value;
+    }
+
+    @Override
+    public int textId(int offset) {
+        return (textIds == null) ? 0 : textIds[offset];
+    }
+
+    @Override
+    public void setTextId(int offset, int id) {
+        if (textIds == null) {
+            textIds = new int[ROWS];
+        }
+        textIds[offset] = id;
+    }
+
+    @Override
+    public int numberLength(int offset) {
+        return (numberLengths == null) ? 0 : numberLengths[offset];
+    }
+
+    @Override
+    public void setNumberLength(int offset, int length) {
+        if (numberLengths == null) {
+            numberLengths = new byte[ROWS];
+        }
+        numberLengths[offset] = (byte) length;
+    }
+
+    @Override
+    public void reserveNumbers() {
+        if (numbers == null) {
+            numbers = new double[ROWS];
+        }
+        if (numberLengths == null) {
+            numberLengths = new byte[ROWS];
+        }
+    }
+
+    /** Writes the block into {@code buf} as {@link #SERIALIZED_BYTES} bytes. */
+    void writeTo(ByteBuffer buf) {
+        int flags = ((numbers != null) ? HAS_NUMBERS : 0)
+                | ((textIds != null) ? HAS_TEXT_IDS : 0)
+                | ((numberLengths != null) ? HAS_NUMBER_LENGTHS : 0);
+        buf.put((byte) flags);
+        buf.put(tags);
+        for (int i = 0; i < ROWS; i++) {
+            buf.putDouble(number(i));
+        }
+        for (int i = 0; i < ROWS; i++) {
+            buf.putInt(textId(i));
+        }
+        for (int i = 0; i < ROWS; i++) {
+            buf.put((byte) numberLength(i));
+        }
+    }
+
+    /** Reads a block written by {@link #writeTo}, allocating only the arrays it had. */
+    static ArrayCellBlock readFrom(ByteBuffer buf) {
+        ArrayCellBlock block = new ArrayCellBlock();
+        int flags = buf.get();
+        buf.get(block.tags);
+        if ((flags & HAS_NUMBERS) != 0) {
+            block.numbers = new double[ROWS];
+            buf.asDoubleBuffer().get(block.numbers);
+        }
+        buf.position(buf.position() + ROWS * Double.BYTES);
+        if ((flags & HAS_TEXT_IDS) != 0) {
+            block.textIds = new int[ROWS];
+            buf.asIntBuffer().get(block.textIds);
+        }
+        buf.position(buf.position() + ROWS * Integer.BYTES);
+        if ((flags & HAS_NUMBER_LENGTHS) != 0) {
+            block.numberLengths = new byte[ROWS];
+            buf.get(block.numberLengths);
+        }
+        return block;
+    }
+}
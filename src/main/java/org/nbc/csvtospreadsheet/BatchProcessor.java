@@ -0,0 +1,249 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Converts many CSV files at once, each into its own output file.
+ * Jobs run on a fixed pool of {@code concurrency} threads. Before a job is loaded it reserves
+ * an estimate of the memory its sheet will need from a shared budget, and waits while the
+ * budget is used up, so a burst of large files cannot exhaust the heap. A job that fails is
+ * recorded in the {@link Summary} and the others carry on. An {@link Error}, such as running
+ * out of memory despite the budget, leaves the JVM in doubt: jobs not started yet are
+ * skipped, and the error is rethrown by {@link #run} once the running ones are done.
+ * With a {@link ResultCache}, inputs that were converted before are copied from the cache.
+ */
+public class BatchProcessor {
+    private static final Logger logger = Logger.getLogger(BatchProcessor.class.getName());
+
+    /** Rough heap bytes a loaded and evaluated sheet takes per byte of CSV. */
+    static final int MEMORY_PER_INPUT_BYTE = 8;
+
+    /** The memory budget is counted in units of this many bytes, to fit the semaphore's int. */
+    private static final int BUDGET_UNIT = 1 << 10;
+
+    private final int concurrency;
+    private final long memoryBudget;
+    private ResultCache cache;
+
+    /** One CSV file and where its rendered grid goes. */
+    public static final class Job {
+        private final Path input;
+        private final Path output;
+
+        public Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        public Path getInput() {
+            return input;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+
+        @Override
+        public String toString() {
+            return input + " -> " + output;
+        }
+    }
+
+    /** What a batch run did: counts, bytes read, elapsed time and the jobs that failed. */
+    public static final class Summary {
+        private final int succeeded;
+        private final List<String> failures;
+        private final long bytesRead;
+        private final long elapsedNanos;
+
+        Summary(int succeeded, List<String> failures, long bytesRead, long elapsedNanos) {
+            this.succeeded = succeeded;
+            this.failures = failures;
+            this.bytesRead = bytesRead;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        /** One line per failed job: the job followed by the reason. */
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            int total = succeeded + failures.size();
+            StringBuilder sb = new StringBuilder(String.format(
+                    "Processed %d files (%d failed) in %.2f s: %.1f files/s, %.1f MiB/s",
+                    total, failures.size(), seconds, total / seconds, bytesRead / seconds / (1 << 20)));
+            for (String failure : failures) {
+                sb.append(System.lineSeparator()).append("  FAILED ").append(failure);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Creates a processor running up to {@code concurrency} jobs at a time, whose sheets
+     * together are estimated to take at most {@code memoryBudget} bytes.
+     */
+    public BatchProcessor(int concurrency, long memoryBudget) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        this.memoryBudget = Math.max(BUDGET_UNIT, Math.min(memoryBudget, (long) Integer.MAX_VALUE * BUDGET_UNIT));
+    }
+
+    /** A processor with one job per processor, allowed half of the maximum heap. */
+    public BatchProcessor() {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /** Serves repeated inputs from {@code cache}; null converts every file. */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Runs every job and returns once all of them have finished or failed. If a job throws an
+     * {@link Error}, the jobs not started yet are skipped and the error is rethrown.
+     */
+    public Summary run(List<Job> jobs) throws InterruptedException {
+        int budgetUnits = (int) (memoryBudget / BUDGET_UNIT);
+        Semaphore budget = new Semaphore(budgetUnits, true);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicLong bytesRead = new AtomicLong();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Error> fatal = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (Job job : jobs) {
+                executor.execute(() -> {
+                    if (fatal.get() != null) {
+                        return; // the run is being abandoned
+                    }
+                    try {
+                        long size = Files.size(job.getInput());
+                        // A file larger than the whole budget still runs, just on its own
+                        int units = (int) Math.min(budgetUnits,
+                                Math.max(1, size * MEMORY_PER_INPUT_BYTE / BUDGET_UNIT));
+                        budget.acquire(units);
+                        try {
+                            process(job);
+                        } finally {
+                            budget.release(units);
+                        }
+                        bytesRead.addAndGet(size);
+                        succeeded.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failures.add(job + ": interrupted");
+                    } catch (Exception e) {
+                        logger.warning("Failed to process " + job + ": " + e);
+                        failures.add(job + ": " + e);
+                    } catch (Error e) {
+                        logger.severe("Stopping the batch after " + job + ": " + e);
+                        fatal.compareAndSet(null, e);
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (fatal.get() != null) {
+            throw fatal.get();
+        }
+        return new Summary(succeeded.get(), new ArrayList<>(failures), bytesRead.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Loads, evaluates and writes one file. The file is memory-mapped rather than read through
+     * the interactive service's line scanner; for unquoted CSV the output is byte for byte the
+     * same, and quoted fields are parsed as RFC 4180 describes.
+     */
+    void process(Job job) throws IOException {
+        if (cache != null) {
+            byte[] input = Files.readAllBytes(job.getInput());
+            Files.write(job.getOutput(), cache.convert(input, Charset.defaultCharset()));
+            return;
+        }
+        try (SpreadSheet spreadSheet = new SpreadSheet()) {
+            spreadSheet.loadCsvMapped(job.getInput().toString());
+            spreadSheet.evaluateAllExpressions();
+            spreadSheet.printGridToFile(job.getOutput().toString());
+            ConversionMetrics.global().record(spreadSheet.getStats());
+        }
+    }
+
+    /** One job per *.csv file in {@code inputDir}, written to a .txt file of the same name in {@code outputDir}. */
+    public static List<Job> jobsFromDirectory(Path inputDir, Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        List<Job> jobs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(inputDir)) {
+            files.filter(path -> path.getFileName().toString().toLowerCase().endsWith(".csv"))
+                    .sorted()
+                    .forEach(path -> {
+                        String name = path.getFileName().toString();
+                        String base = name.substring(0, name.length() - ".csv".length());
+                        jobs.add(new Job(path, outputDir.resolve(base + ".txt")));
+                    });
+        }
+        return jobs;
+    }
+
+    /**
+     * Reads a manifest with one {@code input,output} pair per line. Blank lines and lines
+     * starting with '#' are skipped; relative paths are resolved against the manifest's directory.
+     */
+    public static List<Job> jobsFromManifest(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            int comma = trimmed.indexOf(',');
+            if (comma < 0) {
+                throw new IOException("Expected 'input,output' on line " + lineNumber + " of " + manifest);
+            }
+            jobs.add(new Job(base.resolve(trimmed.substring(0, comma).trim()),
+                    base.resolve(trimmed.substring(comma + 1).trim())));
+        }
+        return jobs;
+    }
+}
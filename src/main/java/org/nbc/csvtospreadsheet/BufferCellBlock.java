@@ -0,0 +1,69 @@
+package org.nbc.csvtospreadsheet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CellBlock} laid out in a slice of a direct buffer: the tags, then the numbers,
+ * the text ids and the number lengths, each as a fixed-size section. All accesses are absolute,
+ * so distinct cells can be written from different threads.
+ */
+public class BufferCellBlock implements CellBlock {
+    /** Bytes taken by one block. */
+    static final int BYTES = ROWS * (Byte.BYTES + Double.BYTES + Integer.BYTES + Byte.BYTES);
+
+    private static final int NUMBERS = ROWS;
+    private static final int TEXT_IDS = NUMBERS + ROWS * Double.BYTES;
+    private static final int NUMBER_LENGTHS = TEXT_IDS + ROWS * Integer.BYTES;
+
+    private final ByteBuffer buf;
+
+    /** Wraps {@link #BYTES} bytes of {@code slab} starting at {@code offset}. */
+    BufferCellBlock(ByteBuffer slab, int offset) {
+        this.buf = slab.slice(offset, BYTES).order(slab.order());
+    }
+
+    @Override
+    public byte tag(int offset) {
+        return buf.get(offset);
+    }
+
+    @Override
+    public void setTag(int offset, byte tag) {
+        buf.put(offset, tag);
+    }
+
+    @Override
+    public double number(int offset) {
+        return buf.getDouble(NUMBERS + offset * Double.BYTES);
+    }
+
+    @Override
+    public void setNumber(int offset, double value) {
+        buf.putDouble(NUMBERS + offset * Double.BYTES, value);
+    }
+
+    @Override
+    public int textId(int offset) {
+        return buf.getInt(TEXT_IDS + offset * Integer.BYTES);
+    }
+
+    @Override
+    public void setTextId(int offset, int id) {
+        buf.putInt(TEXT_IDS + offset * Integer.BYTES, id);
+    }
+
+    @Override
+    public int numberLength(int offset) {
+        return buf.get(NUMBER_LENGTHS + offset);
+    }
+
+    @Override
+    public void setNumberLength(int offset, int length) {
+        buf.put(NUMBER_LENGTHS + offset, (byte) length);
+    }
+
+    @Override
+    public void reserveNumbers() {
+        // Every section is allocated with the block
+    }
+}
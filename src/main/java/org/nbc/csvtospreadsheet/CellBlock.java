@@ -0,0 +1,34 @@
+package org.nbc.csvtospreadsheet;
+
+/**
+ * The cells of {@link #ROWS} consecutive rows of one column, as stored by a {@link CellStorage}.
+ * A block holds one kind tag per cell plus the numeric value, text id and displayed number
+ * length of the cells that need them; see {@link CellStore} for what each kind uses.
+ */
+public interface CellBlock {
+    /** Number of rows in a block. */
+    int ROWS_SHIFT = 10;
+    int ROWS = 1 << ROWS_SHIFT;
+
+    byte tag(int offset);
+
+    void setTag(int offset, byte tag);
+
+    double number(int offset);
+
+    void setNumber(int offset, double value);
+
+    int textId(int offset);
+
+    void setTextId(int offset, int id);
+
+    int numberLength(int offset);
+
+    void setNumberLength(int offset, int length);
+
+    /**
+     * Makes sure numeric values and lengths can be written without allocating,
+     * so that distinct cells of the block can be written from different threads.
+     */
+    void reserveNumbers();
+}
@@ -0,0 +1,41 @@
+package org.nbc.csvtospreadsheet;
+
+/**
+ * Packs a cell's column and row into one {@code long}: the column in the high 32 bits and
+ * the row in the low 32 bits. Internal indexes use these keys so that looking up a cell
+ * allocates nothing; {@link Pair} is only created where cells leave the public API.
+ */
+public final class CellKey {
+    private CellKey() {
+    }
+
+    public static long of(int col, int row) {
+        return ((long) col << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    public static long of(Pair cell) {
+        return of(cell.getX(), cell.getY());
+    }
+
+    public static int col(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int row(long key) {
+        return (int) key;
+    }
+
+    public static Pair toPair(long key) {
+        return new Pair(col(key), row(key));
+    }
+
+    /** Spreads the bits of a key for use in an open-addressing table (the murmur3 finalizer). */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
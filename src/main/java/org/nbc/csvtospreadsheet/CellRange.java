@@ -0,0 +1,54 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.nbc.csvtospreadsheet.SpreadSheetUtils.columnIndexToLetter;
+
+/**
+ * A rectangular block of cells written as {@code FIRST:LAST}, e.g. A1:A100000 or A1:C500.
+ * The corners are normalised, so the first cell is always the top-left one.
+ */
+public final class CellRange {
+    private final int firstCol;
+    private final int firstRow;
+    private final int lastCol;
+    private final int lastRow;
+
+    public CellRange(int col1, int row1, int col2, int row2) {
+        this.firstCol = Math.min(col1, col2);
+        this.firstRow = Math.min(row1, row2);
+        this.lastCol = Math.max(col1, col2);
+        this.lastRow = Math.max(row1, row2);
+    }
+
+    public int getFirstCol() { return firstCol; }
+    public int getFirstRow() { return firstRow; }
+    public int getLastCol() { return lastCol; }
+    public int getLastRow() { return lastRow; }
+
+    /** Number of cells in the range. */
+    public long cellCount() {
+        return (long) (lastCol - firstCol + 1) * (lastRow - firstRow + 1);
+    }
+
+    public boolean contains(int col, int row) {
+        return col >= firstCol && col <= lastCol && row >= firstRow && row <= lastRow;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CellRange)) return false;
+        CellRange other = (CellRange) o;
+        return firstCol == other.firstCol && firstRow == other.firstRow
+                && lastCol == other.lastCol && lastRow == other.lastRow;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((firstCol * 31 + firstRow) * 31 + lastCol) * 31 + lastRow;
+    }
+
+    @Override
+    public String toString() {
+        return columnIndexToLetter(firstCol) + (firstRow + 1) + ":" + columnIndexToLetter(lastCol) + (lastRow + 1);
+    }
+}
@@ -0,0 +1,88 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of cells held as packed {@link CellKey} keys in an open-addressing table.
+ * Internal code uses {@link #contains(long)} and {@link #add(long)}; the {@code Set<Pair>}
+ * methods are there for callers of the public API and create Pairs only while iterating.
+ */
+public class CellSet extends AbstractSet<Pair> {
+    private final LongIntHashMap keys = new LongIntHashMap();
+
+    public boolean contains(long key) {
+        return keys.containsKey(key);
+    }
+
+    /** Adds the cell; returns false if it was already present. */
+    public boolean add(long key) {
+        return keys.put(key, 1, 0) == 0;
+    }
+
+    public boolean remove(long key) {
+        return keys.remove(key, 0) != 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (o instanceof Pair) && contains(CellKey.of((Pair) o));
+    }
+
+    @Override
+    public boolean add(Pair cell) {
+        return add(CellKey.of(cell));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return (o instanceof Pair) && remove(CellKey.of((Pair) o));
+    }
+
+    @Override
+    public void clear() {
+        keys.clear();
+    }
+
+    @Override
+    public int size() {
+        return keys.size();
+    }
+
+    /** Iterates over a snapshot of the keys, so removing through the iterator is safe. */
+    @Override
+    public Iterator<Pair> iterator() {
+        long[] snapshot = new long[keys.size()];
+        int count = 0;
+        for (int slot = 0; slot < keys.capacity(); slot++) {
+            if (keys.isUsed(slot)) {
+                snapshot[count++] = keys.keyAt(slot);
+            }
+        }
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < snapshot.length;
+            }
+
+            @Override
+            public Pair next() {
+                if (next >= snapshot.length) {
+                    throw new NoSuchElementException();
+                }
+                return CellKey.toPair(snapshot[next++]);
+            }
+
+            @Override
+            public void remove() {
+                if (next == 0) {
+                    throw new IllegalStateException();
+                }
+                CellSet.this.remove(snapshot[next - 1]);
+            }
+        };
+    }
+}
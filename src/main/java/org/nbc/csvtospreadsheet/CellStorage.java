@@ -0,0 +1,32 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Holds the blocks of a {@link CellStore}. A block is addressed by its column and its
+ * block index, i.e. the row divided by {@link CellBlock#ROWS}.
+ *
+ * <p>A block returned by {@link #write} may be modified until the next call to the storage;
+ * blocks returned by {@link #read} must not be modified.
+ */
+public interface CellStorage extends Closeable {
+    /** Returns the dictionary for the texts of the cells, which the storage owns and releases on close. */
+    TextTable textTable();
+
+    /** Returns the block, or null if it was never written. */
+    CellBlock read(int col, int block);
+
+    /** Returns the block for modification, creating an empty one if needed. */
+    CellBlock write(int col, int block);
+
+    /**
+     * True if blocks stay in memory once created. Block references then stay valid, so
+     * distinct cells may be written from several threads and access order does not matter.
+     */
+    boolean isResident();
+
+    /** Releases the storage; the store must not be used afterwards. */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,417 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Column-oriented storage for the cells of a {@link SpreadSheet}.
+ * Every cell is classified once, when it is written, and a one-byte tag records its kind:
+ * numbers live in primitive double arrays, text goes to a {@link TextTable}. Short texts such as
+ * labels and markers are interned, so each distinct one is stored once; longer texts are seldom
+ * repeated and are stored per cell without a lookup. A text is released when its cell is
+ * overwritten, so texts replaced by results do not stay behind.
+ * Columns grow in fixed-size {@link CellBlock blocks}, so appending rows never copies existing
+ * cells and a block only allocates the arrays its cells actually need.
+ * Where the blocks live is up to the {@link CellStorage}: on the heap by default, in direct
+ * buffers outside the heap, or paged to a temporary file for sheets larger than memory.
+ *
+ * <p>The store also keeps a histogram of displayed lengths, updated on every write, so the
+ * widest cell is known at any time without scanning the grid.
+ */
+public class CellStore implements Closeable {
+    /** Cell has no content and renders as an empty string. */
+    public static final byte EMPTY = 0;
+    /** Cell holds non-numeric text, stored in the string table. */
+    public static final byte TEXT = 1;
+    /** Numeric cell whose text is exactly {@code Double.toString(value)}. */
+    public static final byte NUMBER = 2;
+    /** Numeric cell whose text is exactly {@code Long.toString((long) value)}. */
+    public static final byte INTEGER = 3;
+    /** Numeric cell with any other spelling (e.g. "1.50"); the original text is kept in the string table. */
+    public static final byte NUMBER_TEXT = 4;
+    /**
+     * Horizontal rule: a former "#hl" marker rendered as dashes as wide as the columns.
+     * The dashes are produced on read, so the rule follows later changes of the width.
+     */
+    public static final byte RULE = 5;
+
+    private static final int CHUNK_SHIFT = CellBlock.ROWS_SHIFT;
+    private static final int CHUNK_MASK = CellBlock.ROWS - 1;
+
+    /** Integers with at most this many digits are exactly representable as a double. */
+    private static final int MAX_INTEGER_DIGITS = 15;
+
+    /** Texts up to this length are interned; longer ones are stored per cell. */
+    static final int MAX_INTERNED_LENGTH = 32;
+
+    private final CellStorage storage;
+    private final TextTable strings;
+    private int[] columnSizes = new int[8];
+    private int columnCount;
+    private int maxRowCount;
+    private int ruleMarkerLength;
+    private int ruleCount;
+    private String rule = "";
+    private final LengthHistogram lengths = new LengthHistogram();
+
+    /**
+     * Counts cells per displayed length. Lengths of evaluated numbers are short and may be
+     * written from several threads, so short lengths use atomic counters; longer texts are rare
+     * and are counted under a lock.
+     */
+    private static final class LengthHistogram {
+        private static final int SHORT_LENGTHS = 64;
+        private final AtomicIntegerArray shortCounts = new AtomicIntegerArray(SHORT_LENGTHS);
+        private final TreeMap<Integer, Integer> longCounts = new TreeMap<>();
+
+        void add(int length) {
+            if (length <= 0) {
+                return;
+            }
+            if (length < SHORT_LENGTHS) {
+                shortCounts.incrementAndGet(length);
+            } else {
+                synchronized (longCounts) {
+                    longCounts.merge(length, 1, Integer::sum);
+                }
+            }
+        }
+
+        void remove(int length) {
+            if (length <= 0) {
+                return;
+            }
+            if (length < SHORT_LENGTHS) {
+                shortCounts.decrementAndGet(length);
+            } else {
+                synchronized (longCounts) {
+                    longCounts.computeIfPresent(length, (key, count) -> (count == 1) ? null : count - 1);
+                }
+            }
+        }
+
+        int max() {
+            synchronized (longCounts) {
+                Map.Entry<Integer, Integer> last = longCounts.lastEntry();
+                if (last != null) {
+                    return last.getKey();
+                }
+            }
+            for (int length = SHORT_LENGTHS - 1; length > 0; length--) {
+                if (shortCounts.get(length) > 0) {
+                    return length;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /** Creates a store keeping its blocks on the heap. */
+    public CellStore() {
+        this(new HeapCellStorage());
+    }
+
+    /** Creates a store keeping its blocks in {@code storage}. */
+    public CellStore(CellStorage storage) {
+        this.storage = storage;
+        this.strings = storage.textTable();
+    }
+
+    /**
+     * True if the blocks stay in memory, so that distinct cells may be written concurrently.
+     * Otherwise the store must be used from one thread, ideally block by block.
+     */
+    public boolean isResident() {
+        return storage.isResident();
+    }
+
+    /** Releases the storage of the blocks. */
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
+
+    /** Number of columns, including empty columns added explicitly. */
+    public int columnCount() {
+        return columnCount;
+    }
+
+    /** Number of rows in the longest column. */
+    public int maxRowCount() {
+        return maxRowCount;
+    }
+
+    /** Appends a new, empty column. */
+    public void addColumn() {
+        if (columnCount == columnSizes.length) {
+            columnSizes = Arrays.copyOf(columnSizes, columnCount * 2);
+        }
+        columnSizes[columnCount++] = 0;
+    }
+
+    /** Ensures that the cell exists and returns its block for writing, growing the store as needed. */
+    private CellBlock ensureCell(int col, int row) {
+        while (columnCount <= col) {
+            addColumn();
+        }
+        if (columnSizes[col] <= row) {
+            columnSizes[col] = row + 1;
+            maxRowCount = Math.max(maxRowCount, row + 1);
+        }
+        return storage.write(col, row >>> CHUNK_SHIFT);
+    }
+
+    /** Returns the block holding the cell, or null if the cell was never written. */
+    private CellBlock existingBlock(int col, int row) {
+        if (col < 0 || row < 0 || col >= columnCount || row >= columnSizes[col]) {
+            return null;
+        }
+        return storage.read(col, row >>> CHUNK_SHIFT);
+    }
+
+    /** Stores a cell value, classifying it as empty, numeric or text. */
+    public void set(int col, int row, String value) {
+        CellBlock block = ensureCell(col, row);
+        int offset = row & CHUNK_MASK;
+        forget(block, offset);
+        lengths.add(value.length());
+
+        if (value.isEmpty()) {
+            block.setTag(offset, EMPTY);
+        } else if (isPlainInteger(value)) {
+            block.setTag(offset, INTEGER);
+            block.setNumber(offset, Long.parseLong(value));
+        } else if (SpreadSheetUtils.isNumeric(value)) {
+            double number = Double.parseDouble(value);
+            block.setNumber(offset, number);
+            if (Double.toString(number).equals(value)) {
+                block.setTag(offset, NUMBER);
+                block.setNumberLength(offset, value.length());
+            } else {
+                block.setTag(offset, NUMBER_TEXT);
+                block.setTextId(offset, storeText(value));
+            }
+        } else {
+            block.setTag(offset, TEXT);
+            block.setTextId(offset, storeText(value));
+        }
+    }
+
+    private int storeText(String value) {
+        return (value.length() <= MAX_INTERNED_LENGTH) ? strings.intern(value) : strings.add(value);
+    }
+
+    /**
+     * Stores a numeric value directly, without going through its text form. Only its length
+     * is recorded; the text is produced when the cell is read or rendered.
+     */
+    public void setNumber(int col, int row, double value) {
+        CellBlock block = ensureCell(col, row);
+        int offset = row & CHUNK_MASK;
+        int length = SpreadSheetUtils.doubleLength(value);
+        forget(block, offset);
+        lengths.add(length);
+        block.setTag(offset, NUMBER);
+        block.setNumber(offset, value);
+        block.setNumberLength(offset, length);
+    }
+
+    /** Stores an integer parsed straight from its digits; it renders as {@code Long.toString(value)}. */
+    public void setInteger(int col, int row, long value) {
+        CellBlock block = ensureCell(col, row);
+        int offset = row & CHUNK_MASK;
+        forget(block, offset);
+        lengths.add(SpreadSheetUtils.integerLength(value));
+        block.setTag(offset, INTEGER);
+        block.setNumber(offset, value);
+    }
+
+    /** Removes the current content of a cell from the length histogram, and releases its text, before it is overwritten. */
+    private void forget(CellBlock block, int offset) {
+        byte kind = block.tag(offset);
+        if (kind == RULE) {
+            ruleCount--;
+        } else {
+            lengths.remove(storedLength(block, offset, kind));
+            if (kind == TEXT || kind == NUMBER_TEXT) {
+                strings.release(block.textId(offset));
+            }
+        }
+    }
+
+    /** Displayed length of a cell that is not a rule. */
+    private int storedLength(CellBlock block, int offset, byte kind) {
+        return switch (kind) {
+            case TEXT, NUMBER_TEXT -> strings.length(block.textId(offset));
+            case NUMBER -> block.numberLength(offset);
+            case INTEGER -> SpreadSheetUtils.integerLength((long) block.number(offset));
+            default -> 0;
+        };
+    }
+
+    /**
+     * Makes sure the cell and its numeric slot exist without changing its content.
+     * After this, {@link #setNumber} on the cell only writes array elements, so on resident
+     * storage distinct cells can be written from different threads.
+     */
+    public void reserveNumber(int col, int row) {
+        ensureCell(col, row).reserveNumbers();
+    }
+
+    /** Returns the kind tag of a cell; cells outside the store are EMPTY. */
+    public byte kind(int col, int row) {
+        CellBlock block = existingBlock(col, row);
+        return (block == null) ? EMPTY : block.tag(row & CHUNK_MASK);
+    }
+
+    /** Returns true if the cell holds a number. */
+    public boolean isNumeric(int col, int row) {
+        byte kind = kind(col, row);
+        return kind == NUMBER || kind == INTEGER || kind == NUMBER_TEXT;
+    }
+
+    /** Returns the numeric value of a cell, or 0 if the cell is not numeric. */
+    public double numericValue(int col, int row) {
+        CellBlock block = existingBlock(col, row);
+        if (block == null) {
+            return 0.0;
+        }
+        int offset = row & CHUNK_MASK;
+        byte kind = block.tag(offset);
+        if (kind == NUMBER || kind == INTEGER || kind == NUMBER_TEXT) {
+            return block.number(offset);
+        }
+        return 0.0;
+    }
+
+    /** Returns the text of a cell as it would be displayed; cells outside the store are "". */
+    public String get(int col, int row) {
+        CellBlock block = existingBlock(col, row);
+        if (block == null) {
+            return "";
+        }
+        int offset = row & CHUNK_MASK;
+        return switch (block.tag(offset)) {
+            case TEXT, NUMBER_TEXT -> strings.get(block.textId(offset));
+            case NUMBER -> Double.toString(block.number(offset));
+            case INTEGER -> Long.toString((long) block.number(offset));
+            case RULE -> rule;
+            default -> "";
+        };
+    }
+
+    /**
+     * Returns the length a cell contributes to the column width; text cells are answered from
+     * the string table. Rules stretch to the width, so they count with the length of their marker.
+     */
+    public int textLength(int col, int row) {
+        CellBlock block = existingBlock(col, row);
+        if (block == null) {
+            return 0;
+        }
+        int offset = row & CHUNK_MASK;
+        byte kind = block.tag(offset);
+        return (kind == RULE) ? ruleMarkerLength : storedLength(block, offset, kind);
+    }
+
+    /**
+     * Turns every text cell equal to {@code marker} into a rule.
+     * Cells are matched on their dictionary id, so no string comparison is done per cell;
+     * the marker must be short enough to be interned.
+     * Blocks are visited one column at a time, in storage order.
+     */
+    public void markRules(String marker) {
+        int markerId = strings.find(marker);
+        if (markerId < 0) {
+            return;
+        }
+        ruleMarkerLength = Math.max(ruleMarkerLength, marker.length());
+        for (int col = 0; col < columnCount; col++) {
+            int blocks = (columnSizes[col] + CHUNK_MASK) >>> CHUNK_SHIFT;
+            for (int b = 0; b < blocks; b++) {
+                CellBlock block = storage.read(col, b);
+                boolean writing = false;
+                for (int i = 0; block != null && i < CellBlock.ROWS; i++) {
+                    if (block.tag(i) == TEXT && block.textId(i) == markerId) {
+                        if (!writing) {
+                            block = storage.write(col, b);
+                            writing = true;
+                        }
+                        block.setTag(i, RULE);
+                        strings.release(markerId);
+                        lengths.remove(marker.length());
+                        ruleCount++;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Sets how many dashes a rule renders as. */
+    public void setRuleWidth(int width) {
+        if (width != rule.length()) {
+            rule = "-".repeat(width);
+        }
+    }
+
+    /** Returns the number of dashes a rule currently renders as. */
+    public int ruleWidth() {
+        return rule.length();
+    }
+
+    /** Returns the text id of a TEXT or NUMBER_TEXT cell; see {@link #text(int)}. */
+    int textId(int col, int row) {
+        return storage.read(col, row >>> CHUNK_SHIFT).textId(row & CHUNK_MASK);
+    }
+
+    /** Returns the string stored under a text id. */
+    String text(int id) {
+        return strings.get(id);
+    }
+
+    /** Returns {@code text(id).length()} without decoding the text. */
+    int textChars(int id) {
+        return strings.length(id);
+    }
+
+    /** Number of texts stored, used to size caches indexed by text id. */
+    int textCount() {
+        return strings.size();
+    }
+
+    /**
+     * Returns the length of the longest displayed value in the store, as measured by
+     * {@link #textLength}. The lengths are tracked as cells are written, so this does not scan.
+     */
+    public int maxTextLength() {
+        int max = lengths.max();
+        return (ruleCount > 0) ? Math.max(max, ruleMarkerLength) : max;
+    }
+
+    /**
+     * Returns true for integers spelled exactly as {@code Long.toString} would print them,
+     * e.g. "42" or "-7" but not "007", "+1" or "-0". Such cells need no text of their own.
+     */
+    static boolean isPlainInteger(String value) {
+        int length = value.length();
+        int start = (value.charAt(0) == '-') ? 1 : 0;
+        int digits = length - start;
+        if (digits == 0 || digits > MAX_INTEGER_DIGITS) {
+            return false;
+        }
+        if (value.charAt(start) == '0' && (digits > 1 || start == 1)) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An expression parsed once, at load time, into the form evaluation works from:
+ * the operation and the referenced cells as primitive (column, row) coordinates.
+ * Large ranges are kept as their corners rather than expanded into single cells.
+ * The source text is kept so the cell can still be shown when it is not evaluated.
+ * Instances are immutable; an expression with an unsupported operation is kept as an
+ * invalid instance so the cell is still known to be a formula.
+ */
+public final class CompiledExpression {
+    private final String source;
+    private final Operation operation;
+    private final int[] cols;
+    private final int[] rows;
+    // Four entries per range: first col, first row, last col, last row
+    private final int[] ranges;
+
+    CompiledExpression(String source, Operation operation, int[] cols, int[] rows, int[] ranges) {
+        this.source = source;
+        this.operation = operation;
+        this.cols = cols;
+        this.rows = rows;
+        this.ranges = ranges;
+    }
+
+    /** Creates the compiled form of an expression whose operation is not supported. */
+    static CompiledExpression invalid(String source) {
+        return new CompiledExpression(source, null, new int[0], new int[0], new int[0]);
+    }
+
+    /** The text the expression was compiled from. */
+    public String getSource() {
+        return source;
+    }
+
+    /** The operation to apply, or null if the expression is invalid. */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /** True if the expression can be evaluated. */
+    public boolean isValid() {
+        return operation != null;
+    }
+
+    /** Number of cell references. */
+    public int size() {
+        return cols.length;
+    }
+
+    /** Column index of the i-th reference. */
+    public int col(int i) {
+        return cols[i];
+    }
+
+    /** Row index of the i-th reference. */
+    public int row(int i) {
+        return rows[i];
+    }
+
+    /** Number of ranges that are aggregated as a whole rather than cell by cell. */
+    public int rangeCount() {
+        return ranges.length / 4;
+    }
+
+    public int rangeFirstCol(int i) {
+        return ranges[i * 4];
+    }
+
+    public int rangeFirstRow(int i) {
+        return ranges[i * 4 + 1];
+    }
+
+    public int rangeLastCol(int i) {
+        return ranges[i * 4 + 2];
+    }
+
+    public int rangeLastRow(int i) {
+        return ranges[i * 4 + 3];
+    }
+
+    /** Converts back to the Pair-based form used by the public parsing API. */
+    public ExpressionInfo toExpressionInfo() {
+        List<Pair> cellRefs = new ArrayList<>(cols.length);
+        for (int i = 0; i < cols.length; i++) {
+            cellRefs.add(new Pair(cols[i], rows[i]));
+        }
+        if (ranges.length == 0) {
+            return new ExpressionInfo(operation, cellRefs);
+        }
+        List<CellRange> cellRanges = new ArrayList<>(rangeCount());
+        for (int i = 0; i < rangeCount(); i++) {
+            cellRanges.add(new CellRange(rangeFirstCol(i), rangeFirstRow(i), rangeLastCol(i), rangeLastRow(i)));
+        }
+        return new ExpressionInfo(operation, cellRefs, cellRanges);
+    }
+}
@@ -0,0 +1,176 @@
+package org.nbc.csvtospreadsheet;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Cumulative counters and per-phase latency histograms over every conversion the service has
+ * finished, published as the MBean {@value #OBJECT_NAME}. Histograms have one bucket per
+ * power of two of microseconds, so recording a conversion is a handful of atomic additions.
+ */
+public class ConversionMetrics implements ConversionMetricsMBean {
+    private static final Logger logger = Logger.getLogger(ConversionMetrics.class.getName());
+
+    public static final String OBJECT_NAME = "org.nbc.csvtospreadsheet:type=ConversionMetrics";
+
+    private static final int BUCKETS = 40;
+    private static final ConversionStats.Phase[] PHASES = ConversionStats.Phase.values();
+
+    private static final ConversionMetrics GLOBAL = register(new ConversionMetrics());
+
+    private final LongAdder conversions = new LongAdder();
+    private final LongAdder cellsLoaded = new LongAdder();
+    private final LongAdder formulasCompiled = new LongAdder();
+    private final LongAdder formulasEvaluated = new LongAdder();
+    private final LongAdder formulasSkipped = new LongAdder();
+    private final LongAdder cyclesFound = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] phaseNanos = new LongAdder[PHASES.length];
+    private final AtomicLongArray[] histograms = new AtomicLongArray[PHASES.length];
+
+    public ConversionMetrics() {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseNanos[i] = new LongAdder();
+            histograms[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /** The instance the service records into, registered with the platform MBean server. */
+    public static ConversionMetrics global() {
+        return GLOBAL;
+    }
+
+    private static ConversionMetrics register(ConversionMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            logger.warning("Conversion metrics are not available over JMX: " + e);
+        }
+        return metrics;
+    }
+
+    /** Adds one finished conversion. */
+    public void record(ConversionStats stats) {
+        conversions.increment();
+        cellsLoaded.add(stats.getCellsLoaded());
+        formulasCompiled.add(stats.getFormulasCompiled());
+        formulasEvaluated.add(stats.getFormulasEvaluated());
+        formulasSkipped.add(stats.getFormulasSkipped());
+        cyclesFound.add(stats.getCyclesFound());
+        bytesWritten.add(stats.getBytesWritten());
+        maxDepth.accumulate(stats.getMaxDepth());
+        for (int i = 0; i < PHASES.length; i++) {
+            long nanos = stats.getNanos(PHASES[i]);
+            phaseNanos[i].add(nanos);
+            histograms[i].incrementAndGet(bucket(nanos / 1000));
+        }
+    }
+
+    /** Bucket i holds times in [2^(i-1), 2^i) microseconds; bucket 0 holds 0. */
+    private static int bucket(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static int phaseIndex(String phase) {
+        return ConversionStats.Phase.valueOf(phase.toUpperCase()).ordinal();
+    }
+
+    @Override
+    public long getConversions() {
+        return conversions.sum();
+    }
+
+    @Override
+    public long getCellsLoaded() {
+        return cellsLoaded.sum();
+    }
+
+    @Override
+    public long getFormulasCompiled() {
+        return formulasCompiled.sum();
+    }
+
+    @Override
+    public long getFormulasEvaluated() {
+        return formulasEvaluated.sum();
+    }
+
+    @Override
+    public long getFormulasSkipped() {
+        return formulasSkipped.sum();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return (int) maxDepth.get();
+    }
+
+    @Override
+    public long getCyclesFound() {
+        return cyclesFound.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double[] getPhaseMillis() {
+        double[] millis = new double[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            millis[i] = phaseNanos[i].sum() / 1e6;
+        }
+        return millis;
+    }
+
+    @Override
+    public long[] getLatencyHistogram(String phase) {
+        AtomicLongArray histogram = histograms[phaseIndex(phase)];
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public long getLatencyPercentileMicros(String phase, double percentile) {
+        long[] counts = getLatencyHistogram(phase);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return (i == 0) ? 0 : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[] {conversions, cellsLoaded, formulasCompiled,
+                formulasEvaluated, formulasSkipped, cyclesFound, bytesWritten}) {
+            adder.reset();
+        }
+        maxDepth.reset();
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseNanos[i].reset();
+            for (int b = 0; b < BUCKETS; b++) {
+                histograms[i].set(b, 0);
+            }
+        }
+    }
+}
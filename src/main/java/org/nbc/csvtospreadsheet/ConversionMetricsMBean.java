@@ -0,0 +1,32 @@
+package org.nbc.csvtospreadsheet;
+
+/** The JMX view of {@link ConversionMetrics}. */
+public interface ConversionMetricsMBean {
+    long getConversions();
+
+    long getCellsLoaded();
+
+    long getFormulasCompiled();
+
+    long getFormulasEvaluated();
+
+    long getFormulasSkipped();
+
+    int getMaxDepth();
+
+    long getCyclesFound();
+
+    long getBytesWritten();
+
+    /** Total wall time per phase in milliseconds, in {@link ConversionStats.Phase} order. */
+    double[] getPhaseMillis();
+
+    /** Conversions per latency bucket of a phase; bucket i counts times in [2^(i-1), 2^i) microseconds. */
+    long[] getLatencyHistogram(String phase);
+
+    /** The upper bound, in microseconds, of the bucket holding the given percentile of a phase. */
+    long getLatencyPercentileMicros(String phase, double percentile);
+
+    /** Clears every counter and histogram. */
+    void reset();
+}
@@ -0,0 +1,104 @@
+package org.nbc.csvtospreadsheet;
+
+/**
+ * What one sheet has done so far: wall time per phase and the size of the work.
+ * A {@link SpreadSheet} updates its stats as it loads, evaluates and renders, so the numbers
+ * accumulate over repeated calls. Recording is a few field updates per call, plus one
+ * counter increment per loaded cell, so it is always on.
+ */
+public class ConversionStats {
+
+    /** The phases a conversion goes through. */
+    public enum Phase {
+        /** Reading CSV into the grid and compiling expressions. */
+        LOAD,
+        /** Building the dependency graph and computing formulas. */
+        EVALUATE,
+        /** Finding the cycles and blacklisting the formulas that could not be evaluated. */
+        CYCLES,
+        /** Writing the grid out. */
+        RENDER
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+    private long cellsLoaded;
+    private long formulasCompiled;
+    private long formulasEvaluated;
+    private long formulasSkipped;
+    private int maxDepth;
+    private long cyclesFound;
+    private long bytesWritten;
+
+    void addNanos(Phase phase, long elapsed) {
+        nanos[phase.ordinal()] += elapsed;
+    }
+
+    void addCellsLoaded(long count) {
+        cellsLoaded += count;
+    }
+
+    void addFormulasCompiled(long count) {
+        formulasCompiled += count;
+    }
+
+    void addEvaluation(long evaluated, long skipped, int depth) {
+        formulasEvaluated += evaluated;
+        formulasSkipped += skipped;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    void addCyclesFound(long count) {
+        cyclesFound += count;
+    }
+
+    void addBytesWritten(long count) {
+        bytesWritten += count;
+    }
+
+    /** Wall time spent in a phase, in nanoseconds. */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long getCellsLoaded() {
+        return cellsLoaded;
+    }
+
+    /** Loaded cells that were expressions, valid or not. */
+    public long getFormulasCompiled() {
+        return formulasCompiled;
+    }
+
+    /** Formulas computed, counting every recalculation. */
+    public long getFormulasEvaluated() {
+        return formulasEvaluated;
+    }
+
+    /** Formulas left unevaluated because they are invalid, on a cycle or downstream of one. */
+    public long getFormulasSkipped() {
+        return formulasSkipped;
+    }
+
+    /** Length of the longest chain of formulas reading formulas; 0 if no formula reads another. */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Circular references found, each counted once however many cells it spans. */
+    public long getCyclesFound() {
+        return cyclesFound;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("load %.3f ms, evaluate %.3f ms, cycles %.3f ms, render %.3f ms; "
+                        + "%d cells, %d formulas compiled, %d evaluated, %d skipped, depth %d, %d cycles, "
+                        + "%d bytes written",
+                nanos[0] / 1e6, nanos[1] / 1e6, nanos[2] / 1e6, nanos[3] / 1e6, cellsLoaded, formulasCompiled,
+                formulasEvaluated, formulasSkipped, maxDepth, cyclesFound, bytesWritten);
+    }
+}
@@ -0,0 +1,275 @@
+package org.nbc.csvtospreadsheet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits UTF-8 CSV bytes into records and fields by scanning the bytes directly.
+ * Unquoted fields follow the rules of the original Scanner + String.split loader: each field
+ * is trimmed, and trailing empty fields of a line are dropped unless the line has no comma.
+ * Fields whose first non-blank byte is a double quote follow RFC 4180: they may contain commas
+ * and line breaks, and "" stands for one quote. Lines end with \n, \r\n or \r.
+ *
+ * <p>Plain integers are handed to the sink as numbers without being decoded to a String;
+ * every other field is decoded once. The parser can be fed input in pieces: {@link #parse}
+ * only consumes complete records and reports where the first incomplete one starts.
+ */
+public class CsvParser {
+
+    /** Receives the cells of each parsed record. */
+    public interface CellSink {
+        /** A cell holding any text, including the empty string. */
+        void text(int col, int row, String value);
+
+        /** A cell spelled exactly as {@code Long.toString(value)} would print it. */
+        void integer(int col, int row, long value);
+
+        /**
+         * A text cell that was already compiled as an expression, e.g. by a worker thread.
+         * By default it is treated like any other text.
+         */
+        default void expression(int col, int row, String value, CompiledExpression compiled) {
+            text(col, row, value);
+        }
+    }
+
+    private static final int MAX_INTEGER_DIGITS = 15;
+
+    private final CellSink sink;
+    private int row;
+
+    // Bounds of the fields of the record being scanned
+    private int fieldCount;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int[] quoteStart = new int[16];
+    private int[] quoteEnd = new int[16];
+
+    private byte[] scratch = new byte[256];
+
+    public CsvParser(CellSink sink) {
+        this(sink, 0);
+    }
+
+    /** Creates a parser whose first record is reported as row {@code firstRow}. */
+    public CsvParser(CellSink sink, int firstRow) {
+        this.sink = sink;
+        this.row = firstRow;
+    }
+
+    /** The row index the next record will get; after parsing everything, the row count. */
+    public int nextRow() {
+        return row;
+    }
+
+    /**
+     * Parses the complete records in {@code buf[from, to)} and returns the index just after
+     * the last one. Unless {@code endOfInput} is set, a trailing record that is not terminated
+     * yet is left for the next call, which must start at the returned index.
+     */
+    public int parse(ByteBuffer buf, int from, int to, boolean endOfInput) {
+        int pos = from;
+        while (pos < to) {
+            int next = scanRecord(buf, pos, to, endOfInput);
+            if (next < 0) {
+                break;
+            }
+            emitRecord(buf);
+            row++;
+            pos = next;
+        }
+        return pos;
+    }
+
+    /**
+     * Finds the fields of the record starting at {@code start}.
+     * Returns the start of the following record, or -1 if the record is incomplete.
+     */
+    private int scanRecord(ByteBuffer buf, int start, int to, boolean endOfInput) {
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            int fieldBegin = i;
+            int qStart = -1;
+            int qEnd = -1;
+
+            int j = i;
+            while (j < to && isBlank(buf.get(j))) {
+                j++;
+            }
+            if (j < to && buf.get(j) == '"') {
+                // Quoted field: commas and line breaks are content until the closing quote
+                int k = j + 1;
+                qStart = k;
+                while (true) {
+                    if (k >= to) {
+                        if (!endOfInput) {
+                            return -1;
+                        }
+                        qEnd = to;
+                        break;
+                    }
+                    if (buf.get(k) == '"') {
+                        if (k + 1 >= to && !endOfInput) {
+                            return -1;
+                        }
+                        if (k + 1 < to && buf.get(k + 1) == '"') {
+                            k += 2;
+                            continue;
+                        }
+                        qEnd = k;
+                        k++;
+                        break;
+                    }
+                    k++;
+                }
+                i = k;
+            }
+
+            while (i < to) {
+                byte b = buf.get(i);
+                if (b == ',' || b == '\n' || b == '\r') {
+                    break;
+                }
+                i++;
+            }
+            addField(fieldBegin, i, qStart, qEnd);
+
+            if (i >= to) {
+                return endOfInput ? to : -1;
+            }
+            byte b = buf.get(i);
+            if (b == ',') {
+                i++;
+            } else if (b == '\n') {
+                return i + 1;
+            } else if (i + 1 < to) {
+                return (buf.get(i + 1) == '\n') ? i + 2 : i + 1;
+            } else {
+                // A lone \r at the end of the input: wait to see whether \n follows
+                return endOfInput ? i + 1 : -1;
+            }
+        }
+    }
+
+    private void addField(int start, int end, int qStart, int qEnd) {
+        if (fieldCount == fieldStart.length) {
+            int length = fieldCount * 2;
+            fieldStart = Arrays.copyOf(fieldStart, length);
+            fieldEnd = Arrays.copyOf(fieldEnd, length);
+            quoteStart = Arrays.copyOf(quoteStart, length);
+            quoteEnd = Arrays.copyOf(quoteEnd, length);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        quoteStart[fieldCount] = qStart;
+        quoteEnd[fieldCount] = qEnd;
+        fieldCount++;
+    }
+
+    /** Hands the fields of the scanned record to the sink. */
+    private void emitRecord(ByteBuffer buf) {
+        int count = fieldCount;
+        if (count > 1) {
+            // Like String.split: trailing empty fields are dropped when the line has a comma
+            while (count > 0 && fieldEnd[count - 1] == fieldStart[count - 1]) {
+                count--;
+            }
+        }
+
+        for (int col = 0; col < count; col++) {
+            int start = fieldStart[col];
+            int end = fieldEnd[col];
+            if (quoteStart[col] >= 0 && onlyBlanks(buf, Math.min(quoteEnd[col] + 1, end), end)) {
+                sink.text(col, row, unquote(buf, quoteStart[col], quoteEnd[col]));
+                continue;
+            }
+
+            while (start < end && isBlank(buf.get(start))) {
+                start++;
+            }
+            while (end > start && isBlank(buf.get(end - 1))) {
+                end--;
+            }
+            if (isPlainInteger(buf, start, end)) {
+                sink.integer(col, row, parseInteger(buf, start, end));
+            } else {
+                sink.text(col, row, decode(buf, start, end));
+            }
+        }
+    }
+
+    private String decode(ByteBuffer buf, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return "";
+        }
+        byte[] bytes = scratch(length);
+        buf.get(start, bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Decodes the inside of a quoted field, turning each "" into one quote. */
+    private String unquote(ByteBuffer buf, int start, int end) {
+        byte[] bytes = scratch(end - start);
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            bytes[length++] = b;
+            if (b == '"') {
+                i++;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private byte[] scratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    private static boolean onlyBlanks(ByteBuffer buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isBlank(buf.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The bytes String.trim removes; line breaks never reach here. */
+    private static boolean isBlank(byte b) {
+        return b >= 0 && b <= ' ' && b != '\n' && b != '\r';
+    }
+
+    /** Same rule as CellStore.isPlainInteger, applied to bytes. */
+    private static boolean isPlainInteger(ByteBuffer buf, int start, int end) {
+        int digitsStart = (start < end && buf.get(start) == '-') ? start + 1 : start;
+        int digits = end - digitsStart;
+        if (digits == 0 || digits > MAX_INTEGER_DIGITS) {
+            return false;
+        }
+        if (buf.get(digitsStart) == '0' && (digits > 1 || digitsStart > start)) {
+            return false;
+        }
+        for (int i = digitsStart; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseInteger(ByteBuffer buf, int start, int end) {
+        boolean negative = buf.get(start) == '-';
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            value = value * 10 + (buf.get(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+}
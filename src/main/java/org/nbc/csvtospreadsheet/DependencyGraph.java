@@ -0,0 +1,654 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * The dependency graph between the formula cells of a spreadsheet.
+ * Every compiled expression becomes a node; the graph is built from the compiled form only.
+ * References are kept in flat arrays (CSR layout): the references of node {@code n} are the
+ * entries {@code refStart[n] .. refStart[n + 1] - 1}, each with its coordinates and, when the
+ * referenced cell is itself a formula, the index of that node.
+ * The reverse direction is indexed too: which formulas read a given formula node, and which
+ * formulas read a given plain (non-formula) cell, so a change can be traced to its dependents.
+ * Cells are identified by packed {@link CellKey} keys and indexed in open-addressing maps.
+ *
+ * <p>Large ranges get their own CSR arrays: the ranges of node {@code n} are
+ * {@code rangeStart[n] .. rangeStart[n + 1] - 1}. A range's plain cells are not listed one by
+ * one; only the formulas inside it become edges, found by binary search in the formula cells
+ * sorted by key, so the graph grows with the formulas a range covers rather than its area.
+ * The ranges are also indexed per column, sorted by first row, so the ranges covering a cell
+ * are found by binary search rather than by checking every range.
+ */
+public class DependencyGraph {
+    private final long[] cells;
+    private final CompiledExpression[] expressions;
+    private final LongIntHashMap nodeIndex;
+
+    // Formulas reading each plain cell: the readers of the cell with slot s in plainCells are
+    // plainReaders[plainReaderStart[s] .. plainReaderStart[s + 1] - 1]
+    private final LongIntHashMap plainCells = new LongIntHashMap();
+    private int[] plainReaderStart;
+    private int[] plainReaders;
+
+    private final int[] refStart;
+    private final int[] refCols;
+    private final int[] refRows;
+    private final int[] refNodes;
+
+    private final int[] rangeStart;
+    private final int[] rangeBounds;
+    private final int[] rangeOwners;
+    // Formulas inside the ranges of node n: rangePrecedents[rangePrecedentStart[n] .. rangePrecedentStart[n + 1] - 1]
+    private final int[] rangePrecedentStart;
+    private final int[] rangePrecedents;
+    // Ranges per column: the columns any range covers, sorted; the ranges covering rangeColumns[c]
+    // are columnRanges[rangeColumnStart[c] .. rangeColumnStart[c + 1] - 1], sorted by first row,
+    // and columnReach holds the running maximum of their last rows
+    private int[] rangeColumns;
+    private int[] rangeColumnStart;
+    private int[] columnRanges;
+    private int[] columnReach;
+
+    private final int[] dependentStart;
+    private final int[] dependents;
+
+    private DependencyGraph(long[] cells, CompiledExpression[] expressions, LongIntHashMap nodeIndex,
+                            int[] refStart, int[] refCols, int[] refRows, int[] refNodes,
+                            int[] rangeStart, int[] rangeBounds) {
+        this.cells = cells;
+        this.expressions = expressions;
+        this.nodeIndex = nodeIndex;
+        this.refStart = refStart;
+        this.refCols = refCols;
+        this.refRows = refRows;
+        this.refNodes = refNodes;
+        this.rangeStart = rangeStart;
+        this.rangeBounds = rangeBounds;
+
+        int n = cells.length;
+        this.rangeOwners = new int[rangeStart[n]];
+        for (int node = 0; node < n; node++) {
+            Arrays.fill(rangeOwners, rangeStart[node], rangeStart[node + 1], node);
+        }
+
+        this.rangePrecedentStart = new int[n + 1];
+        this.rangePrecedents = linkRanges();
+        indexRangeColumns();
+
+        // Reverse the formula-to-formula edges, ranges included, so each node knows which formulas read it
+        this.dependentStart = new int[n + 1];
+        for (int ref = 0; ref < refNodes.length; ref++) {
+            if (refNodes[ref] >= 0) {
+                dependentStart[refNodes[ref] + 1]++;
+            }
+        }
+        for (int precedent : rangePrecedents) {
+            dependentStart[precedent + 1]++;
+        }
+        for (int node = 0; node < n; node++) {
+            dependentStart[node + 1] += dependentStart[node];
+        }
+        this.dependents = new int[dependentStart[n]];
+        int[] fill = new int[n];
+        for (int node = 0; node < n; node++) {
+            for (int ref = refStart[node]; ref < refStart[node + 1]; ref++) {
+                int precedent = refNodes[ref];
+                if (precedent >= 0) {
+                    dependents[dependentStart[precedent] + fill[precedent]++] = node;
+                }
+            }
+            for (int i = rangePrecedentStart[node]; i < rangePrecedentStart[node + 1]; i++) {
+                int precedent = rangePrecedents[i];
+                dependents[dependentStart[precedent] + fill[precedent]++] = node;
+            }
+        }
+
+        indexPlainReaders();
+    }
+
+    /** Indexes the ranges by the columns they cover, each column's sorted by first row. */
+    private void indexRangeColumns() {
+        int count = rangeOwners.length;
+        // Ranges in order of first row, so each column's list comes out sorted
+        long[] byFirstRow = new long[count];
+        long segments = 0;
+        for (int r = 0; r < count; r++) {
+            byFirstRow[r] = ((long) rangeFirstRow(r) << 32) | r;
+            segments += rangeLastCol(r) - rangeFirstCol(r) + 1;
+        }
+        Arrays.sort(byFirstRow);
+
+        int[] columns = new int[Math.toIntExact(segments)];
+        int at = 0;
+        for (int r = 0; r < count; r++) {
+            for (int col = rangeFirstCol(r); col <= rangeLastCol(r); col++) {
+                columns[at++] = col;
+            }
+        }
+        Arrays.sort(columns);
+        int distinct = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (i == 0 || columns[i] != columns[i - 1]) {
+                columns[distinct++] = columns[i];
+            }
+        }
+        this.rangeColumns = Arrays.copyOf(columns, distinct);
+
+        this.rangeColumnStart = new int[distinct + 1];
+        for (int r = 0; r < count; r++) {
+            for (int col = rangeFirstCol(r); col <= rangeLastCol(r); col++) {
+                rangeColumnStart[Arrays.binarySearch(rangeColumns, col) + 1]++;
+            }
+        }
+        for (int c = 0; c < distinct; c++) {
+            rangeColumnStart[c + 1] += rangeColumnStart[c];
+        }
+        this.columnRanges = new int[rangeColumnStart[distinct]];
+        this.columnReach = new int[columnRanges.length];
+        int[] fill = Arrays.copyOf(rangeColumnStart, distinct);
+        for (long packed : byFirstRow) {
+            int r = (int) packed;
+            for (int col = rangeFirstCol(r); col <= rangeLastCol(r); col++) {
+                int c = Arrays.binarySearch(rangeColumns, col);
+                int i = fill[c]++;
+                columnRanges[i] = r;
+                columnReach[i] = (i == rangeColumnStart[c]) ? rangeLastRow(r) : Math.max(columnReach[i - 1], rangeLastRow(r));
+            }
+        }
+    }
+
+    /** Finds the formulas inside each node's ranges, filling rangePrecedentStart. */
+    private int[] linkRanges() {
+        int n = cells.length;
+        if (rangeStart[n] == 0) {
+            return new int[0];
+        }
+        // Formula cells sorted by key, i.e. by column and then row
+        long[] sortedKeys = cells.clone();
+        Arrays.sort(sortedKeys);
+        int[] sortedNodes = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedNodes[i] = nodeIndex.get(sortedKeys[i], -1);
+        }
+
+        int[] precedents = new int[16];
+        int count = 0;
+        for (int node = 0; node < n; node++) {
+            rangePrecedentStart[node] = count;
+            for (int r = rangeStart[node]; r < rangeStart[node + 1]; r++) {
+                for (int col = rangeFirstCol(r); col <= rangeLastCol(r); col++) {
+                    long last = CellKey.of(col, rangeLastRow(r));
+                    int i = Arrays.binarySearch(sortedKeys, CellKey.of(col, rangeFirstRow(r)));
+                    for (i = (i < 0) ? -i - 1 : i; i < n && sortedKeys[i] <= last; i++) {
+                        if (count == precedents.length) {
+                            precedents = Arrays.copyOf(precedents, count * 2);
+                        }
+                        precedents[count++] = sortedNodes[i];
+                    }
+                }
+            }
+        }
+        rangePrecedentStart[n] = count;
+        return Arrays.copyOf(precedents, count);
+    }
+
+    /** Groups the formulas reading each plain cell: number the cells and count readers, then fill. */
+    private void indexPlainReaders() {
+        int[] counts = new int[16];
+        for (int ref = 0; ref < refNodes.length; ref++) {
+            if (refNodes[ref] < 0) {
+                long cell = CellKey.of(refCols[ref], refRows[ref]);
+                int slot = plainCells.get(cell, -1);
+                if (slot < 0) {
+                    slot = plainCells.size();
+                    plainCells.put(cell, slot, -1);
+                    if (slot == counts.length) {
+                        counts = Arrays.copyOf(counts, slot * 2);
+                    }
+                }
+                counts[slot]++;
+            }
+        }
+        int cellCount = plainCells.size();
+        plainReaderStart = new int[cellCount + 1];
+        for (int slot = 0; slot < cellCount; slot++) {
+            plainReaderStart[slot + 1] = plainReaderStart[slot] + counts[slot];
+        }
+        plainReaders = new int[plainReaderStart[cellCount]];
+        int[] fill = Arrays.copyOf(plainReaderStart, cellCount);
+        for (int node = 0; node < cells.length; node++) {
+            for (int ref = refStart[node]; ref < refStart[node + 1]; ref++) {
+                if (refNodes[ref] < 0) {
+                    int slot = plainCells.get(CellKey.of(refCols[ref], refRows[ref]), -1);
+                    plainReaders[fill[slot]++] = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * Links the references between the compiled expressions of a table.
+     * Invalid expressions become nodes without references.
+     */
+    public static DependencyGraph build(ExpressionTable table) {
+        int n = table.size();
+        long[] cells = new long[n];
+        CompiledExpression[] expressions = new CompiledExpression[n];
+        LongIntHashMap nodeIndex = new LongIntHashMap(n);
+
+        int node;
+        int refCount = 0;
+        int rangeCount = 0;
+        for (node = 0; node < n; node++) {
+            cells[node] = table.cellAt(node);
+            expressions[node] = table.expressionAt(node);
+            refCount += expressions[node].size();
+            rangeCount += expressions[node].rangeCount();
+            nodeIndex.put(cells[node], node, -1);
+        }
+
+        int[] refStart = new int[n + 1];
+        int[] refCols = new int[refCount];
+        int[] refRows = new int[refCount];
+        int[] refNodes = new int[refCount];
+        int ref = 0;
+        for (node = 0; node < n; node++) {
+            refStart[node] = ref;
+            CompiledExpression expression = expressions[node];
+            for (int i = 0; i < expression.size(); i++) {
+                refCols[ref] = expression.col(i);
+                refRows[ref] = expression.row(i);
+                refNodes[ref] = nodeIndex.get(CellKey.of(refCols[ref], refRows[ref]), -1);
+                ref++;
+            }
+        }
+        refStart[n] = ref;
+
+        int[] rangeStart = new int[n + 1];
+        int[] rangeBounds = new int[rangeCount * 4];
+        int range = 0;
+        for (node = 0; node < n; node++) {
+            rangeStart[node] = range;
+            CompiledExpression expression = expressions[node];
+            for (int i = 0; i < expression.rangeCount(); i++) {
+                rangeBounds[range * 4] = expression.rangeFirstCol(i);
+                rangeBounds[range * 4 + 1] = expression.rangeFirstRow(i);
+                rangeBounds[range * 4 + 2] = expression.rangeLastCol(i);
+                rangeBounds[range * 4 + 3] = expression.rangeLastRow(i);
+                range++;
+            }
+        }
+        rangeStart[n] = range;
+
+        return new DependencyGraph(cells, expressions, nodeIndex, refStart, refCols, refRows, refNodes,
+                rangeStart, rangeBounds);
+    }
+
+    /** Number of formula cells in the graph. */
+    public int size() {
+        return cells.length;
+    }
+
+    /** The location of a formula node. */
+    public Pair cell(int node) {
+        return CellKey.toPair(cells[node]);
+    }
+
+    /** The packed {@link CellKey} of a formula node. */
+    public long key(int node) {
+        return cells[node];
+    }
+
+    /** The compiled expression of a node. */
+    public CompiledExpression expression(int node) {
+        return expressions[node];
+    }
+
+    /** The node of a formula cell, or -1 if the cell holds no formula. */
+    public int nodeOf(Pair cell) {
+        return nodeOf(CellKey.of(cell));
+    }
+
+    /** The node of a packed cell key, or -1 if the cell holds no formula. */
+    public int nodeOf(long cell) {
+        return nodeIndex.get(cell, -1);
+    }
+
+    /**
+     * The slot of a plain (non-formula) cell that formulas reference directly, or -1 if none do.
+     * Its readers are {@link #plainReader} of {@code plainReaderStart(slot) .. plainReaderEnd(slot) - 1}.
+     */
+    int plainCellSlot(long cell) {
+        return plainCells.get(cell, -1);
+    }
+
+    int plainReaderStart(int slot) {
+        return plainReaderStart[slot];
+    }
+
+    int plainReaderEnd(int slot) {
+        return plainReaderStart[slot + 1];
+    }
+
+    int plainReader(int index) {
+        return plainReaders[index];
+    }
+
+    /** The first index in {@link #dependent(int)} of the formulas that reference a node. */
+    int dependentStart(int node) {
+        return dependentStart[node];
+    }
+
+    int dependentEnd(int node) {
+        return dependentStart[node + 1];
+    }
+
+    int dependent(int index) {
+        return dependents[index];
+    }
+
+    int refStart(int node) {
+        return refStart[node];
+    }
+
+    int refEnd(int node) {
+        return refStart[node + 1];
+    }
+
+    int refCol(int ref) {
+        return refCols[ref];
+    }
+
+    int refRow(int ref) {
+        return refRows[ref];
+    }
+
+    /** Node index of the formula a reference points at, or -1 for plain cells. */
+    int refNode(int ref) {
+        return refNodes[ref];
+    }
+
+    /** The first range of a node; its ranges are {@code rangeStart(node) .. rangeEnd(node) - 1}. */
+    int rangeStart(int node) {
+        return rangeStart[node];
+    }
+
+    int rangeEnd(int node) {
+        return rangeStart[node + 1];
+    }
+
+    /** Number of large ranges across all nodes. */
+    int rangeCount() {
+        return rangeOwners.length;
+    }
+
+    /** The node whose expression holds a range. */
+    int rangeOwner(int range) {
+        return rangeOwners[range];
+    }
+
+    int rangeFirstCol(int range) {
+        return rangeBounds[range * 4];
+    }
+
+    int rangeFirstRow(int range) {
+        return rangeBounds[range * 4 + 1];
+    }
+
+    int rangeLastCol(int range) {
+        return rangeBounds[range * 4 + 2];
+    }
+
+    int rangeLastRow(int range) {
+        return rangeBounds[range * 4 + 3];
+    }
+
+    /**
+     * Calls {@code action} with every range that contains (col, row). The column's ranges
+     * starting at or above the row are found by binary search, and are walked back only while
+     * one of them can still reach down to the row.
+     */
+    void forEachRangeCovering(int col, int row, IntConsumer action) {
+        int c = Arrays.binarySearch(rangeColumns, col);
+        if (c < 0) {
+            return;
+        }
+        int lo = rangeColumnStart[c];
+        int hi = rangeColumnStart[c + 1];
+        // Upper bound: the first range of the column starting below the row
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rangeFirstRow(columnRanges[mid]) <= row) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo - 1; i >= rangeColumnStart[c] && columnReach[i] >= row; i--) {
+            if (rangeLastRow(columnRanges[i]) >= row) {
+                action.accept(columnRanges[i]);
+            }
+        }
+    }
+
+    /** The first index in {@link #rangePrecedent(int)} of the formulas inside a node's ranges. */
+    int rangePrecedentStart(int node) {
+        return rangePrecedentStart[node];
+    }
+
+    int rangePrecedentEnd(int node) {
+        return rangePrecedentStart[node + 1];
+    }
+
+    int rangePrecedent(int index) {
+        return rangePrecedents[index];
+    }
+
+    /** Number of formula nodes a node waits for, through references and ranges. */
+    private int formulaPrecedents(int node) {
+        int count = rangePrecedentStart[node + 1] - rangePrecedentStart[node];
+        for (int ref = refStart[node]; ref < refStart[node + 1]; ref++) {
+            if (refNodes[ref] >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Orders the nodes so that every formula comes after the formulas it references
+     * (Kahn's algorithm, iterative). Nodes on a cycle, or downstream of one, never become
+     * ready and are left out, so the returned array may be shorter than {@link #size()}.
+     */
+    public int[] topologicalOrder() {
+        int n = cells.length;
+        int[] pending = new int[n];
+        for (int node = 0; node < n; node++) {
+            pending[node] = formulaPrecedents(node);
+        }
+
+        int[] order = new int[n];
+        int tail = 0;
+        for (int node = 0; node < n; node++) {
+            if (pending[node] == 0) {
+                order[tail++] = node;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int node = order[head];
+            for (int i = dependentStart[node]; i < dependentStart[node + 1]; i++) {
+                int dependent = dependents[i];
+                if (--pending[dependent] == 0) {
+                    order[tail++] = dependent;
+                }
+            }
+        }
+        return (tail == n) ? order : Arrays.copyOf(order, tail);
+    }
+
+    /**
+     * Finds the circular references among the nodes left out of {@code order}: the strongly
+     * connected components of more than one node, and nodes that reference themselves.
+     * Uses Tarjan's algorithm with explicit stacks, so it runs in time linear in the nodes and
+     * references it visits and never recurses. Only nodes missing from the order are visited,
+     * so an acyclic graph costs nothing. Each cycle is returned once, its nodes sorted by cell
+     * key (column, then row), and the cycles are sorted by their first cell.
+     */
+    public List<int[]> cycles(int[] order) {
+        int n = cells.length;
+        List<int[]> cycles = new ArrayList<>();
+        if (order.length == n) {
+            return cycles;
+        }
+        boolean[] ordered = new boolean[n];
+        for (int node : order) {
+            ordered[node] = true;
+        }
+
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int[] stack = new int[n];
+        int stackSize = 0;
+        // The simulated call stack: a node and the next dependent edge to follow from it
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        int depth = 0;
+        int counter = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (ordered[root] || index[root] >= 0) {
+                continue;
+            }
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            callNode[depth] = root;
+            callEdge[depth++] = dependentStart[root];
+
+            while (depth > 0) {
+                int node = callNode[depth - 1];
+                int edge = callEdge[depth - 1];
+                if (edge < dependentStart[node + 1]) {
+                    callEdge[depth - 1]++;
+                    int next = dependents[edge];
+                    if (ordered[next]) {
+                        continue;
+                    }
+                    if (index[next] < 0) {
+                        index[next] = low[next] = counter++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callNode[depth] = next;
+                        callEdge[depth++] = dependentStart[next];
+                    } else if (onStack[next]) {
+                        low[node] = Math.min(low[node], index[next]);
+                    }
+                    continue;
+                }
+
+                depth--;
+                if (depth > 0) {
+                    int parent = callNode[depth - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] == index[node]) {
+                    int top = stackSize;
+                    do {
+                        onStack[stack[--stackSize]] = false;
+                    } while (stack[stackSize] != node);
+                    if (top - stackSize > 1 || readsItself(node)) {
+                        cycles.add(sortedByKey(stack, stackSize, top));
+                    }
+                }
+            }
+        }
+        cycles.sort(Comparator.comparingLong(component -> cells[component[0]]));
+        return cycles;
+    }
+
+    private int[] sortedByKey(int[] nodes, int from, int to) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = cells[nodes[i]];
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = nodeIndex.get(keys[i], -1);
+        }
+        return sorted;
+    }
+
+    private boolean readsItself(int node) {
+        for (int i = dependentStart[node]; i < dependentStart[node + 1]; i++) {
+            if (dependents[i] == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a topological order into wavefronts: the nodes of one wavefront only reference
+     * nodes of earlier ones, so they can be evaluated independently of each other.
+     * Kahn's FIFO order already lists nodes by non-decreasing depth, so the wavefronts are
+     * contiguous slices of {@code order}; the returned array holds the start of each slice,
+     * followed by {@code order.length}.
+     */
+    public int[] wavefrontStarts(int[] order) {
+        int[] depth = new int[cells.length];
+        int[] starts = new int[order.length + 1];
+        int count = 0;
+        int current = -1;
+        for (int i = 0; i < order.length; i++) {
+            int node = order[i];
+            int level = 0;
+            for (int ref = refStart[node]; ref < refStart[node + 1]; ref++) {
+                if (refNodes[ref] >= 0) {
+                    level = Math.max(level, depth[refNodes[ref]] + 1);
+                }
+            }
+            for (int p = rangePrecedentStart[node]; p < rangePrecedentStart[node + 1]; p++) {
+                level = Math.max(level, depth[rangePrecedents[p]] + 1);
+            }
+            depth[node] = level;
+            if (level != current) {
+                starts[count++] = i;
+                current = level;
+            }
+        }
+        starts[count++] = order.length;
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Reorders every wavefront of {@code order} by the storage block of its cell, then by column
+     * and row, so that walking the result visits the blocks of a {@link CellStore} one after
+     * another. Nodes only move within their wavefront, so the result is still a topological order.
+     */
+    public int[] blockLocalOrder(int[] order) {
+        Comparator<Integer> byBlock = Comparator
+                .<Integer>comparingInt(node -> CellKey.row(cells[node]) >>> CellBlock.ROWS_SHIFT)
+                .thenComparingInt(node -> CellKey.col(cells[node]))
+                .thenComparingInt(node -> CellKey.row(cells[node]));
+        int[] starts = wavefrontStarts(order);
+        int[] result = new int[order.length];
+        for (int w = 0; w + 1 < starts.length; w++) {
+            Integer[] wave = new Integer[starts[w + 1] - starts[w]];
+            for (int i = 0; i < wave.length; i++) {
+                wave[i] = order[starts[w] + i];
+            }
+            Arrays.sort(wave, byBlock);
+            for (int i = 0; i < wave.length; i++) {
+                result[starts[w] + i] = wave[i];
+            }
+        }
+        return result;
+    }
+}
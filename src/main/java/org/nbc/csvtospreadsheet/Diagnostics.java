@@ -0,0 +1,148 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the problems found while a sheet is evaluated, instead of logging each cell.
+ * Every problem adds one to the counter of its {@link Category}, and the first
+ * {@link #SAMPLE_LIMIT} cells of each category are kept as samples. A {@link Report} of the
+ * counts and samples can be taken at any time, and is logged once, as a single line.
+ *
+ * <p>Each problem is also logged on its own at {@link Level#FINE}. The message is only built
+ * when that level is enabled, so recording a problem otherwise costs a counter update.
+ */
+public class Diagnostics {
+    private static final Logger logger = Logger.getLogger(Diagnostics.class.getName());
+
+    /** Cells kept as samples per category; the rest are only counted. */
+    public static final int SAMPLE_LIMIT = 10;
+
+    /** The kinds of problem that keep a formula from being evaluated. */
+    public enum Category {
+        /** A formula on a circular reference. */
+        CYCLE_MEMBER("on cycles"),
+        /** A formula reading a blacklisted formula, directly or through others. */
+        BLACKLISTED_REFERENCE("reading blacklisted cells"),
+        /** A formula that cannot be parsed: an unknown operation or a reference out of range. */
+        INVALID_FORMULA("invalid");
+
+        private final String description;
+
+        Category(String description) {
+            this.description = description;
+        }
+    }
+
+    private final long[] counts = new long[Category.values().length];
+    private final long[][] samples = new long[Category.values().length][SAMPLE_LIMIT];
+    private long cycles;
+
+    /** Records a problem with the formula at {@code cell}, a {@link CellKey}. */
+    void record(Category category, long cell) {
+        int c = category.ordinal();
+        if (counts[c] < SAMPLE_LIMIT) {
+            samples[c][(int) counts[c]] = cell;
+        }
+        counts[c]++;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(category + ": " + new Pair(CellKey.col(cell), CellKey.row(cell)));
+        }
+    }
+
+    /** Counts one circular reference, however many cells it spans. */
+    void recordCycle() {
+        cycles++;
+    }
+
+    /** True if no problem was recorded. */
+    public boolean isEmpty() {
+        for (long count : counts) {
+            if (count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** A snapshot of the counts and samples recorded so far. */
+    public Report report() {
+        List<List<Pair>> samplePairs = new ArrayList<>();
+        for (Category category : Category.values()) {
+            int c = category.ordinal();
+            List<Pair> pairs = new ArrayList<>();
+            for (int i = 0; i < Math.min(counts[c], SAMPLE_LIMIT); i++) {
+                pairs.add(new Pair(CellKey.col(samples[c][i]), CellKey.row(samples[c][i])));
+            }
+            samplePairs.add(Collections.unmodifiableList(pairs));
+        }
+        return new Report(counts.clone(), samplePairs, cycles);
+    }
+
+    /** Logs the report as one warning line, if there is anything to report. */
+    void logSummary() {
+        if (!isEmpty() && logger.isLoggable(Level.WARNING)) {
+            logger.warning(report().toString());
+        }
+    }
+
+    /** The problems of one sheet: a count and a few sample cells per category. */
+    public static final class Report {
+        private final long[] counts;
+        private final List<List<Pair>> samples;
+        private final long cycles;
+
+        Report(long[] counts, List<List<Pair>> samples, long cycles) {
+            this.counts = counts;
+            this.samples = samples;
+            this.cycles = cycles;
+        }
+
+        /** Formulas with a problem of this category. */
+        public long getCount(Category category) {
+            return counts[category.ordinal()];
+        }
+
+        /** The first cells recorded in this category, at most {@link #SAMPLE_LIMIT}. */
+        public List<Pair> getSamples(Category category) {
+            return samples.get(category.ordinal());
+        }
+
+        /** Formulas left unevaluated, over all categories. */
+        public long getTotal() {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /** Circular references found, each counted once; not counted in lazy mode. */
+        public long getCycles() {
+            return cycles;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Skipping evaluation of ").append(getTotal()).append(" formulas:");
+            for (Category category : Category.values()) {
+                long count = counts[category.ordinal()];
+                sb.append((category.ordinal() == 0) ? " " : ", ").append(count).append(' ').append(category.description);
+                if (category == Category.CYCLE_MEMBER && cycles > 0) {
+                    sb.append(" (").append(cycles).append(" cycles)");
+                }
+                List<Pair> sample = samples.get(category.ordinal());
+                if (!sample.isEmpty()) {
+                    sb.append(" e.g. ").append(sample);
+                    if (count > sample.size()) {
+                        sb.append(" and ").append(count - sample.size()).append(" more");
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
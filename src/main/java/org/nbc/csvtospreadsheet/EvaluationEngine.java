@@ -0,0 +1,552 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates the formulas of a {@link DependencyGraph} in topological order.
+ * Each formula is computed exactly once, after all the formulas it references, so no
+ * recursion is needed and the work is linear in the number of references.
+ * Formulas on a cycle, formulas that depend on one and invalid formulas are
+ * left untouched in the grid and added to the blacklist. The cycles themselves are found
+ * afterwards, in one linear pass over the formulas left out of the order. Every skipped
+ * formula is recorded in the engine's {@link Diagnostics}, which are logged once in summary.
+ *
+ * <p>When a pool is configured and the graph has at least {@code parallelThreshold} formulas,
+ * the order is split into wavefronts and each wavefront is evaluated across the pool.
+ * Every formula is computed from the same inputs either way, so the results are identical.
+ *
+ * <p>The engine keeps its graph and results after {@link #evaluate}. {@link #markChanged} then
+ * flags the formulas that transitively depend on a changed cell, and {@link #recalculate}
+ * re-evaluates only those, in their original topological order.
+ *
+ * <p>Every formula folds its terms through its operation's {@link Accumulator}, one at a time,
+ * so no buffer of terms is built. Large ranges of SUM and PROD are aggregated through a
+ * {@link RangeIndex} and added as one term; those of other operations are streamed cell by cell. A formula with
+ * ranges waits for every formula inside them, and each formula result is written to the index
+ * as well as the grid.
+ *
+ * <p>Instead of {@link #evaluate}, the engine can be {@link #prepare prepared} for pull-based
+ * evaluation: nothing is computed up front, and {@link #evaluateCell} computes one formula and
+ * the formulas it transitively reads, in a depth-first walk with explicit stacks. Results are
+ * kept, so every formula is computed at most once, and a change only discards the results
+ * downstream of it, to be recomputed when they are next pulled.
+ *
+ * <p>On a grid whose blocks are paged out of memory, evaluation is always sequential and each
+ * wavefront is walked block by block, so that neighbouring formulas share page loads.
+ */
+public class EvaluationEngine {
+    /** Wavefront slices smaller than this are evaluated on the calling thread. */
+    private static final int PARALLEL_GRAIN = 1024;
+
+    private final CellStore grid;
+    private final ForkJoinPool pool;
+    private final int parallelThreshold;
+
+    private DependencyGraph graph;
+    private Evaluation evaluation;
+    private int[] order;
+    private int[] rank;
+    private boolean[] dirty;
+    private int[] dirtyRanks = new int[16];
+    private int dirtyCount;
+
+    // Pull-based evaluation: the state of each node and the stacks of the depth-first walk
+    private static final byte UNVISITED = 0;
+    private static final byte ON_STACK = 1;
+    private static final byte DONE = 2;
+    private boolean lazy;
+    private byte[] state;
+    private int[] walkNodes;
+    private int[] walkEdges;
+    private boolean[] onCycle;
+    private Diagnostics diagnostics = new Diagnostics();
+
+    // Outcome of the last evaluate call, or totals of the pulls since prepare
+    private int evaluatedCount;
+    private int skippedCount;
+    private int maxDepth;
+    private long skipNanos;
+    private List<int[]> cycles = Collections.emptyList();
+
+    /** Creates a sequential engine. */
+    public EvaluationEngine(CellStore grid) {
+        this(grid, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an engine that evaluates on {@code pool} once a graph has at least
+     * {@code parallelThreshold} formulas. A null pool always evaluates sequentially.
+     */
+    public EvaluationEngine(CellStore grid, ForkJoinPool pool, int parallelThreshold) {
+        this.grid = grid;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /** Records skipped formulas into {@code diagnostics} instead of a collector of the engine's own. */
+    public void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /** The problems recorded by the last {@link #evaluate}, or by the pulls since {@link #prepare}. */
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Evaluates every node of the graph, writing numeric results into the grid.
+     * Cells already in {@code blacklisted} are skipped; cells that cannot be evaluated are added to it.
+     */
+    public void evaluate(DependencyGraph graph, CellSet blacklisted) {
+        int n = graph.size();
+        this.graph = graph;
+        int[] topological = graph.topologicalOrder();
+        this.order = grid.isResident() ? topological : graph.blockLocalOrder(topological);
+        RangeIndex ranges = (graph.rangeCount() > 0) ? new RangeIndex(grid, graph) : null;
+        this.evaluation = new Evaluation(graph, blacklisted, ranges);
+        this.rank = new int[n];
+        this.dirty = new boolean[n];
+        this.dirtyCount = 0;
+        Arrays.fill(rank, -1);
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+        }
+
+        if (pool != null && n >= parallelThreshold && grid.isResident()) {
+            // Reserve numeric slots up front so concurrent writes never allocate storage
+            for (int node = 0; node < n; node++) {
+                long cell = graph.key(node);
+                grid.reserveNumber(CellKey.col(cell), CellKey.row(cell));
+            }
+            int[] starts = graph.wavefrontStarts(order);
+            for (int w = 0; w + 1 < starts.length; w++) {
+                WavefrontTask task = new WavefrontTask(evaluation, order, starts[w], starts[w + 1]);
+                if (starts[w + 1] - starts[w] < PARALLEL_GRAIN) {
+                    task.compute();
+                } else {
+                    pool.invoke(task);
+                }
+            }
+        } else {
+            evaluation.evaluateRange(order, 0, order.length);
+        }
+
+        long skipStart = System.nanoTime();
+        evaluatedCount = 0;
+        skippedCount = 0;
+        maxDepth = 0;
+        for (int node = 0; node < n; node++) {
+            if (evaluation.evaluated[node]) {
+                evaluatedCount++;
+                maxDepth = Math.max(maxDepth, evaluation.depths[node]);
+                continue;
+            }
+            skippedCount++;
+            blacklisted.add(graph.key(node));
+        }
+        cycles = graph.cycles(topological);
+        if (skippedCount > 0) {
+            reportSkipped();
+        }
+        skipNanos = System.nanoTime() - skipStart;
+    }
+
+    /**
+     * Records every skipped formula in the diagnostics, as a cycle member, an invalid formula
+     * or a reader of those, and logs their summary once.
+     */
+    private void reportSkipped() {
+        boolean[] onCycle = new boolean[graph.size()];
+        for (int[] cycle : cycles) {
+            diagnostics.recordCycle();
+            for (int node : cycle) {
+                onCycle[node] = true;
+                diagnostics.record(Diagnostics.Category.CYCLE_MEMBER, graph.key(node));
+            }
+        }
+        for (int node = 0; node < graph.size(); node++) {
+            if (evaluation.evaluated[node] || onCycle[node]) {
+                continue;
+            }
+            diagnostics.record(graph.expression(node).isValid()
+                    ? Diagnostics.Category.BLACKLISTED_REFERENCE
+                    : Diagnostics.Category.INVALID_FORMULA, graph.key(node));
+        }
+        diagnostics.logSummary();
+    }
+
+    /**
+     * Prepares pull-based evaluation of the graph without computing anything yet; formulas
+     * are computed by {@link #evaluateCell}. Formulas found to be unevaluable are added to
+     * {@code blacklisted} as they are reached. Evaluation is always sequential.
+     */
+    public void prepare(DependencyGraph graph, CellSet blacklisted) {
+        int n = graph.size();
+        this.graph = graph;
+        this.lazy = true;
+        RangeIndex ranges = (graph.rangeCount() > 0) ? new RangeIndex(grid, graph) : null;
+        this.evaluation = new Evaluation(graph, blacklisted, ranges);
+        this.order = new int[0];
+        this.rank = new int[n];
+        this.dirty = new boolean[n];
+        Arrays.fill(rank, -1);
+        this.state = new byte[n];
+        this.walkNodes = new int[n];
+        this.walkEdges = new int[n];
+        this.onCycle = new boolean[n];
+        evaluatedCount = 0;
+        skippedCount = 0;
+        maxDepth = 0;
+        cycles = Collections.emptyList();
+    }
+
+    /** True if the engine was prepared for pull-based evaluation rather than evaluated in full. */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Computes a formula cell and every formula it transitively reads that has no result yet,
+     * and returns how many formulas were computed. Plain cells and formulas already computed
+     * cost nothing. Only available after {@link #prepare}.
+     */
+    public int evaluateCell(long cell) {
+        int node = graph.nodeOf(cell);
+        if (node < 0 || state[node] == DONE) {
+            return 0;
+        }
+        int before = evaluatedCount;
+        int depth = 0;
+        walkNodes[depth] = node;
+        walkEdges[depth++] = 0;
+        state[node] = ON_STACK;
+        while (depth > 0) {
+            int current = walkNodes[depth - 1];
+            int edge = walkEdges[depth - 1]++;
+            int refs = graph.refEnd(current) - graph.refStart(current);
+            if (edge < refs + graph.rangePrecedentEnd(current) - graph.rangePrecedentStart(current)) {
+                int precedent = (edge < refs)
+                        ? graph.refNode(graph.refStart(current) + edge)
+                        : graph.rangePrecedent(graph.rangePrecedentStart(current) + edge - refs);
+                if (precedent >= 0 && state[precedent] == UNVISITED) {
+                    state[precedent] = ON_STACK;
+                    walkNodes[depth] = precedent;
+                    walkEdges[depth++] = 0;
+                } else if (precedent >= 0 && state[precedent] == ON_STACK) {
+                    // A precedent still on the stack closes a cycle through every node above it
+                    int i = depth - 1;
+                    while (walkNodes[i] != precedent) {
+                        onCycle[walkNodes[i--]] = true;
+                    }
+                    onCycle[precedent] = true;
+                }
+                continue;
+            }
+
+            depth--;
+            state[current] = DONE;
+            evaluation.evaluateNode(current);
+            if (evaluation.evaluated[current]) {
+                evaluatedCount++;
+                maxDepth = Math.max(maxDepth, evaluation.depths[current]);
+            } else {
+                skippedCount++;
+                evaluation.blacklisted.add(graph.key(current));
+                diagnostics.record(onCycle[current] ? Diagnostics.Category.CYCLE_MEMBER
+                        : graph.expression(current).isValid() ? Diagnostics.Category.BLACKLISTED_REFERENCE
+                        : Diagnostics.Category.INVALID_FORMULA, graph.key(current));
+            }
+        }
+        return evaluatedCount - before;
+    }
+
+    /** Number of formulas the last {@link #evaluate} computed. */
+    public int evaluatedCount() {
+        return evaluatedCount;
+    }
+
+    /** Number of formulas the last {@link #evaluate} left unevaluated and blacklisted. */
+    public int skippedCount() {
+        return skippedCount;
+    }
+
+    /** Longest chain of formulas reading formulas in the last {@link #evaluate}; 0 without such edges. */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** The circular references found by the last {@link #evaluate}, each listed once. */
+    public List<List<Pair>> cycles() {
+        List<List<Pair>> result = new ArrayList<>(cycles.size());
+        for (int[] cycle : cycles) {
+            List<Pair> cells = new ArrayList<>(cycle.length);
+            for (int node : cycle) {
+                cells.add(graph.cell(node));
+            }
+            result.add(cells);
+        }
+        return result;
+    }
+
+    /** Number of circular references found by the last {@link #evaluate}. */
+    public int cycleCount() {
+        return cycles.size();
+    }
+
+    /** Nanoseconds the last {@link #evaluate} spent finding cycles and blacklisting unevaluated formulas. */
+    public long skipNanos() {
+        return skipNanos;
+    }
+
+    /**
+     * Records that a cell changed since the last evaluation. If the cell is a formula it is
+     * flagged itself; either way every formula that transitively reads it is flagged.
+     */
+    public void markChanged(Pair cell) {
+        markChanged(CellKey.of(cell));
+    }
+
+    /** As {@link #markChanged(Pair)}, for a packed {@link CellKey}. */
+    public void markChanged(long cell) {
+        if (graph == null) {
+            return;
+        }
+        int node = graph.nodeOf(cell);
+        if (node >= 0) {
+            markDirty(node);
+            return;
+        }
+        int slot = graph.plainCellSlot(cell);
+        if (slot >= 0) {
+            for (int i = graph.plainReaderStart(slot); i < graph.plainReaderEnd(slot); i++) {
+                markDirty(graph.plainReader(i));
+            }
+        }
+        RangeIndex ranges = evaluation.ranges;
+        int col = CellKey.col(cell);
+        int row = CellKey.row(cell);
+        if (ranges != null && ranges.covers(col)) {
+            ranges.update(col, row, grid.numericValue(col, row));
+        }
+        graph.forEachRangeCovering(col, row, r -> markDirty(graph.rangeOwner(r)));
+    }
+
+    /** Flags a node and everything downstream of it, walking the dependents iteratively. */
+    private void markDirty(int start) {
+        if (lazy) {
+            discard(start);
+            return;
+        }
+        if (dirty[start] || rank[start] < 0) {
+            return;
+        }
+        int from = dirtyCount;
+        addDirty(start);
+        // The newly added ranks double as the work queue
+        for (int i = from; i < dirtyCount; i++) {
+            int node = order[dirtyRanks[i]];
+            for (int d = graph.dependentStart(node); d < graph.dependentEnd(node); d++) {
+                int dependent = graph.dependent(d);
+                if (!dirty[dependent] && rank[dependent] >= 0) {
+                    addDirty(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the result of a node and of everything downstream of it, so they are computed
+     * again when pulled. A formula without a result has no dependents with one, so the walk
+     * stops there.
+     */
+    private void discard(int start) {
+        if (!evaluation.evaluated[start]) {
+            return;
+        }
+        int count = 0;
+        walkNodes[count++] = start;
+        evaluation.evaluated[start] = false;
+        state[start] = UNVISITED;
+        while (count > 0) {
+            int node = walkNodes[--count];
+            for (int d = graph.dependentStart(node); d < graph.dependentEnd(node); d++) {
+                int dependent = graph.dependent(d);
+                if (evaluation.evaluated[dependent]) {
+                    evaluation.evaluated[dependent] = false;
+                    state[dependent] = UNVISITED;
+                    walkNodes[count++] = dependent;
+                }
+            }
+        }
+    }
+
+    private void addDirty(int node) {
+        dirty[node] = true;
+        if (dirtyCount == dirtyRanks.length) {
+            dirtyRanks = Arrays.copyOf(dirtyRanks, dirtyCount * 2);
+        }
+        dirtyRanks[dirtyCount++] = rank[node];
+    }
+
+    /**
+     * Re-evaluates the formulas flagged by {@link #markChanged} since the last evaluation,
+     * in topological order, and returns how many were recomputed.
+     */
+    public int recalculate() {
+        if (dirtyCount == 0) {
+            return 0;
+        }
+        Arrays.sort(dirtyRanks, 0, dirtyCount);
+        for (int i = 0; i < dirtyCount; i++) {
+            int node = order[dirtyRanks[i]];
+            evaluation.evaluateNode(node);
+            dirty[node] = false;
+        }
+        int recalculated = dirtyCount;
+        dirtyCount = 0;
+        return recalculated;
+    }
+
+    /** State shared by every thread taking part in one evaluation. */
+    private final class Evaluation {
+        final DependencyGraph graph;
+        final CellSet blacklisted;
+        final RangeIndex ranges;
+        final boolean[] evaluated;
+        final double[] results;
+        final int[] depths;
+
+        Evaluation(DependencyGraph graph, CellSet blacklisted, RangeIndex ranges) {
+            this.graph = graph;
+            this.blacklisted = blacklisted;
+            this.ranges = ranges;
+            this.evaluated = new boolean[graph.size()];
+            this.results = new double[graph.size()];
+            this.depths = new int[graph.size()];
+        }
+
+        /** Evaluates order[from..to) on the calling thread. */
+        void evaluateRange(int[] order, int from, int to) {
+            for (int i = from; i < to; i++) {
+                evaluateNode(order[i]);
+            }
+        }
+
+        void evaluateNode(int node) {
+            CompiledExpression expression = graph.expression(node);
+            if (!expression.isValid() || blacklisted.contains(graph.key(node))) {
+                return;
+            }
+
+            // Every term goes straight into the accumulator; SUM and PROD fold in each range as one aggregate
+            Operation operation = expression.getOperation();
+            Accumulator accumulator = operation.newAccumulator();
+            boolean indexed = RangeIndex.isIndexed(operation);
+            boolean skipBlanks = !operation.blanksAsZero();
+            int depth = 0;
+            for (int ref = graph.refStart(node); ref < graph.refEnd(node); ref++) {
+                int precedent = graph.refNode(ref);
+                double value;
+                if (precedent < 0) {
+                    int col = graph.refCol(ref);
+                    int row = graph.refRow(ref);
+                    if (skipBlanks && !grid.isNumeric(col, row)) {
+                        continue;
+                    }
+                    value = grid.numericValue(col, row);
+                } else if (evaluated[precedent]) {
+                    value = results[precedent];
+                    depth = Math.max(depth, depths[precedent] + 1);
+                } else {
+                    return;
+                }
+                accumulator.add(value);
+            }
+            for (int i = graph.rangePrecedentStart(node); i < graph.rangePrecedentEnd(node); i++) {
+                int precedent = graph.rangePrecedent(i);
+                if (!evaluated[precedent]) {
+                    return;
+                }
+                depth = Math.max(depth, depths[precedent] + 1);
+            }
+            for (int r = graph.rangeStart(node); r < graph.rangeEnd(node); r++) {
+                if (indexed) {
+                    accumulator.add(ranges.aggregate(operation, graph.rangeFirstCol(r),
+                            graph.rangeFirstRow(r), graph.rangeLastCol(r), graph.rangeLastRow(r)));
+                } else {
+                    streamRange(accumulator, skipBlanks, r);
+                }
+            }
+
+            double result = accumulator.result();
+            long cell = graph.key(node);
+            int col = CellKey.col(cell);
+            int row = CellKey.row(cell);
+            grid.setNumber(col, row, result);
+            if (ranges != null) {
+                ranges.update(col, row, result);
+            }
+            results[node] = result;
+            depths[node] = depth;
+            evaluated[node] = true;
+        }
+
+        /** Feeds every cell of a range to the accumulator, column by column, straight from the grid. */
+        private void streamRange(Accumulator accumulator, boolean skipBlanks, int range) {
+            int lastRow = graph.rangeLastRow(range);
+            int storedLastRow = Math.min(lastRow, grid.maxRowCount() - 1);
+            for (int col = graph.rangeFirstCol(range); col <= graph.rangeLastCol(range); col++) {
+                for (int row = graph.rangeFirstRow(range); row <= storedLastRow; row++) {
+                    if (grid.isNumeric(col, row)) {
+                        accumulator.add(grid.numericValue(col, row));
+                    } else if (!skipBlanks) {
+                        accumulator.add(0.0);
+                    }
+                }
+                if (!skipBlanks) {
+                    // Rows past the end of the sheet are empty cells, passed on as one count
+                    long firstEmpty = Math.max(storedLastRow + 1L, graph.rangeFirstRow(range));
+                    if (firstEmpty <= lastRow) {
+                        accumulator.addZeros(lastRow - firstEmpty + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates a slice of one wavefront, splitting it in halves until slices are small.
+     * Nodes in a wavefront never read each other, and each writes only its own cell.
+     */
+    private static final class WavefrontTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Evaluation evaluation;
+        private final int[] order;
+        private final int from;
+        private final int to;
+
+        WavefrontTask(Evaluation evaluation, int[] order, int from, int to) {
+            this.evaluation = evaluation;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_GRAIN) {
+                evaluation.evaluateRange(order, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new WavefrontTask(evaluation, order, from, mid),
+                    new WavefrontTask(evaluation, order, mid, to));
+        }
+    }
+}
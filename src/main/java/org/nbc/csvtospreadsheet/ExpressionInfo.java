@@ -1,20 +1,22 @@
 package org.nbc.csvtospreadsheet;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
 /**
  * This class encapsulates information about an expression in the spreadsheet.
- * It stores which operation is used (sum or product)
+ * It stores which operation is used (e.g. sum, product or average)
  * and which cells the expression refers to e.g #(sum A3 B4) refers to cell A3 and B4.
+ * Large ranges such as A1:A100000 are kept as {@link CellRange}s rather than expanded into cells.
  */
 public class ExpressionInfo {
     /**
      * The operation that will be applied to the cells
      * example, sum or product.
      */
-    private final SupportedOperations operation;
+    private final Operation operation;
 
     /**
      * The list of cell locations involved in the expression.
@@ -22,22 +24,36 @@ public class ExpressionInfo {
      */
     private final List<Pair> cellRefs;
 
+    /** The ranges involved in the expression, in addition to the single cells. */
+    private final List<CellRange> ranges;
+
     /**
      * Creates an ExpressionInfo with a specific operation
      * and the cells on which that operation will act.
      * @param operation The operation type (e.g., sum, product).
      * @param cellRefs  The cells to be included in this operation.
      */
-    public ExpressionInfo(SupportedOperations operation, List<Pair> cellRefs) {
+    public ExpressionInfo(Operation operation, List<Pair> cellRefs) {
+        this(operation, cellRefs, Collections.emptyList());
+    }
+
+    /**
+     * Creates an ExpressionInfo that also aggregates whole ranges of cells.
+     * @param operation The operation type (e.g., sum, product).
+     * @param cellRefs  The single cells to be included in this operation.
+     * @param ranges    The ranges to be included in this operation.
+     */
+    public ExpressionInfo(Operation operation, List<Pair> cellRefs, List<CellRange> ranges) {
         this.operation = operation;
         this.cellRefs = cellRefs;
+        this.ranges = ranges;
     }
 
     /**
      * Gets the operation that will be performed.
      * @return The type of operation (sum or product).
      */
-    public SupportedOperations getOperation() {
+    public Operation getOperation() {
         return operation;
     }
 
@@ -50,6 +66,15 @@ public class ExpressionInfo {
         return cellRefs;
     }
 
+    /**
+     * Gets the ranges involved in this expression.
+     *
+     * @return The ranges, empty if the expression only lists single cells.
+     */
+    public List<CellRange> getRanges() {
+        return ranges;
+    }
+
     /**
      * Checks if this object is the same as another one, based on
      * the operation and the list of cell references.
@@ -62,16 +87,17 @@ public class ExpressionInfo {
         if (this == o) return true;
         if (!(o instanceof ExpressionInfo)) return false;
         ExpressionInfo other = (ExpressionInfo) o;
-        return operation == other.operation && Objects.equals(cellRefs, other.cellRefs);
+        return operation == other.operation && Objects.equals(cellRefs, other.cellRefs)
+                && Objects.equals(ranges, other.ranges);
     }
 
     /**
      * Generates a numeric code that represents this object's state.
-     * @return A hash code based on the operation and cell references.
+     * @return A hash code based on the operation, cell references and ranges.
      */
     @Override
     public int hashCode() {
-        return Objects.hash(operation, cellRefs);
+        return Objects.hash(operation, cellRefs, ranges);
     }
 
     /**
@@ -84,6 +110,13 @@ public class ExpressionInfo {
         String cellRefsStr = cellRefs.stream()
                 .map(Pair::toString)
                 .collect(Collectors.joining(", "));
-        return String.format("ExpressionInfo{operation=%s, cellRefs=[%s]}", operation, cellRefsStr);
+        if (ranges.isEmpty()) {
+            return String.format("ExpressionInfo{operation=%s, cellRefs=[%s]}", operation.name().toUpperCase(), cellRefsStr);
+        }
+        String rangesStr = ranges.stream()
+                .map(CellRange::toString)
+                .collect(Collectors.joining(", "));
+        return String.format("ExpressionInfo{operation=%s, cellRefs=[%s], ranges=[%s]}",
+                operation.name().toUpperCase(), cellRefsStr, rangesStr);
     }
 }
@@ -1,23 +1,33 @@
 package org.nbc.csvtospreadsheet;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import static org.nbc.csvtospreadsheet.SpreadSheetUtils.columnLetterToGridIndex;
-
-// serves as a parser for expressions
+/**
+ * Serves as a parser for expressions of the form {@code #(op REF REF ...)}.
+ * Expressions are recognised by a single-pass character scanner working directly on the
+ * source text: anything that does not start with "#(" is rejected on its first characters,
+ * and the operation and cell coordinates are read without creating substrings.
+ * References use one or more column letters followed by a row number, e.g. A1, AA12 or XFD1.
+ * Two references joined by a colon, e.g. A1:A100000 or A1:C500, stand for every cell of the
+ * rectangle between them. Small ranges are expanded into single references; larger ones are
+ * kept as ranges and aggregated through a {@link RangeIndex} at evaluation time.
+ */
 public class ExpressionParser {
 
-    private static final String REGEX = "^#\\(\\s*([a-zA-Z]+)\\s+([A-Za-z]\\d+(?:\\s+[A-Za-z]\\d+)*)\\s*\\)$";
-    private static final Pattern PATTERN = Pattern.compile(REGEX);
     private static final Logger LOGGER = Logger.getLogger(ExpressionParser.class.getName());
 
-    public static boolean isExpression(String text) {
-        return PATTERN.matcher(text).matches();
+    /** Column letters beyond this count would overflow the column index. */
+    private static final int MAX_COLUMN_LETTERS = 6;
+
+    /** Ranges with at most this many cells are expanded into single references. */
+    static final int MAX_EXPANDED_RANGE = 64;
+
+    /** Scan state reused per thread, so recognising an expression does not allocate. */
+    private static final ThreadLocal<Scan> SCANS = ThreadLocal.withInitial(Scan::new);
+
+    public static boolean isExpression(CharSequence text) {
+        return scan(text, SCANS.get());
     }
 
     /**
@@ -25,55 +35,219 @@ public class ExpressionParser {
      * Returns an ExpressionInfo object containing the operation and resolved cell references.
      */
     public static ExpressionInfo parseExpression(String expression) {
-        Matcher matcher = PATTERN.matcher(expression);
-        if (!matcher.matches()) {
-            LOGGER.warning("Invalid expression format: " + expression);
+        CompiledExpression compiled = compile(expression);
+        if (compiled == null) {
+            LOGGER.fine(() -> "Invalid expression format: " + expression);
             return null;
         }
+        if (!compiled.isValid()) return null;
 
-        // Extract operation type e.g. SUM or PROD
-        String opStr = matcher.group(1).toUpperCase();
-        SupportedOperations operation = parseOperation(opStr);
-        if (operation == null) return null;
+        ExpressionInfo info = compiled.toExpressionInfo();
+        LOGGER.fine(() -> String.format("Parsed operation=%s, references=%s", info.getOperation(), info.getCellRefs()));
+        return info;
+    }
 
-        // Extract cell references and resolve them to (col, row) Pairs
-        String refsStr = matcher.group(2);
-        List<Pair> resolvedPairs = resolveCellReferences(refsStr.split("\\s+"));
+    /**
+     * Compiles an expression into its evaluation form: the operation and the referenced
+     * cells as (col, row) coordinates. Returns null if the text is not an expression at all,
+     * and an invalid CompiledExpression if it is one but cannot be evaluated
+     * (unsupported operation, or a reference too large to address or on row 0).
+     */
+    public static CompiledExpression compile(CharSequence expression) {
+        Scan scan = SCANS.get();
+        if (!scan(expression, scan)) {
+            return null;
+        }
 
-        LOGGER.fine(() -> String.format("Parsed operation=%s, references=%s", operation, resolvedPairs));
+        String source = expression.toString();
+        Operation operation = parseOperation(expression, scan.opStart, scan.opEnd);
+        if (operation == null) {
+            return CompiledExpression.invalid(source);
+        }
+        if (scan.overflow) {
+            LOGGER.fine(() -> "Invalid cell reference in: " + source);
+            return CompiledExpression.invalid(source);
+        }
+        return new CompiledExpression(source, operation,
+                Arrays.copyOf(scan.cols, scan.count), Arrays.copyOf(scan.rows, scan.count),
+                Arrays.copyOf(scan.ranges, scan.rangeCount * 4));
+    }
 
-        return new ExpressionInfo(operation, resolvedPairs);
+    /**
+     * Looks the operation name up in the {@link OperationRegistry}, case-insensitively,
+     * e.g. "sum" or "avg", without copying it out of the expression.
+     */
+    private static Operation parseOperation(CharSequence text, int start, int end) {
+        Operation operation = OperationRegistry.lookup(text, start, end);
+        if (operation == null) {
+            LOGGER.fine(() -> "Unsupported operation: " + text.subSequence(start, end).toString().toUpperCase());
+        }
+        return operation;
     }
 
     /**
-     * Converts the operations "sum" or "prod" to the matching SupportedOperations enum.
+     * Scans {@code #( op TERM ( TERM)* )}, where a term is {@code REF} or {@code REF:REF}, and
+     * records the operation bounds, the (col, row) coordinates of each reference and the corners
+     * of each large range. Whitespace is required between the operation and each term, and
+     * allowed after "#(" and before the closing parenthesis.
+     * Returns false as soon as the text cannot be an expression.
      */
-    private static SupportedOperations parseOperation(String opStr) {
-        try {
-            return SupportedOperations.valueOf(opStr);
-        } catch (IllegalArgumentException e) {
-            LOGGER.warning("Unsupported operation: " + opStr);
-            return null;
+    private static boolean scan(CharSequence text, Scan scan) {
+        int length = text.length();
+        if (length < 2 || text.charAt(0) != '#' || text.charAt(1) != '(') {
+            return false;
+        }
+
+        int i = skipSpace(text, 2);
+        scan.opStart = i;
+        while (i < length && isLetter(text.charAt(i))) {
+            i++;
+        }
+        if (i == scan.opStart) {
+            return false;
+        }
+        scan.opEnd = i;
+        scan.count = 0;
+        scan.rangeCount = 0;
+        scan.overflow = false;
+
+        while (true) {
+            int separator = i;
+            i = skipSpace(text, i);
+            if (i < length && text.charAt(i) == ')') {
+                // A range with an invalid corner is dropped, but the expression still has a term
+                return i == length - 1 && (scan.count > 0 || scan.rangeCount > 0 || scan.overflow);
+            }
+            if (i == separator) {
+                return false;
+            }
+
+            i = scanReference(text, i, scan);
+            if (i < 0) {
+                return false;
+            }
+            int col = scan.col;
+            int row = scan.row;
+            if (i < length && text.charAt(i) == ':') {
+                i = scanReference(text, i + 1, scan);
+                if (i < 0) {
+                    return false;
+                }
+                scan.addRange(col, row, scan.col, scan.row);
+            } else {
+                scan.add(col, row);
+            }
         }
     }
 
     /**
-     * Converts a list of cell references (e.g. "A3", "B6") into a list of Pair objects.
-     * Each Pair represents the (colIndex, rowIndex) in the grid.
+     * Reads one reference starting at {@code i} into {@code scan.col} and {@code scan.row}
+     * and returns the index after it, or -1 if there is no reference there.
      */
-    private static List<Pair>
-    resolveCellReferences(String[] cellRefs) {
-        List<Pair> cellPairs = new ArrayList<>();
-
-        for (String ref : cellRefs) {
-            if (!ref.matches("[A-Za-z]\\d+")) {
-                LOGGER.warning("Invalid cell reference: " + ref);
-                continue;
+    private static int scanReference(CharSequence text, int i, Scan scan) {
+        int length = text.length();
+
+        // Column letters, read as a bijective base-26 number: A=1 .. Z=26, AA=27
+        int letters = 0;
+        int col = 0;
+        while (i < length && isLetter(text.charAt(i))) {
+            col = col * 26 + (Character.toUpperCase(text.charAt(i)) - 'A' + 1);
+            letters++;
+            i++;
+        }
+        if (letters == 0) {
+            return -1;
+        }
+
+        int digitStart = i;
+        int row = 0;
+        while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            if (row > (Integer.MAX_VALUE - 9) / 10) {
+                scan.overflow = true;
+            } else {
+                row = row * 10 + (text.charAt(i) - '0');
+            }
+            i++;
+        }
+        if (i == digitStart) {
+            return -1;
+        }
+        if (letters > MAX_COLUMN_LETTERS || row == 0) {
+            // Row numbers start at 1; like an overflow, this leaves the expression invalid
+            scan.overflow = true;
+        }
+        scan.col = col - 1;
+        scan.row = row - 1;
+        return i;
+    }
+
+    private static int skipSpace(CharSequence text, int i) {
+        while (i < text.length() && isSpace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Same characters as the regex class \s. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    /** Operation bounds, reference coordinates and range corners found by one scan. */
+    private static final class Scan {
+        int opStart;
+        int opEnd;
+        int count;
+        int rangeCount;
+        boolean overflow;
+        int col;
+        int row;
+        int[] cols = new int[8];
+        int[] rows = new int[8];
+        // Corners of the large ranges: first col, first row, last col, last row
+        int[] ranges = new int[8];
+
+        /** Adds a range, expanding it row by row into single references if it is small. */
+        void addRange(int col1, int row1, int col2, int row2) {
+            int firstCol = Math.min(col1, col2);
+            int firstRow = Math.min(row1, row2);
+            int lastCol = Math.max(col1, col2);
+            int lastRow = Math.max(row1, row2);
+            long cells = (long) (lastCol - firstCol + 1) * (lastRow - firstRow + 1);
+            if (overflow) {
+                return;
+            }
+            if (cells <= MAX_EXPANDED_RANGE) {
+                for (int r = firstRow; r <= lastRow; r++) {
+                    for (int c = firstCol; c <= lastCol; c++) {
+                        add(c, r);
+                    }
+                }
+                return;
+            }
+            if (rangeCount * 4 == ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            int at = rangeCount * 4;
+            ranges[at] = firstCol;
+            ranges[at + 1] = firstRow;
+            ranges[at + 2] = lastCol;
+            ranges[at + 3] = lastRow;
+            rangeCount++;
+        }
+
+        void add(int col, int row) {
+            if (count == cols.length) {
+                cols = Arrays.copyOf(cols, count * 2);
+                rows = Arrays.copyOf(rows, count * 2);
             }
-            int colIndex = columnLetterToGridIndex(ref.charAt(0));
-            int rowIndex = Integer.parseInt(ref.substring(1)) - 1;
-            cellPairs.add(new Pair(colIndex, rowIndex));
+            cols[count] = col;
+            rows[count] = row;
+            count++;
         }
-        return cellPairs;
     }
 }
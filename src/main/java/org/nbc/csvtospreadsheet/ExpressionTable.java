@@ -0,0 +1,189 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The expressions of a spreadsheet, kept in compiled form next to their cell.
+ * {@link #asTextMap()} exposes the table as a map from cell to expression text, so callers
+ * can keep working with text while every expression is compiled exactly once, when it is added.
+ * A version number changes on every addition or removal so that cached dependency
+ * graphs can tell when they are out of date.
+ *
+ * <p>Entries are stored densely, in insertion order apart from removals, as packed
+ * {@link CellKey} keys next to their expressions; an open-addressing index maps each key to its
+ * position. {@link #cellAt} and {@link #expressionAt} walk the entries without creating objects.
+ */
+public class ExpressionTable {
+    private final LongIntHashMap positions = new LongIntHashMap();
+    private long[] cells = new long[64];
+    private CompiledExpression[] expressions = new CompiledExpression[64];
+    private int size;
+    private final Map<Pair, String> textView = new TextView();
+    private int version;
+
+    /** Compiles the expression text and stores it for the cell; returns the previous text, if any. */
+    public String put(Pair cell, String text) {
+        CompiledExpression compiled = ExpressionParser.compile(text);
+        return put(cell, (compiled != null) ? compiled : CompiledExpression.invalid(text));
+    }
+
+    /** Stores an already compiled expression for the cell; returns the previous text, if any. */
+    public String put(Pair cell, CompiledExpression expression) {
+        return put(CellKey.of(cell), expression);
+    }
+
+    /** Stores an already compiled expression for a packed cell key; returns the previous text, if any. */
+    public String put(long cell, CompiledExpression expression) {
+        version++;
+        int position = positions.get(cell, -1);
+        if (position >= 0) {
+            CompiledExpression previous = expressions[position];
+            expressions[position] = expression;
+            return previous.getSource();
+        }
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+            expressions = Arrays.copyOf(expressions, size * 2);
+        }
+        cells[size] = cell;
+        expressions[size] = expression;
+        positions.put(cell, size++, -1);
+        return null;
+    }
+
+    /** Returns the compiled expression of a cell, or null if the cell holds no expression. */
+    public CompiledExpression get(Pair cell) {
+        return get(CellKey.of(cell));
+    }
+
+    public CompiledExpression get(long cell) {
+        int position = positions.get(cell, -1);
+        return (position < 0) ? null : expressions[position];
+    }
+
+    /** Removes the expression of a cell; returns its text, if any. */
+    public String remove(Pair cell) {
+        return remove(CellKey.of(cell));
+    }
+
+    public String remove(long cell) {
+        int position = positions.remove(cell, -1);
+        if (position < 0) {
+            return null;
+        }
+        CompiledExpression previous = expressions[position];
+        // Move the last entry into the gap
+        int last = --size;
+        if (position != last) {
+            cells[position] = cells[last];
+            expressions[position] = expressions[last];
+            positions.put(cells[position], position, -1);
+        }
+        expressions[last] = null;
+        version++;
+        return previous.getSource();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Changes whenever an expression is added, replaced or removed. */
+    public int version() {
+        return version;
+    }
+
+    /** The packed cell key of entry {@code i}, for {@code 0 <= i < size()}. */
+    public long cellAt(int i) {
+        return cells[i];
+    }
+
+    /** The compiled expression of entry {@code i}. */
+    public CompiledExpression expressionAt(int i) {
+        return expressions[i];
+    }
+
+    /** A live map view from cell to expression text; writes through it compile the new text. */
+    public Map<Pair, String> asTextMap() {
+        return textView;
+    }
+
+    private final class TextView extends AbstractMap<Pair, String> {
+        @Override
+        public String put(Pair key, String value) {
+            return ExpressionTable.this.put(key, value);
+        }
+
+        @Override
+        public String get(Object key) {
+            CompiledExpression expression = (key instanceof Pair) ? ExpressionTable.this.get((Pair) key) : null;
+            return (expression == null) ? null : expression.getSource();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return (key instanceof Pair) && positions.containsKey(CellKey.of((Pair) key));
+        }
+
+        @Override
+        public String remove(Object key) {
+            return (key instanceof Pair) ? ExpressionTable.this.remove((Pair) key) : null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<Pair, String>> entrySet() {
+            return new AbstractSet<>() {
+                /** Walks the entries from the last one, so removing the current entry moves only visited ones. */
+                @Override
+                public Iterator<Entry<Pair, String>> iterator() {
+                    return new Iterator<>() {
+                        private int next = size - 1;
+                        private long current;
+                        private boolean removable;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next >= 0 && next < size;
+                        }
+
+                        @Override
+                        public Entry<Pair, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            current = cells[next];
+                            removable = true;
+                            String source = expressions[next--].getSource();
+                            return new SimpleImmutableEntry<>(CellKey.toPair(current), source);
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (!removable) {
+                                throw new IllegalStateException();
+                            }
+                            removable = false;
+                            ExpressionTable.this.remove(current);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
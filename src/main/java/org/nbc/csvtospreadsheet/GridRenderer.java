@@ -0,0 +1,195 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes the grid in SpreadSheet format straight into a reusable byte buffer that is flushed
+ * to a channel whenever it fills up. Each row is written in one pass: numeric cells are told
+ * apart by their tags, integers and whole-number results are written digit by digit, texts are encoded once per
+ * distinct string and padding is copied from a block of spaces, so no per-cell String is built.
+ *
+ * <p>The output is the same as joining {@link SpreadSheetUtils#leftAlign} and
+ * {@link SpreadSheetUtils#rightAlign} cells with '|' and ending each row with the line separator.
+ */
+public class GridRenderer {
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** Only the first texts of the dictionary are kept encoded, which bounds the cache. */
+    private static final int MAX_CACHED_TEXTS = 1 << 16;
+    private static final byte[] SPACES = filled((byte) ' ', 256);
+    private static final byte[] DASHES = filled((byte) '-', 256);
+
+    private final CellStore grid;
+    private final Charset charset;
+    private final byte[] lineSeparator;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] digits = new byte[20];
+    private long bytesWritten;
+
+    /** Encoded texts, indexed by their id in the grid's string table. */
+    private byte[][] encoded = new byte[64][];
+
+    /** Creates a renderer encoding text with {@code charset}, which must be ASCII-compatible. */
+    public GridRenderer(CellStore grid, Charset charset) {
+        this.grid = grid;
+        this.charset = charset;
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+    }
+
+    /** Writes every row of the grid, each cell padded to {@code width}, and flushes the buffer. */
+    public void render(WritableByteChannel out, int width) throws IOException {
+        render(out, width, 0, grid.maxRowCount());
+    }
+
+    /** Writes rows {@code firstRow} up to but excluding {@code endRow}, and flushes the buffer. */
+    public void render(WritableByteChannel out, int width, int firstRow, int endRow) throws IOException {
+        int columns = grid.columnCount();
+        buffer.clear();
+        for (int row = firstRow; row < endRow; row++) {
+            for (int col = 0; col < columns; col++) {
+                put(out, (byte) '|');
+                writeCell(out, col, row, width);
+            }
+            put(out, (byte) '|');
+            put(out, lineSeparator, lineSeparator.length);
+        }
+        flush(out);
+    }
+
+    private void writeCell(WritableByteChannel out, int col, int row, int width) throws IOException {
+        switch (grid.kind(col, row)) {
+            case CellStore.INTEGER -> {
+                int length = formatInteger((long) grid.numericValue(col, row));
+                repeat(out, SPACES, width - length);
+                put(out, digits, length);
+            }
+            case CellStore.NUMBER -> {
+                double value = grid.numericValue(col, row);
+                if (SpreadSheetUtils.isPlainWholeNumber(value)) {
+                    int length = formatInteger((long) value);
+                    digits[length++] = '.';
+                    digits[length++] = '0';
+                    repeat(out, SPACES, width - length);
+                    put(out, digits, length);
+                } else {
+                    // Double.toString is plain ASCII, so its chars are its bytes
+                    String text = Double.toString(value);
+                    repeat(out, SPACES, width - text.length());
+                    putAscii(out, text);
+                }
+            }
+            case CellStore.NUMBER_TEXT -> {
+                int id = grid.textId(col, row);
+                repeat(out, SPACES, width - grid.textChars(id));
+                byte[] bytes = encoded(id);
+                put(out, bytes, bytes.length);
+            }
+            case CellStore.TEXT -> {
+                int id = grid.textId(col, row);
+                byte[] bytes = encoded(id);
+                put(out, bytes, bytes.length);
+                repeat(out, SPACES, width - grid.textChars(id));
+            }
+            case CellStore.RULE -> {
+                int length = grid.ruleWidth();
+                repeat(out, DASHES, length);
+                repeat(out, SPACES, width - length);
+            }
+            default -> repeat(out, SPACES, width);
+        }
+    }
+
+    private byte[] encoded(int id) {
+        if (id >= MAX_CACHED_TEXTS) {
+            return grid.text(id).getBytes(charset);
+        }
+        if (id >= encoded.length) {
+            encoded = Arrays.copyOf(encoded, Math.min(MAX_CACHED_TEXTS, Math.max(id + 1, grid.textCount())));
+        }
+        byte[] bytes = encoded[id];
+        if (bytes == null) {
+            bytes = grid.text(id).getBytes(charset);
+            encoded[id] = bytes;
+        }
+        return bytes;
+    }
+
+    /** Writes the digits of {@code value} into the scratch array and returns how many there are. */
+    private int formatInteger(long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] text = Long.toString(value).getBytes(charset);
+            System.arraycopy(text, 0, digits, 0, text.length);
+            return text.length;
+        }
+        boolean negative = value < 0;
+        long rest = Math.abs(value);
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest > 0);
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        int length = digits.length - pos;
+        System.arraycopy(digits, pos, digits, 0, length);
+        return length;
+    }
+
+    private void put(WritableByteChannel out, byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush(out);
+        }
+        buffer.put(b);
+    }
+
+    private void put(WritableByteChannel out, byte[] bytes, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) {
+                flush(out);
+            }
+            int n = Math.min(length - offset, buffer.remaining());
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+    }
+
+    private void putAscii(WritableByteChannel out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            put(out, (byte) text.charAt(i));
+        }
+    }
+
+    /** Writes {@code count} bytes taken from a block of identical bytes; nothing if count is not positive. */
+    private void repeat(WritableByteChannel out, byte[] block, int count) throws IOException {
+        while (count > 0) {
+            int n = Math.min(count, block.length);
+            put(out, block, n);
+            count -= n;
+        }
+    }
+
+    /** Total bytes handed to the channel so far. */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    private void flush(WritableByteChannel out) throws IOException {
+        buffer.flip();
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static byte[] filled(byte b, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, b);
+        return bytes;
+    }
+}
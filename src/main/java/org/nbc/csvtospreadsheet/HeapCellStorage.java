@@ -0,0 +1,67 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Keeps every block on the Java heap; the default storage of a {@link CellStore}. */
+public class HeapCellStorage implements CellStorage {
+    private final TextTable texts;
+    private CellBlock[][] columns = new CellBlock[8][];
+
+    public HeapCellStorage() {
+        this(new StringTable());
+    }
+
+    /** Creates a storage whose blocks are made by {@link #newBlock} and whose texts go to {@code texts}. */
+    protected HeapCellStorage(TextTable texts) {
+        this.texts = texts;
+    }
+
+    @Override
+    public TextTable textTable() {
+        return texts;
+    }
+
+    @Override
+    public CellBlock read(int col, int block) {
+        if (col >= columns.length) {
+            return null;
+        }
+        CellBlock[] blocks = columns[col];
+        return (blocks == null || block >= blocks.length) ? null : blocks[block];
+    }
+
+    @Override
+    public CellBlock write(int col, int block) {
+        if (col >= columns.length) {
+            columns = Arrays.copyOf(columns, Math.max(col + 1, columns.length * 2));
+        }
+        CellBlock[] blocks = columns[col];
+        if (blocks == null) {
+            blocks = new CellBlock[Math.max(4, block + 1)];
+            columns[col] = blocks;
+        } else if (block >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(block + 1, blocks.length * 2));
+            columns[col] = blocks;
+        }
+        if (blocks[block] == null) {
+            blocks[block] = newBlock();
+        }
+        return blocks[block];
+    }
+
+    /** Creates an empty block; blocks are created by the thread that writes them first. */
+    protected CellBlock newBlock() {
+        return new ArrayCellBlock();
+    }
+
+    @Override
+    public boolean isResident() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        columns = new CellBlock[0][];
+    }
+}
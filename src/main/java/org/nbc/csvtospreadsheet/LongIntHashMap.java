@@ -0,0 +1,173 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * Map from {@code long} keys to {@code int} values with open addressing and linear probing,
+ * held in two primitive arrays. Lookups box nothing and allocate nothing.
+ * Removal shifts the following entries back, so no tombstones build up.
+ *
+ * <p>{@link Long#MIN_VALUE} marks free slots and cannot be used as a key.
+ */
+public class LongIntHashMap {
+    private static final long FREE = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntHashMap() {
+        this(0);
+    }
+
+    /** Creates a map that holds {@code expected} entries without resizing. */
+    public LongIntHashMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2L) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the value of the key, or {@code missing} if it is absent. */
+    public int get(long key, int missing) {
+        int slot = CellKey.hash(key) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                return values[slot];
+            }
+            if (k == FREE) {
+                return missing;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return key != FREE && slotOf(key) >= 0;
+    }
+
+    /** Stores the value and returns the previous one, or {@code missing} if the key was absent. */
+    public int put(long key, int value, int missing) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Key " + key + " is reserved");
+        }
+        int slot = CellKey.hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return missing;
+    }
+
+    /** Adds {@code delta} to the value of the key, starting from 0 if it is absent, and returns the sum. */
+    public int addTo(long key, int delta) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        put(key, delta, 0);
+        return delta;
+    }
+
+    /** Removes the key and returns its value, or {@code missing} if it was absent. */
+    public int remove(long key, int missing) {
+        int slot = (key == FREE) ? -1 : slotOf(key);
+        if (slot < 0) {
+            return missing;
+        }
+        int previous = values[slot];
+        // Shift later entries of the probe run back into the gap
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = CellKey.hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = FREE;
+        size--;
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    /** Number of slots; entries are found by scanning slots {@code 0 .. capacity() - 1}. */
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isUsed(int slot) {
+        return keys[slot] != FREE;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    private int slotOf(long key) {
+        int slot = CellKey.hash(key) & mask;
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                return slot;
+            }
+            if (k == FREE) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE) {
+                int slot = CellKey.hash(key) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a CSV file through memory-mapped windows of a FileChannel and feeds it to a
+ * {@link CsvParser}. Files larger than one window are mapped piece by piece; each new
+ * window starts at the first record the previous one could not complete, so records
+ * never need to be copied or stitched together.
+ */
+public class MappedCsvReader {
+    /** Size of each mapped window; a single record may not be larger than this. */
+    static final long DEFAULT_WINDOW = 1L << 30;
+
+    private MappedCsvReader() {
+    }
+
+    /** Parses the whole file into the sink and returns the number of records read. */
+    public static int read(Path path, CsvParser.CellSink sink) throws IOException {
+        return read(path, new CsvParser(sink), DEFAULT_WINDOW);
+    }
+
+    static int read(Path path, CsvParser parser, long window) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long base = 0;
+            while (base < size) {
+                int length = (int) Math.min(window, size - base);
+                boolean endOfInput = base + length == size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+
+                int consumed = parser.parse(buffer, 0, length, endOfInput);
+                if (consumed == 0 && !endOfInput) {
+                    throw new IOException("CSV record at byte " + base + " of " + path
+                            + " is larger than the " + window + "-byte mapping window");
+                }
+                base += consumed;
+            }
+        }
+        return parser.nextRow();
+    }
+}
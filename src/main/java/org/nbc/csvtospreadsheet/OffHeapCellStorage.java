@@ -0,0 +1,58 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps blocks and texts in direct buffers outside the Java heap, so the contents of a large
+ * sheet put no pressure on the garbage collector. Blocks are carved out of slabs of
+ * {@link #BLOCKS_PER_SLAB} blocks, texts live in an {@link OffHeapStringTable}, and only a few
+ * small objects per block remain on the heap. {@link #close()} releases all of it at once.
+ */
+public class OffHeapCellStorage extends HeapCellStorage {
+    /** Blocks allocated together in one direct buffer, about 900 KiB. */
+    static final int BLOCKS_PER_SLAB = 64;
+
+    private final OffHeapStringTable texts;
+    private ByteBuffer[] slabs = new ByteBuffer[4];
+    private int slabCount;
+    private int blocksInSlab = BLOCKS_PER_SLAB;
+
+    public OffHeapCellStorage() {
+        this(new OffHeapStringTable());
+    }
+
+    private OffHeapCellStorage(OffHeapStringTable texts) {
+        super(texts);
+        this.texts = texts;
+    }
+
+    @Override
+    protected CellBlock newBlock() {
+        if (blocksInSlab == BLOCKS_PER_SLAB) {
+            if (slabCount == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabCount * 2);
+            }
+            slabs[slabCount++] = DirectBuffers.allocate(BLOCKS_PER_SLAB * BufferCellBlock.BYTES);
+            blocksInSlab = 0;
+        }
+        return new BufferCellBlock(slabs[slabCount - 1], BufferCellBlock.BYTES * blocksInSlab++);
+    }
+
+    /** Number of bytes of direct memory held for blocks. */
+    public long blockBytes() {
+        return (long) slabCount * BLOCKS_PER_SLAB * BufferCellBlock.BYTES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        for (int i = 0; i < slabCount; i++) {
+            DirectBuffers.free(slabs[i]);
+            slabs[i] = null;
+        }
+        slabCount = 0;
+        texts.close();
+    }
+}
@@ -0,0 +1,301 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link TextTable} that keeps its texts outside the Java heap. The UTF-8 bytes of each text are
+ * appended to direct-buffer slabs, an entry index records where each id's bytes are, and an
+ * open-addressing hash table of ids finds existing texts. None of it is visible to the garbage
+ * collector; {@link #close()} releases the memory at once.
+ *
+ * <p>Removed texts leave their bytes behind in the slabs. Once these make up more than half of
+ * the bytes, and at least a slab, the live texts are copied to fresh slabs. Ids of removed
+ * texts are chained through their entries and handed out again first.
+ *
+ * <p>Texts are decoded again on every {@link #get}, so the returned strings are short-lived.
+ * The buffers come from a {@link Memory}: direct memory by default, or a mapped file, as used by
+ * {@link PagedCellStorage}.
+ */
+public class OffHeapStringTable implements TextTable, Closeable {
+    private static final int SLAB_BYTES = 1 << 20;
+
+    // Entry layout: slab, position, UTF-8 byte length, UTF-16 length, hash code, references,
+    // and 1 if the text is interned. A removed entry keeps the next free id in its position.
+    private static final int ENTRY_BYTES = 7 * Integer.BYTES;
+
+    private ByteBuffer[] slabs = new ByteBuffer[4];
+    private int slabCount;
+    private int slabPosition = SLAB_BYTES;
+
+    private final Memory memory;
+    private ByteBuffer entries;
+    private ByteBuffer buckets;
+    private int bucketMask = 127;
+    private int end;
+    private int size;
+    private int interned;
+    private int freeHead = -1;
+    private long liveBytes;
+    private long deadBytes;
+
+    /** Where the buffers of a table come from. Buffers start out zeroed. */
+    interface Memory {
+        ByteBuffer allocate(int capacity);
+
+        void free(ByteBuffer buffer);
+    }
+
+    private static final Memory DIRECT = new Memory() {
+        @Override
+        public ByteBuffer allocate(int capacity) {
+            return DirectBuffers.allocate(capacity);
+        }
+
+        @Override
+        public void free(ByteBuffer buffer) {
+            DirectBuffers.free(buffer);
+        }
+    };
+
+    /** Creates a table in direct buffers. */
+    public OffHeapStringTable() {
+        this(DIRECT);
+    }
+
+    /** Creates a table whose buffers come from {@code memory}. */
+    OffHeapStringTable(Memory memory) {
+        this.memory = memory;
+        this.entries = memory.allocate(64 * ENTRY_BYTES);
+        this.buckets = memory.allocate(128 * Integer.BYTES);
+    }
+
+    @Override
+    public synchronized int intern(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int hash = text.hashCode();
+        int bucket = findBucket(bytes, hash);
+        int id = buckets.getInt(bucket * Integer.BYTES) - 1;
+        if (id >= 0) {
+            int entry = id * ENTRY_BYTES;
+            entries.putInt(entry + 20, entries.getInt(entry + 20) + 1);
+            return id;
+        }
+
+        id = store(text, bytes, hash, true);
+        buckets.putInt(bucket * Integer.BYTES, id + 1);
+        if (++interned * 2 > bucketMask) {
+            rehash();
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized int add(String text) {
+        return store(text, text.getBytes(StandardCharsets.UTF_8), text.hashCode(), false);
+    }
+
+    @Override
+    public synchronized void release(int id) {
+        int entry = id * ENTRY_BYTES;
+        int references = entries.getInt(entry + 20) - 1;
+        entries.putInt(entry + 20, references);
+        if (references > 0) {
+            return;
+        }
+        if (entries.getInt(entry + 24) != 0) {
+            removeBucket(id);
+            interned--;
+        }
+        int length = entries.getInt(entry + 8);
+        liveBytes -= length;
+        deadBytes += length;
+        entries.putInt(entry + 4, freeHead);
+        freeHead = id;
+        size--;
+        if (deadBytes > SLAB_BYTES && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    @Override
+    public synchronized int find(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return buckets.getInt(findBucket(bytes, text.hashCode()) * Integer.BYTES) - 1;
+    }
+
+    @Override
+    public String get(int id) {
+        int entry = id * ENTRY_BYTES;
+        int length = entries.getInt(entry + 8);
+        byte[] bytes = new byte[length];
+        slabs[entries.getInt(entry)].get(entries.getInt(entry + 4), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int length(int id) {
+        return entries.getInt(id * ENTRY_BYTES + 12);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Releases all off-heap memory; the table must not be used afterwards. */
+    @Override
+    public void close() {
+        for (int i = 0; i < slabCount; i++) {
+            memory.free(slabs[i]);
+            slabs[i] = null;
+        }
+        slabCount = 0;
+        memory.free(entries);
+        memory.free(buckets);
+        entries = null;
+        buckets = null;
+    }
+
+    /** Copies the text into the slabs and fills in a free entry for it, with one reference. */
+    private int store(String text, byte[] bytes, int hash, boolean intern) {
+        int id;
+        if (freeHead >= 0) {
+            id = freeHead;
+            freeHead = entries.getInt(id * ENTRY_BYTES + 4);
+        } else {
+            id = end++;
+            if ((long) end * ENTRY_BYTES > entries.capacity()) {
+                entries = grow(entries, entries.capacity() * 2);
+            }
+        }
+        int slab = append(bytes);
+        int entry = id * ENTRY_BYTES;
+        entries.putInt(entry, slab);
+        entries.putInt(entry + 4, slabPosition - bytes.length);
+        entries.putInt(entry + 8, bytes.length);
+        entries.putInt(entry + 12, text.length());
+        entries.putInt(entry + 16, hash);
+        entries.putInt(entry + 20, 1);
+        entries.putInt(entry + 24, intern ? 1 : 0);
+        liveBytes += bytes.length;
+        size++;
+        return id;
+    }
+
+    /** Returns the bucket holding the text, or the empty bucket where it would go. */
+    private int findBucket(byte[] bytes, int hash) {
+        int bucket = mix(hash) & bucketMask;
+        while (true) {
+            int id = buckets.getInt(bucket * Integer.BYTES) - 1;
+            if (id < 0 || matches(id, bytes, hash)) {
+                return bucket;
+            }
+            bucket = (bucket + 1) & bucketMask;
+        }
+    }
+
+    private boolean matches(int id, byte[] bytes, int hash) {
+        int entry = id * ENTRY_BYTES;
+        if (entries.getInt(entry + 16) != hash || entries.getInt(entry + 8) != bytes.length) {
+            return false;
+        }
+        ByteBuffer slab = slabs[entries.getInt(entry)];
+        int position = entries.getInt(entry + 4);
+        for (int i = 0; i < bytes.length; i++) {
+            if (slab.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Copies the bytes into the current slab, starting a new one if they do not fit, and returns its index. */
+    private int append(byte[] bytes) {
+        if (SLAB_BYTES - slabPosition < bytes.length) {
+            if (slabCount == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabCount * 2);
+            }
+            slabs[slabCount++] = memory.allocate(Math.max(SLAB_BYTES, bytes.length));
+            slabPosition = 0;
+        }
+        slabs[slabCount - 1].put(slabPosition, bytes);
+        slabPosition += bytes.length;
+        return slabCount - 1;
+    }
+
+    /** Empties the bucket of an interned text, moving later texts of its probe sequence back. */
+    private void removeBucket(int id) {
+        int hole = mix(entries.getInt(id * ENTRY_BYTES + 16)) & bucketMask;
+        while (buckets.getInt(hole * Integer.BYTES) - 1 != id) {
+            hole = (hole + 1) & bucketMask;
+        }
+        int next = (hole + 1) & bucketMask;
+        int occupant;
+        while ((occupant = buckets.getInt(next * Integer.BYTES) - 1) >= 0) {
+            int home = mix(entries.getInt(occupant * ENTRY_BYTES + 16)) & bucketMask;
+            // The occupant may fill the hole unless its home lies between the hole and itself
+            if (((next - home) & bucketMask) >= ((next - hole) & bucketMask)) {
+                buckets.putInt(hole * Integer.BYTES, occupant + 1);
+                hole = next;
+            }
+            next = (next + 1) & bucketMask;
+        }
+        buckets.putInt(hole * Integer.BYTES, 0);
+    }
+
+    /** Copies the bytes of the live texts to fresh slabs and frees the old ones. */
+    private void compact() {
+        ByteBuffer[] old = slabs;
+        int oldCount = slabCount;
+        slabs = new ByteBuffer[4];
+        slabCount = 0;
+        slabPosition = SLAB_BYTES;
+        for (int id = 0; id < end; id++) {
+            int entry = id * ENTRY_BYTES;
+            if (entries.getInt(entry + 20) <= 0) {
+                continue;
+            }
+            byte[] bytes = new byte[entries.getInt(entry + 8)];
+            old[entries.getInt(entry)].get(entries.getInt(entry + 4), bytes);
+            entries.putInt(entry, append(bytes));
+            entries.putInt(entry + 4, slabPosition - bytes.length);
+        }
+        for (int i = 0; i < oldCount; i++) {
+            memory.free(old[i]);
+        }
+        deadBytes = 0;
+    }
+
+    private void rehash() {
+        ByteBuffer old = buckets;
+        int capacity = (bucketMask + 1) * 2;
+        buckets = memory.allocate(capacity * Integer.BYTES);
+        bucketMask = capacity - 1;
+        for (int id = 0; id < end; id++) {
+            if (entries.getInt(id * ENTRY_BYTES + 20) <= 0 || entries.getInt(id * ENTRY_BYTES + 24) == 0) {
+                continue;
+            }
+            int bucket = mix(entries.getInt(id * ENTRY_BYTES + 16)) & bucketMask;
+            while (buckets.getInt(bucket * Integer.BYTES) != 0) {
+                bucket = (bucket + 1) & bucketMask;
+            }
+            buckets.putInt(bucket * Integer.BYTES, id + 1);
+        }
+        memory.free(old);
+    }
+
+    private ByteBuffer grow(ByteBuffer old, int capacity) {
+        ByteBuffer grown = memory.allocate(capacity);
+        grown.put(0, old, 0, old.capacity());
+        memory.free(old);
+        return grown;
+    }
+
+    /** Spreads String hash codes, whose low bits are poor for short texts. */
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
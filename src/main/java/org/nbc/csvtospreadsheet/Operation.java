@@ -0,0 +1,22 @@
+package org.nbc.csvtospreadsheet;
+
+/**
+ * An operation that can appear in an expression, e.g. the SUM of {@code #(sum A1 B2)}.
+ * Operations are found by name through the {@link OperationRegistry}; the built-in ones are the
+ * constants of {@link SupportedOperations}, and further ones can be registered at runtime.
+ */
+public interface Operation {
+    /** The name used in expressions, matched case-insensitively; letters only. */
+    String name();
+
+    /** A fresh accumulator for one evaluation. */
+    Accumulator newAccumulator();
+
+    /**
+     * Whether empty and text cells take part as 0, as they do for SUM and PROD.
+     * Otherwise they are skipped, so e.g. AVG and COUNT only see numeric cells.
+     */
+    default boolean blanksAsZero() {
+        return false;
+    }
+}
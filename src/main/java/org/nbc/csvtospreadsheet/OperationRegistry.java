@@ -0,0 +1,130 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Finds operations by name while expressions are parsed. Names are hashed case-insensitively
+ * into an open-addressing table, so a lookup costs one hash of the name and usually one
+ * comparison, hit or miss, and reads the name straight from the expression text.
+ *
+ * <p>The built-in {@link SupportedOperations} are always present. Further operations can be
+ * registered at any time, from any thread; the table is copied on every registration and
+ * published through a volatile field, so lookups never lock and always see a complete table.
+ * An expression is bound to its operation when it is compiled, so register operations
+ * before loading sheets that use them.
+ */
+public final class OperationRegistry {
+    // Replaced, never modified, once published: each registration fills a new array completely
+    // and then publishes it with one volatile write, so lookups on any thread see a whole table
+    private static volatile Operation[] table = new Operation[32];
+    private static int count; // guarded by the class lock
+
+    static {
+        for (SupportedOperations operation : SupportedOperations.values()) {
+            register(operation);
+        }
+    }
+
+    private OperationRegistry() {
+    }
+
+    /** Adds an operation; its name must be letters only and not taken yet, in any case. */
+    public static synchronized void register(Operation operation) {
+        String name = operation.name();
+        if (name.isEmpty() || !name.chars().allMatch(c -> (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z'))) {
+            throw new IllegalArgumentException("Operation names must be letters only: '" + name + "'");
+        }
+        if (lookup(name) != null) {
+            throw new IllegalArgumentException("Operation already registered: " + name.toUpperCase());
+        }
+        Operation[] current = table;
+        Operation[] next = (count + 1) * 2 > current.length
+                ? new Operation[current.length * 2] : Arrays.copyOf(current, current.length);
+        if (next.length != current.length) {
+            for (Operation existing : current) {
+                if (existing != null) {
+                    insert(next, existing);
+                }
+            }
+        }
+        insert(next, operation);
+        count++;
+        table = next; // publishes the complete table
+    }
+
+    /**
+     * Registers an operation that folds the numeric cells it references with a fresh
+     * accumulator from {@code accumulators}; empty and text cells are skipped.
+     */
+    public static Operation register(String name, Supplier<Accumulator> accumulators) {
+        Operation operation = new Operation() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public Accumulator newAccumulator() {
+                return accumulators.get();
+            }
+
+            @Override
+            public String toString() {
+                return name.toUpperCase();
+            }
+        };
+        register(operation);
+        return operation;
+    }
+
+    /** The operation with this name in any case, or null. */
+    public static Operation lookup(CharSequence name) {
+        return lookup(name, 0, name.length());
+    }
+
+    /** The operation named by {@code text[start..end)} in any case, or null. */
+    public static Operation lookup(CharSequence text, int start, int end) {
+        Operation[] current = table;
+        int mask = current.length - 1;
+        for (int slot = hash(text, start, end) & mask; ; slot = (slot + 1) & mask) {
+            Operation operation = current[slot];
+            if (operation == null) {
+                return null;
+            }
+            if (matches(operation.name(), text, start, end)) {
+                return operation;
+            }
+        }
+    }
+
+    private static void insert(Operation[] into, Operation operation) {
+        String name = operation.name();
+        int mask = into.length - 1;
+        int slot = hash(name, 0, name.length()) & mask;
+        while (into[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        into[slot] = operation;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + (text.charAt(i) & ~0x20); // upper case for ASCII letters
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if ((name.charAt(i) & ~0x20) != (text.charAt(start + i) & ~0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
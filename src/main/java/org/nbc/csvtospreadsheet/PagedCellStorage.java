@@ -0,0 +1,217 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pages blocks to a temporary file so that a sheet can be larger than the heap.
+ * At most {@code cachedBlocks} blocks are kept in memory, in least-recently-used order;
+ * when the cache is full the oldest block is written back, if it changed, and dropped.
+ * Each block has a fixed-size slot in the file, assigned the first time it is written back.
+ *
+ * <p>Texts go to an {@link OffHeapStringTable} whose buffers are mapped from a second temporary
+ * file, so the operating system pages them in and out as well. Only the slot map and the cached
+ * blocks stay on the heap; the slot map takes about 16 bytes per block of 1024 rows.
+ *
+ * <p>Evicted blocks are reloaded on their next access, so a block reference is only valid until
+ * the next call. This storage is therefore not {@linkplain #isResident resident} and must be
+ * used from one thread at a time.
+ */
+public class PagedCellStorage implements CellStorage {
+    private final FileChannel file;
+    private final FileChannel textFile;
+    private final OffHeapStringTable texts;
+    private final int cachedBlocks;
+    private final LinkedHashMap<Long, Page> cache;
+    private final LongIntHashMap slots = new LongIntHashMap();
+    private final ByteBuffer io = ByteBuffer.allocate(ArrayCellBlock.SERIALIZED_BYTES);
+    private int nextSlot;
+    private long pageReads;
+    private long pageWrites;
+
+    private static final class Page {
+        final ArrayCellBlock block;
+        boolean dirty;
+
+        Page(ArrayCellBlock block) {
+            this.block = block;
+        }
+    }
+
+    /**
+     * Buffers of the text table, mapped from consecutive regions of a file. Freed regions are
+     * unmapped but not reused; the file goes when the storage is closed.
+     */
+    private static final class MappedMemory implements OffHeapStringTable.Memory {
+        private final FileChannel channel;
+        private long end;
+
+        MappedMemory(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer allocate(int capacity) {
+            try {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, end, capacity);
+                end += capacity;
+                return buffer.order(ByteOrder.nativeOrder());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to map spreadsheet texts", e);
+            }
+        }
+
+        @Override
+        public void free(ByteBuffer buffer) {
+            DirectBuffers.free(buffer);
+        }
+    }
+
+    /**
+     * Creates a storage backed by new temporary files in {@code directory}, or in the default
+     * temporary directory if it is null. The files are deleted when the storage is closed.
+     */
+    public PagedCellStorage(Path directory, int cachedBlocks) throws IOException {
+        if (cachedBlocks < 1) {
+            throw new IllegalArgumentException("At least one block must be cached, got " + cachedBlocks);
+        }
+        Path path = (directory == null)
+                ? Files.createTempFile("spreadsheet", ".blocks")
+                : Files.createTempFile(directory, "spreadsheet", ".blocks");
+        this.file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        Path textPath = (directory == null)
+                ? Files.createTempFile("spreadsheet", ".texts")
+                : Files.createTempFile(directory, "spreadsheet", ".texts");
+        this.textFile = FileChannel.open(textPath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        this.texts = new OffHeapStringTable(new MappedMemory(textFile));
+        this.cachedBlocks = cachedBlocks;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public TextTable textTable() {
+        return texts;
+    }
+
+    @Override
+    public CellBlock read(int col, int block) {
+        Page page = page(key(col, block), false);
+        return (page == null) ? null : page.block;
+    }
+
+    @Override
+    public CellBlock write(int col, int block) {
+        Page page = page(key(col, block), true);
+        page.dirty = true;
+        return page.block;
+    }
+
+    @Override
+    public boolean isResident() {
+        return false;
+    }
+
+    /** Number of blocks loaded from the file so far. */
+    public long pageReads() {
+        return pageReads;
+    }
+
+    /** Number of blocks written to the file so far. */
+    public long pageWrites() {
+        return pageWrites;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.clear();
+        slots.clear();
+        texts.close();
+        try {
+            textFile.close();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static long key(int col, int block) {
+        return ((long) col << 32) | (block & 0xFFFFFFFFL);
+    }
+
+    /** Returns the cached page, loading it from the file or creating it if needed. */
+    private Page page(long key, boolean create) {
+        Page page = cache.get(key);
+        if (page != null) {
+            return page;
+        }
+        int slot = slots.get(key, -1);
+        if (slot >= 0) {
+            page = new Page(load(slot));
+        } else if (create) {
+            page = new Page(new ArrayCellBlock());
+        } else {
+            return null;
+        }
+        if (cache.size() >= cachedBlocks) {
+            evictEldest();
+        }
+        cache.put(key, page);
+        return page;
+    }
+
+    private void evictEldest() {
+        Iterator<Map.Entry<Long, Page>> it = cache.entrySet().iterator();
+        Map.Entry<Long, Page> eldest = it.next();
+        if (eldest.getValue().dirty) {
+            int slot = slots.get(eldest.getKey(), -1);
+            if (slot < 0) {
+                slot = nextSlot++;
+                slots.put(eldest.getKey(), slot, -1);
+            }
+            store(slot, eldest.getValue().block);
+        }
+        it.remove();
+    }
+
+    private ArrayCellBlock load(int slot) {
+        io.clear();
+        try {
+            long position = (long) slot * ArrayCellBlock.SERIALIZED_BYTES;
+            while (io.hasRemaining()) {
+                if (file.read(io, position + io.position()) < 0) {
+                    throw new IOException("Block file ends inside slot " + slot);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read a spreadsheet block", e);
+        }
+        io.flip();
+        pageReads++;
+        return ArrayCellBlock.readFrom(io);
+    }
+
+    private void store(int slot, ArrayCellBlock block) {
+        io.clear();
+        block.writeTo(io);
+        io.flip();
+        try {
+            long position = (long) slot * ArrayCellBlock.SERIALIZED_BYTES;
+            while (io.hasRemaining()) {
+                file.write(io, position + io.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write a spreadsheet block", e);
+        }
+        pageWrites++;
+    }
+}
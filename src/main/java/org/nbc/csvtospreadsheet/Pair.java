@@ -1,6 +1,5 @@
 package org.nbc.csvtospreadsheet;
 
-import java.util.Objects;
 import java.util.regex.Pattern;
 
 import static org.nbc.csvtospreadsheet.SpreadSheetUtils.columnIndexToLetter;
@@ -50,7 +49,8 @@ public class Pair {
 
     @Override
     public int hashCode() {
-        return Objects.hash(x, y);
+        // Same value as Objects.hash(x, y), without boxing or a varargs array
+        return (31 + x) * 31 + y;
     }
 
     @Override
@@ -0,0 +1,327 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a CSV file on several threads. The file is cut into byte ranges, each range is moved
+ * to the next record boundary, the ranges are parsed concurrently into per-chunk buffers, and
+ * the buffers are replayed into the sink in file order with their rows renumbered.
+ *
+ * <p>Finding record boundaries must respect quoting: a line break inside a quoted field does not
+ * end a record. Whether a range starts inside quotes depends on everything before it, so the
+ * reader first runs, for every range in parallel, the small state machine of {@link CsvParser}
+ * from each possible start state. Chaining those results from the start of the file gives the
+ * true state at every range start, from which the first record boundary is found.
+ *
+ * <p>At most {@link #CHUNKS_IN_FLIGHT_PER_THREAD} ranges per thread are parsed ahead of the
+ * replay; the next range is only submitted once an earlier one has been replayed and its buffer
+ * dropped, so the decoded cells held at any time stay a bounded share of the file.
+ */
+public class ParallelCsvReader {
+    /** Files smaller than this are read by a single thread. */
+    static final long MIN_PARALLEL_BYTES = 1L << 20;
+    /** Ranges are never larger than this, so each can be mapped as one buffer. */
+    private static final long MAX_CHUNK_BYTES = 1L << 28;
+    /** Ranges parsed or waiting to be replayed at any time, per thread. */
+    static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+    // States of the record scanner; they mirror CsvParser.scanRecord
+    private static final int RECORD_START = 0;
+    private static final int FIELD_START = 1;
+    private static final int UNQUOTED = 2;
+    private static final int QUOTED = 3;
+    private static final int QUOTE = 4;      // a quote seen inside a quoted field: closing or escaped
+    private static final int CR = 5;         // a record just ended with \r; a \n may still follow
+    private static final int STATES = 6;
+
+    private ParallelCsvReader() {
+    }
+
+    /**
+     * Parses the whole file on {@code parallelism} threads and returns the number of records.
+     * Cells reach the sink in file order from the calling thread; expressions are compiled
+     * by the worker threads and delivered through {@link CsvParser.CellSink#expression}.
+     */
+    public static int read(Path path, int parallelism, CsvParser.CellSink sink) throws IOException {
+        return read(path, parallelism, 0, MIN_PARALLEL_BYTES, sink);
+    }
+
+    /** As above, but with an explicit number of ranges (0 picks one) and small-file cut-off. */
+    static int read(Path path, int parallelism, int chunks, long minParallelBytes,
+                    CsvParser.CellSink sink) throws IOException {
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        if (parallelism <= 1 || size < minParallelBytes) {
+            return MappedCsvReader.read(path, sink);
+        }
+        if (chunks <= 0) {
+            chunks = (int) Math.max(parallelism * 4L, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] rawStarts = new long[chunks + 1];
+            for (int k = 0; k <= chunks; k++) {
+                rawStarts[k] = size * k / chunks;
+            }
+
+            // Phase 1: for each range, the end state reached from every possible start state
+            List<Future<int[]>> transitions = new ArrayList<>(chunks);
+            for (int k = 0; k < chunks; k++) {
+                long from = rawStarts[k];
+                long to = rawStarts[k + 1];
+                transitions.add(executor.submit(() -> transition(channel, from, to)));
+            }
+            int[] startStates = new int[chunks];
+            int state = RECORD_START;
+            for (int k = 0; k < chunks; k++) {
+                startStates[k] = state;
+                state = await(transitions.get(k))[state];
+            }
+
+            // Phase 2: move each range to its first record boundary, then parse the ranges
+            long[] starts = new long[chunks + 1];
+            starts[chunks] = size;
+            for (int k = 1; k < chunks; k++) {
+                starts[k] = firstBoundary(channel, rawStarts[k], size, startStates[k]);
+            }
+            for (int k = 0; k < chunks; k++) {
+                if (Math.max(starts[k], starts[k + 1]) - starts[k] > Integer.MAX_VALUE) {
+                    throw new IOException("CSV range at byte " + starts[k] + " of " + path + " is too large to map");
+                }
+            }
+            int window = parallelism * CHUNKS_IN_FLIGHT_PER_THREAD;
+            List<Future<RowBuffer>> parsed = new ArrayList<>(chunks);
+            for (int k = 0; k < Math.min(window, chunks); k++) {
+                parsed.add(submitRange(executor, channel, starts, k));
+            }
+
+            // Phase 3: replay in file order while the next ranges of the window are parsed
+            int rowOffset = 0;
+            for (int k = 0; k < chunks; k++) {
+                RowBuffer buffer = await(parsed.get(k));
+                parsed.set(k, null);
+                buffer.replay(sink, rowOffset);
+                rowOffset += buffer.rowCount;
+                if (k + window < chunks) {
+                    parsed.add(submitRange(executor, channel, starts, k + window));
+                }
+            }
+            return rowOffset;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Future<RowBuffer> submitRange(ExecutorService executor, FileChannel channel,
+                                                 long[] starts, int k) {
+        long from = starts[k];
+        int length = (int) (Math.max(from, starts[k + 1]) - from);
+        return executor.submit(() -> parseRange(channel, from, length));
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading CSV", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to read CSV range", e.getCause());
+        }
+    }
+
+    /**
+     * Runs the scanner over [from, to) from every start state at once and returns, for each
+     * start state, the state at the end. Runs that reach the same state merge, so usually only
+     * the inside-quotes and outside-quotes runs are left after the first line break.
+     */
+    private static int[] transition(FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int length = (int) (to - from);
+
+        int[] slotOf = new int[STATES];
+        int[] current = new int[STATES];
+        int slots = STATES;
+        for (int s = 0; s < STATES; s++) {
+            slotOf[s] = s;
+            current[s] = s;
+        }
+
+        for (int i = 0; i < length; i++) {
+            byte b = buf.get(i);
+            for (int slot = 0; slot < slots; slot++) {
+                current[slot] = step(current[slot], b);
+            }
+            if (slots > 1 && (b == '\n' || b == '"' || b == ',')) {
+                slots = merge(current, slots, slotOf);
+            }
+        }
+
+        int[] result = new int[STATES];
+        for (int s = 0; s < STATES; s++) {
+            result[s] = current[slotOf[s]];
+        }
+        return result;
+    }
+
+    /** Collapses slots that reached the same state and remaps the start states pointing at them. */
+    private static int merge(int[] current, int slots, int[] slotOf) {
+        int[] newSlotOf = new int[slots];
+        int kept = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            int match = -1;
+            for (int other = 0; other < kept; other++) {
+                if (current[other] == current[slot]) {
+                    match = other;
+                    break;
+                }
+            }
+            if (match < 0) {
+                current[kept] = current[slot];
+                match = kept++;
+            }
+            newSlotOf[slot] = match;
+        }
+        for (int s = 0; s < STATES; s++) {
+            slotOf[s] = newSlotOf[slotOf[s]];
+        }
+        return kept;
+    }
+
+    /** Finds the first record start at or after {@code from}, given the scanner state there. */
+    private static long firstBoundary(FileChannel channel, long from, long size, int state) throws IOException {
+        long pos = from;
+        while (pos < size) {
+            int length = (int) Math.min(MAX_CHUNK_BYTES, size - pos);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            for (int i = 0; i < length; i++) {
+                byte b = buf.get(i);
+                if (state == RECORD_START || (state == CR && b != '\n')) {
+                    return pos + i;
+                }
+                state = step(state, b);
+            }
+            pos += length;
+        }
+        return size;
+    }
+
+    /** One step of the record scanner; must agree with CsvParser on where records end. */
+    private static int step(int state, byte b) {
+        switch (state) {
+            case QUOTED:
+                return (b == '"') ? QUOTE : QUOTED;
+            case QUOTE:
+                if (b == '"') {
+                    return QUOTED;
+                }
+                return afterField(b);
+            case UNQUOTED:
+                return afterField(b);
+            case CR:
+                if (b == '\n') {
+                    return RECORD_START;
+                }
+                return step(RECORD_START, b);
+            default:
+                // RECORD_START and FIELD_START: leading blanks, then a quote opens a quoted field
+                if (b >= 0 && b <= ' ' && b != '\n' && b != '\r') {
+                    return FIELD_START;
+                }
+                return (b == '"') ? QUOTED : afterField(b);
+        }
+    }
+
+    /** Transition for a byte outside quotes and not at the start of a field. */
+    private static int afterField(byte b) {
+        switch (b) {
+            case ',':
+                return FIELD_START;
+            case '\n':
+                return RECORD_START;
+            case '\r':
+                return CR;
+            default:
+                return UNQUOTED;
+        }
+    }
+
+    private static RowBuffer parseRange(FileChannel channel, long from, int length) throws IOException {
+        RowBuffer buffer = new RowBuffer();
+        if (length > 0) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            CsvParser parser = new CsvParser(buffer);
+            parser.parse(buf, 0, length, true);
+            buffer.rowCount = parser.nextRow();
+        }
+        return buffer;
+    }
+
+    /** The cells of one range, with rows counted from the start of the range. */
+    private static final class RowBuffer implements CsvParser.CellSink {
+        int size;
+        int rowCount;
+        int[] cols = new int[256];
+        int[] rows = new int[256];
+        long[] integers = new long[256];
+        String[] texts = new String[256];
+        CompiledExpression[] expressions = new CompiledExpression[256];
+
+        private int add(int col, int row) {
+            if (size == cols.length) {
+                int length = size * 2;
+                cols = Arrays.copyOf(cols, length);
+                rows = Arrays.copyOf(rows, length);
+                integers = Arrays.copyOf(integers, length);
+                texts = Arrays.copyOf(texts, length);
+                expressions = Arrays.copyOf(expressions, length);
+            }
+            cols[size] = col;
+            rows[size] = row;
+            return size++;
+        }
+
+        @Override
+        public void text(int col, int row, String value) {
+            int i = add(col, row);
+            texts[i] = value;
+            expressions[i] = ExpressionParser.compile(value);
+        }
+
+        @Override
+        public void integer(int col, int row, long value) {
+            int i = add(col, row);
+            integers[i] = value;
+        }
+
+        void replay(CsvParser.CellSink sink, int rowOffset) {
+            for (int i = 0; i < size; i++) {
+                int row = rows[i] + rowOffset;
+                if (texts[i] == null) {
+                    sink.integer(cols[i], row, integers[i]);
+                } else if (expressions[i] != null) {
+                    sink.expression(cols[i], row, texts[i], expressions[i]);
+                } else {
+                    sink.text(cols[i], row, texts[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.Arrays;
+
+/**
+ * Answers SUM and PROD over the large ranges of a {@link DependencyGraph} without visiting
+ * every cell. Each column read by a range gets a segment tree over the numeric values of its
+ * rows, for the operations the ranges of that column use, so an aggregate over one column of
+ * a range costs O(log n) and a point update costs the same. Ranges of other operations are
+ * not indexed; the engine streams their cells through the operation's accumulator.
+ *
+ * <p>Segment trees are used for SUM as well as PROD: prefix-sum differences would be O(1)
+ * but lose the small terms of a range next to large values elsewhere in the column.
+ * Each node of a sum tree also keeps the rounding errors of its sum, so a range is summed to
+ * about twice the precision of a double and then rounded. The compensated sum of the same cells
+ * listed one by one is as accurate, and the two give the same double unless the terms cancel
+ * out almost completely. Products are multiplied pairwise and may differ in the last bits from
+ * the left-to-right product.
+ *
+ * <p>Formula cells inside a range are kept current by {@link #update} as they are evaluated.
+ * Trees are locked per column, so wavefronts can update and query them concurrently.
+ */
+public class RangeIndex {
+    private final CellStore grid;
+    private final LongIntHashMap columnSlots = new LongIntHashMap();
+    private ColumnTree[] trees = new ColumnTree[4];
+
+    /** Builds the trees for every column and operation used by the ranges of {@code graph}. */
+    public RangeIndex(CellStore grid, DependencyGraph graph) {
+        this.grid = grid;
+        int rowCount = grid.maxRowCount();
+        for (int r = 0; r < graph.rangeCount(); r++) {
+            Operation operation = graph.expression(graph.rangeOwner(r)).getOperation();
+            if (!isIndexed(operation)) {
+                continue;
+            }
+            int rows = Math.max(1, Math.min(rowCount, graph.rangeLastRow(r) + 1));
+            for (int col = graph.rangeFirstCol(r); col <= graph.rangeLastCol(r); col++) {
+                ColumnTree tree = tree(col);
+                if (tree == null) {
+                    int slot = columnSlots.size();
+                    if (slot == trees.length) {
+                        trees = Arrays.copyOf(trees, slot * 2);
+                    }
+                    tree = new ColumnTree(col);
+                    trees[slot] = tree;
+                    columnSlots.put(col, slot, -1);
+                }
+                tree.require(operation, rows);
+            }
+        }
+        for (int slot = 0; slot < columnSlots.size(); slot++) {
+            trees[slot].build();
+        }
+    }
+
+    /** True for the operations answered from the trees: SUM and PROD. */
+    public static boolean isIndexed(Operation operation) {
+        return operation == SupportedOperations.SUM || operation == SupportedOperations.PROD;
+    }
+
+    private ColumnTree tree(int col) {
+        int slot = columnSlots.get(col, -1);
+        return (slot < 0) ? null : trees[slot];
+    }
+
+    /** True if some range reads column {@code col}. */
+    public boolean covers(int col) {
+        return columnSlots.get(col, -1) >= 0;
+    }
+
+    /** Records the new numeric value of a cell; cells of columns no range reads are ignored. */
+    public void update(int col, int row, double value) {
+        ColumnTree tree = tree(col);
+        if (tree != null) {
+            tree.update(row, value);
+        }
+    }
+
+    /** The aggregate of an {@linkplain #isIndexed indexed} operation over the rectangle; empty and text cells count as 0. */
+    public double aggregate(Operation operation, int firstCol, int firstRow, int lastCol, int lastRow) {
+        if (operation == SupportedOperations.PROD) {
+            double result = 1.0;
+            for (int col = firstCol; col <= lastCol; col++) {
+                result *= tree(col).product(firstRow, lastRow);
+            }
+            return result;
+        }
+        PairSum total = new PairSum();
+        for (int col = firstCol; col <= lastCol; col++) {
+            tree(col).addSum(total, firstRow, lastRow);
+        }
+        return total.value();
+    }
+
+    /** Rounding error of {@code sum = a + b}, exact for finite values (Knuth's TwoSum). */
+    private static double roundingError(double a, double b, double sum) {
+        double virtualB = sum - a;
+        return (a - (sum - virtualB)) + (b - virtualB);
+    }
+
+    /** A sum kept as a rounded part and the accumulated rounding errors of that part. */
+    private static final class PairSum {
+        private double high;
+        private double low;
+
+        void add(double value, double error) {
+            double sum = high + value;
+            low += roundingError(high, value, sum) + error;
+            high = sum;
+        }
+
+        double value() {
+            // Past an infinity or a NaN the errors are meaningless
+            return Double.isFinite(high) ? high + low : high;
+        }
+    }
+
+    /** Iterative segment trees over the rows {@code [0, size)} of one column. */
+    private final class ColumnTree {
+        private final int col;
+        private int size;
+        private boolean needsSums;
+        private boolean needsProducts;
+        // Node i combines nodes 2i and 2i + 1; the leaves are size .. 2 * size - 1
+        private double[] sums;
+        private double[] sumErrors;
+        private double[] products;
+
+        ColumnTree(int col) {
+            this.col = col;
+        }
+
+        void require(Operation operation, int rows) {
+            size = Math.max(size, rows);
+            if (operation == SupportedOperations.PROD) {
+                needsProducts = true;
+            } else {
+                needsSums = true;
+            }
+        }
+
+        synchronized void build() {
+            sums = needsSums ? new double[2 * size] : null;
+            sumErrors = needsSums ? new double[2 * size] : null;
+            products = needsProducts ? new double[2 * size] : null;
+            for (int row = 0; row < size; row++) {
+                double value = grid.numericValue(col, row);
+                if (sums != null) {
+                    sums[size + row] = value;
+                }
+                if (products != null) {
+                    products[size + row] = value;
+                }
+            }
+            for (int i = size - 1; i > 0; i--) {
+                if (sums != null) {
+                    combineSums(i);
+                }
+                if (products != null) {
+                    products[i] = products[2 * i] * products[2 * i + 1];
+                }
+            }
+        }
+
+        synchronized void update(int row, double value) {
+            if (row >= size) {
+                // A row past the end of the sheet was filled in: rebuild over the new extent
+                size = Math.max(row + 1, size * 2);
+                build();
+                return;
+            }
+            int i = size + row;
+            if (sums != null) {
+                sums[i] = value;
+                for (int j = i >> 1; j > 0; j >>= 1) {
+                    combineSums(j);
+                }
+            }
+            if (products != null) {
+                products[i] = value;
+                for (int j = i >> 1; j > 0; j >>= 1) {
+                    products[j] = products[2 * j] * products[2 * j + 1];
+                }
+            }
+        }
+
+        private void combineSums(int i) {
+            double left = sums[2 * i];
+            double right = sums[2 * i + 1];
+            sums[i] = left + right;
+            sumErrors[i] = roundingError(left, right, sums[i]) + sumErrors[2 * i] + sumErrors[2 * i + 1];
+        }
+
+        /** Adds the sum of rows {@code [firstRow, lastRow]} to {@code total}; rows beyond the tree are empty cells. */
+        synchronized void addSum(PairSum total, int firstRow, int lastRow) {
+            int lo = firstRow + size;
+            int hi = Math.min(lastRow + 1, size) + size;
+            while (lo < hi) {
+                if ((lo & 1) != 0) {
+                    total.add(sums[lo], sumErrors[lo]);
+                    lo++;
+                }
+                if ((hi & 1) != 0) {
+                    --hi;
+                    total.add(sums[hi], sumErrors[hi]);
+                }
+                lo >>= 1;
+                hi >>= 1;
+            }
+        }
+
+        /** Product of rows {@code [firstRow, lastRow]}; rows beyond the tree are empty cells. */
+        synchronized double product(int firstRow, int lastRow) {
+            if (lastRow >= size) {
+                return 0.0;
+            }
+            double result = 1.0;
+            int lo = firstRow + size;
+            int hi = lastRow + 1 + size;
+            while (lo < hi) {
+                if ((lo & 1) != 0) {
+                    result *= products[lo++];
+                }
+                if ((hi & 1) != 0) {
+                    result *= products[--hi];
+                }
+                lo >>= 1;
+                hi >>= 1;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps rendered sheets keyed by the content of their CSV input, so a file that was already
+ * converted is served without being parsed or evaluated again.
+ *
+ * <p>Keys are SHA-256 digests of the input bytes, the output charset and {@link #FORMAT_VERSION}.
+ * Results live in an in-memory LRU tier capped at a number of bytes and, optionally, in a
+ * directory on disk with its own cap; a disk hit is promoted back into memory. Counters of
+ * hits, misses and evictions are kept for both tiers together.
+ *
+ * <p>The lock only guards the maps and counters: files are read, written and deleted outside
+ * it, so a lookup never waits for another thread's disk I/O. Files are written under a
+ * temporary name and moved into place atomically, so a reader never sees half a file.
+ */
+public class ResultCache {
+    private static final Logger logger = Logger.getLogger(ResultCache.class.getName());
+
+    /** Part of every key; bump it whenever parsing, evaluation or rendering changes the output. */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final String SUFFIX = ".out";
+
+    private final long memoryCap;
+    private final Path directory;
+    private final long diskCap;
+
+    // Both maps are in access order, so the first entry is the least recently used
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** A memory-only cache holding at most {@code memoryCap} bytes of output. */
+    public ResultCache(long memoryCap) {
+        this.memoryCap = memoryCap;
+        this.directory = null;
+        this.diskCap = 0;
+    }
+
+    /**
+     * A cache that also keeps up to {@code diskCap} bytes of output in {@code directory}.
+     * Results already in the directory from an earlier run are picked up, oldest first.
+     */
+    public ResultCache(long memoryCap, Path directory, long diskCap) throws IOException {
+        this.memoryCap = memoryCap;
+        this.directory = directory;
+        this.diskCap = diskCap;
+        Files.createDirectories(directory);
+        List<Path> existing;
+        try (Stream<Path> files = Files.list(directory)) {
+            existing = files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparingLong(ResultCache::lastModified))
+                    .collect(Collectors.toList());
+        }
+        for (Path path : existing) {
+            String name = path.getFileName().toString();
+            long size = Files.size(path);
+            disk.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            diskBytes += size;
+        }
+        deleteFiles(trimDisk());
+    }
+
+    /** The key of a CSV input rendered in {@code charset}. */
+    public static String key(byte[] input, Charset charset) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update((FORMAT_VERSION + ":" + charset.name() + ":").getBytes(StandardCharsets.US_ASCII));
+        byte[] hash = digest.digest(input);
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /** The cached output for a key, or null on a miss. */
+    public byte[] get(String key) {
+        synchronized (this) {
+            byte[] output = memory.get(key);
+            if (output != null) {
+                hits++;
+                return output;
+            }
+            if (!disk.containsKey(key)) {
+                misses++;
+                return null;
+            }
+            disk.get(key); // marks it recently used on disk too
+        }
+
+        byte[] output;
+        try {
+            output = Files.readAllBytes(file(key));
+        } catch (IOException e) {
+            logger.warning("Dropping unreadable cache entry " + key + ": " + e.getMessage());
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) {
+                    diskBytes -= size;
+                }
+                misses++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            putInMemory(key, output);
+            hits++;
+        }
+        return output;
+    }
+
+    /** Stores the output for a key in memory and, if there is a disk tier, on disk. */
+    public void put(String key, byte[] output) {
+        synchronized (this) {
+            putInMemory(key, output);
+            if (directory == null || output.length > diskCap || disk.containsKey(key)) {
+                return;
+            }
+        }
+
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, output);
+            Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Cannot write cache entry " + key + ": " + e.getMessage());
+            return;
+        }
+        List<String> evicted;
+        synchronized (this) {
+            // Another thread may have stored the same output meanwhile
+            if (disk.put(key, (long) output.length) == null) {
+                diskBytes += output.length;
+            }
+            evicted = trimDisk();
+        }
+        deleteFiles(evicted);
+    }
+
+    /**
+     * Returns the rendered sheet for a CSV input from the cache, or converts it and caches the
+     * result: the input is loaded, evaluated and printed exactly as a file would be.
+     */
+    public byte[] convert(byte[] input, Charset charset) throws IOException {
+        String key = key(input, charset);
+        byte[] output = get(key);
+        if (output == null) {
+            output = render(input, charset);
+            put(key, output);
+        }
+        return output;
+    }
+
+    /** Converts a CSV input without any caching. */
+    static byte[] render(byte[] input, Charset charset) throws IOException {
+        try (SpreadSheet spreadSheet = new SpreadSheet()) {
+            spreadSheet.loadCsv(new ByteArrayInputStream(input));
+            spreadSheet.evaluateAllExpressions();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, input.length * 2));
+            spreadSheet.printGrid(out, charset);
+            ConversionMetrics.global().record(spreadSheet.getStats());
+            return out.toByteArray();
+        }
+    }
+
+    private void putInMemory(String key, byte[] output) {
+        if (output.length > memoryCap) {
+            return;
+        }
+        byte[] previous = memory.put(key, output);
+        memoryBytes += output.length - ((previous == null) ? 0 : previous.length);
+        Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > memoryCap) {
+            memoryBytes -= eldest.next().getValue().length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /** Drops the least recently used disk entries until the tier fits its cap, and returns their keys. */
+    private List<String> trimDisk() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+        while (diskBytes > diskCap) {
+            Map.Entry<String, Long> entry = eldest.next();
+            evicted.add(entry.getKey());
+            diskBytes -= entry.getValue();
+            eldest.remove();
+            evictions++;
+        }
+        return evicted;
+    }
+
+    /** Deletes the files of evicted entries, outside the lock. */
+    private void deleteFiles(List<String> keys) {
+        for (String key : keys) {
+            try {
+                Files.deleteIfExists(file(key));
+            } catch (IOException e) {
+                logger.warning("Cannot delete cache entry " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Entries dropped from either tier to stay under its cap. */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Bytes of output held in memory. */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /** Bytes of output held on disk. */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Cache: %d hits, %d misses, %d evictions, %d bytes in memory, %d bytes on disk",
+                hits, misses, evictions, memoryBytes, diskBytes);
+    }
+}
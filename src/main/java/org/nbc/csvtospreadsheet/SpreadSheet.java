@@ -1,67 +1,145 @@
 package org.nbc.csvtospreadsheet;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
+import static org.nbc.csvtospreadsheet.ConversionStats.Phase;
 import static org.nbc.csvtospreadsheet.SpreadSheetUtils.*;
 
-public class SpreadSheet {
+public class SpreadSheet implements Closeable {
     private static final Logger logger = Logger.getLogger(SpreadSheet.class.getName());
 
-    private final List<List<String>> grid;
+    private final CellStore grid;
 
-    private final Map<Pair, String> cachedExpressions = new HashMap<>();
-    private final Set<Pair> blacklisted = new HashSet<>();
+    private final ExpressionTable expressions = new ExpressionTable();
+    private final CellSet blacklisted = new CellSet();
     private int cachedWidth = -1;
 
+    private ForkJoinPool evaluationPool;
+    private int parallelThreshold = Integer.MAX_VALUE;
+
+    private boolean rulesFinalized;
+
+    /** Engine of the last full evaluation, kept so that later changes can be recalculated. */
+    private EvaluationEngine engine;
+    private int engineVersion;
+    private boolean lazy;
+
+    private final ConversionStats stats = new ConversionStats();
+    private Diagnostics diagnostics = new Diagnostics();
+
     public SpreadSheet() {
-        this.grid = new ArrayList<>();
+        this(new CellStore());
     }
 
+    private SpreadSheet(CellStore grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Creates a sheet whose cells and texts are kept in direct buffers outside the Java heap,
+     * so its contents add almost nothing to garbage collection work. The memory is released
+     * when the sheet is closed, after which it must not be used.
+     */
+    public static SpreadSheet offHeap() {
+        return new SpreadSheet(new CellStore(new OffHeapCellStorage()));
+    }
+
+    /**
+     * Creates a sheet whose cells are paged to a temporary file in {@code directory} (or the
+     * default temporary directory if null), keeping at most {@code cachedBlocks} blocks of
+     * 1024 rows of one column in memory. Rendering touches one block per column at a time, so
+     * the cache should hold at least as many blocks as the sheet has columns.
+     * Expressions are still kept in memory, and evaluation runs sequentially.
+     * The sheet must be closed to delete the file.
+     */
+    public static SpreadSheet outOfCore(Path directory, int cachedBlocks) throws IOException {
+        return new SpreadSheet(new CellStore(new PagedCellStorage(directory, cachedBlocks)));
+    }
+
+    /**
+     * The expressions of this sheet as a live map from cell to expression text.
+     * Expressions put into the map are compiled immediately.
+     */
     public Map<Pair, String> getCachedExpressions() {
-        return cachedExpressions;
+        return expressions.asTextMap();
     }
 
     public Set<Pair> getBlacklistedPairs() {
         return blacklisted;
     }
 
+    /**
+     * The circular references found by the last evaluation, each listed once with its cells
+     * in column-then-row order. Formulas that merely read a cycle are blacklisted but not listed.
+     */
+    public List<List<Pair>> getCycles() {
+        return (engine == null) ? Collections.emptyList() : engine.cycles();
+    }
 
-    /** Adds a new column to the grid */
-    public void addColumn() {
-        grid.add(new ArrayList<>());
+    /**
+     * The formulas the last evaluation could not compute, counted by cause with a few sample
+     * cells each. In lazy mode it covers the formulas read so far, and is not logged.
+     */
+    public Diagnostics.Report getDiagnostics() {
+        return diagnostics.report();
     }
 
-    /** Ensures that a column exists at index `colIndex` */
-    private void ensureColumnExists(int colIndex) {
-        while (grid.size() <= colIndex) {
-            addColumn();
-        }
+    /** Time per phase and work done by this sheet so far; updated by every load, evaluation and print. */
+    public ConversionStats getStats() {
+        return stats;
     }
 
-    /** Ensures that a row exists within a specific column */
-    private void ensureRowExists(int colIndex, int rowIndex) {
-        ensureColumnExists(colIndex);
-        List<String> column = grid.get(colIndex);
-        while (column.size() <= rowIndex) {
-            column.add("");
-        }
+
+    /**
+     * Evaluates expressions on {@code pool} when the sheet has at least {@code threshold} formulas.
+     * Smaller sheets stay sequential; a null pool turns parallel evaluation off.
+     */
+    public void setParallelEvaluation(ForkJoinPool pool, int threshold) {
+        this.evaluationPool = pool;
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * In lazy mode, formulas are not computed by {@link #evaluateAllExpressions()} up front
+     * but when they are read: {@link #getCellValue} computes a formula and the formulas it
+     * reads, {@link #printRows} the formulas of the rows it prints, and the full prints all
+     * of them. Results are kept until a cell they depend on changes, so each is computed once.
+     * Cycles are not reported in lazy mode, but their formulas are blacklisted as usual.
+     */
+    public void setLazyEvaluation(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /** Adds a new column to the grid */
+    public void addColumn() {
+        grid.addColumn();
     }
 
     /**
      * Loads a CSV file into this spreadsheet, populating the grid and caching expressions.
      */
     public void loadCsv(String filePath) throws FileNotFoundException {
+        long start = System.nanoTime();
         try (Scanner scanner = new Scanner(new File(filePath))) {
             int rowIndex = 0;
 
@@ -70,208 +148,333 @@ public class SpreadSheet {
                 String[] cells = line.split(",");
 
                 for (int col = 0; col < cells.length; col++) {
-                    String cellVal = cells[col].trim();
-                    Pair position = new Pair(col, rowIndex);
-
-                    if (ExpressionParser.isExpression(cellVal)) {
-                        cachedExpressions.put(position, cellVal);
-                    }
-
-                    setCellValue(position, cellVal);
+                    loadCell(col, rowIndex, cells[col].trim());
                 }
                 rowIndex++;
             }
+        } finally {
+            stats.addNanos(Phase.LOAD, System.nanoTime() - start);
         }
     }
 
     /**
-     * Evaluates all expressions, storing numeric results in the grid.
-     * then replaces any "#hl" cells with dash strings.
+     * Loads a CSV file through memory-mapped NIO buffers instead of a Scanner.
+     * Lines and fields are found by scanning bytes, plain integers are stored without being
+     * decoded, and RFC 4180 quoted fields may contain commas and line breaks.
+     * Unquoted input gives the same grid and expressions as {@link #loadCsv(String)}.
      */
-    public void evaluateAllExpressions() {
-        for (Map.Entry<Pair, String> entry : cachedExpressions.entrySet()) {
-            Pair location = entry.getKey();
+    public void loadCsvMapped(String filePath) throws IOException {
+        long start = System.nanoTime();
+        try {
+            MappedCsvReader.read(Path.of(filePath), new LoadSink());
+        } finally {
+            stats.addNanos(Phase.LOAD, System.nanoTime() - start);
+        }
+    }
 
-            if (blacklisted.contains(location)) {
-                logger.warning("Skipping evaluation: " + location + " is part of a circular dependency.");
-                continue;
-            }
+    /**
+     * Loads CSV from a stream, e.g. a request body, parsing records as they arrive.
+     * Follows the same rules as {@link #loadCsvMapped(String)}; the stream is not closed.
+     */
+    public void loadCsv(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        try {
+            StreamCsvReader.read(in, new LoadSink());
+        } finally {
+            stats.addNanos(Phase.LOAD, System.nanoTime() - start);
+        }
+    }
 
-            try {
-                double result = resolveCellValue(location, new HashSet<>());
-                setCellValue(location, Double.toString(result));
-            } catch (CircularReferenceException e) {
-                logger.severe("Circular dependency detected at cell: " + e.getInitialCell());
-                blacklisted.add(e.getInitialCell());
-            }
+    /**
+     * Loads a CSV file on {@code parallelism} threads: the file is split into byte ranges aligned
+     * to record boundaries, the ranges are parsed concurrently, and their rows are stitched into
+     * the grid in file order. Produces the same grid as {@link #loadCsvMapped(String)};
+     * files under 1 MiB are read on the calling thread.
+     */
+    public void loadCsvParallel(String filePath, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        try {
+            ParallelCsvReader.read(Path.of(filePath), parallelism, new LoadSink());
+        } finally {
+            stats.addNanos(Phase.LOAD, System.nanoTime() - start);
         }
+    }
 
-        // Compute width once and store it
-        this.cachedWidth = computeGlobalWidth();
+    /** Stores one loaded cell, compiling it if it is an expression */
+    private void loadCell(int col, int row, String cellVal) {
+        loadCell(col, row, cellVal, ExpressionParser.compile(cellVal));
+    }
 
-        // Then replace any "#hl" cells with dashes
-        finalizeHorizontalLines();
+    private void loadCell(int col, int row, String cellVal, CompiledExpression expression) {
+        if (expression != null) {
+            expressions.put(CellKey.of(col, row), expression);
+            stats.addFormulasCompiled(1);
+        }
+
+        stats.addCellsLoaded(1);
+        grid.set(col, row, cellVal);
+        cellChanged(col, row);
     }
 
-    /**
-     * Scans the grid for "#hl" cells and replaces them with dash strings
-     * matching the cachedWidth.
-     */
-    public void finalizeHorizontalLines() {
-        // If cachedWidth is not set, compute it
-        if (cachedWidth < 0) {
-            cachedWidth = computeGlobalWidth();
+    /** Flags the formulas depending on a cell for the next recalculation */
+    private void cellChanged(int col, int row) {
+        if (engine != null) {
+            engine.markChanged(CellKey.of(col, row));
         }
+    }
 
-        for (int col = 0; col < grid.size(); col++) {
-            List<String> columnData = grid.get(col);
-            for (int row = 0; row < columnData.size(); row++) {
-                String cellVal = columnData.get(row);
-                if ("#hl".equals(cellVal)) {
-                    columnData.set(row, "-".repeat(cachedWidth));
-                }
-            }
+    /** Receives cells from the NIO readers */
+    private final class LoadSink implements CsvParser.CellSink {
+        @Override
+        public void text(int col, int row, String value) {
+            loadCell(col, row, value);
+        }
+
+        @Override
+        public void integer(int col, int row, long value) {
+            stats.addCellsLoaded(1);
+            grid.setInteger(col, row, value);
+            cellChanged(col, row);
+        }
+
+        @Override
+        public void expression(int col, int row, String value, CompiledExpression compiled) {
+            loadCell(col, row, value, compiled);
         }
     }
 
     /**
-     * Recursively evaluates a cell, detecting circular dependencies.
-     * Moved from SpreadsheetService (resolveCellValue).
+     * Evaluates all expressions in dependency order, storing numeric results in the grid.
+     * then replaces any "#hl" cells with dash strings.
      */
-    private double resolveCellValue(Pair location, Set<Pair> referenceChain) throws CircularReferenceException {
-        // If we've visited this cell in the current recursion stack → cycle
-        if (!referenceChain.add(location)) {
-            blacklisted.add(location);
-            throw new CircularReferenceException("Circular reference detected at " + location, location);
+    public void evaluateAllExpressions() {
+        if (lazy) {
+            prepareLazy();
+            return;
         }
+        long start = System.nanoTime();
+        DependencyGraph graph = DependencyGraph.build(expressions);
+        engine = new EvaluationEngine(grid, evaluationPool, parallelThreshold);
+        diagnostics = new Diagnostics();
+        engine.setDiagnostics(diagnostics);
+        engine.evaluate(graph, blacklisted);
+        engineVersion = expressions.version();
 
-        // If already a numeric cell, just return its double value
-        String cellValue = getCellValue(location);
-        if (SpreadSheetUtils.isNumeric(cellValue)) {
-            return Double.parseDouble(cellValue);
-        }
+        // Compute width once and store it
+        this.cachedWidth = computeGlobalWidth();
+
+        // Then replace any "#hl" cells with dashes
+        finalizeHorizontalLines();
+
+        stats.addNanos(Phase.EVALUATE, System.nanoTime() - start - engine.skipNanos());
+        stats.addNanos(Phase.CYCLES, engine.skipNanos());
+        stats.addEvaluation(engine.evaluatedCount(), engine.skippedCount(), engine.maxDepth());
+        stats.addCyclesFound(engine.cycleCount());
+    }
 
-        // If no expression is cached, treat as 0
-        if (!cachedExpressions.containsKey(location)) {
-            return 0.0;
+    /**
+     * Re-evaluates only the formulas affected by setCellValue calls since the last evaluation,
+     * in dependency order, and returns how many formulas were recomputed.
+     * A sheet that was never evaluated, or whose expressions were added or removed since,
+     * is evaluated in full.
+     */
+    public int recalculate() {
+        if (lazy) {
+            // Changed results were already discarded, and are computed again when read
+            return 0;
+        }
+        if (engine == null || engineVersion != expressions.version()) {
+            evaluateAllExpressions();
+            return expressions.size();
         }
+        long start = System.nanoTime();
+        int recalculated = engine.recalculate();
+        stats.addNanos(Phase.EVALUATE, System.nanoTime() - start);
+        stats.addEvaluation(recalculated, 0, 0);
+        if (recalculated > 0 && cachedWidth >= 0) {
+            // Results may have changed length; refresh the width lazily on the next print
+            cachedWidth = -1;
+        }
+        return recalculated;
+    }
 
-        // Parse expression (e.g.  #(sum A1 B2))
-        ExpressionInfo exprInfo = ExpressionParser.parseExpression(cachedExpressions.get(location));
-        double[] values = new double[exprInfo.getCellRefs().size()];
-        boolean canEvaluate = true;
+    /** Builds the dependency graph for pull-based evaluation, computing nothing yet */
+    private void prepareLazy() {
+        long start = System.nanoTime();
+        engine = new EvaluationEngine(grid, evaluationPool, parallelThreshold);
+        diagnostics = new Diagnostics();
+        engine.setDiagnostics(diagnostics);
+        engine.prepare(DependencyGraph.build(expressions), blacklisted);
+        engineVersion = expressions.version();
+        stats.addNanos(Phase.EVALUATE, System.nanoTime() - start);
+    }
 
-        // Recursively evaluate expressions
-        for (int i = 0; i < exprInfo.getCellRefs().size(); i++) {
-            Pair ref = exprInfo.getCellRefs().get(i);
+    /** Computes the formula at a cell, if any, with everything it reads that has no result yet */
+    private void pull(long cell) {
+        if (expressions.get(cell) == null) {
+            return;
+        }
+        if (engine == null || !engine.isLazy() || engineVersion != expressions.version()) {
+            prepareLazy();
+        }
+        long start = System.nanoTime();
+        int skippedBefore = engine.skippedCount();
+        int evaluated = engine.evaluateCell(cell);
+        if (evaluated > 0 || engine.skippedCount() > skippedBefore) {
+            stats.addNanos(Phase.EVALUATE, System.nanoTime() - start);
+            stats.addEvaluation(evaluated, engine.skippedCount() - skippedBefore, engine.maxDepth());
+            // Results may be longer than anything printed so far
+            cachedWidth = -1;
+        }
+    }
 
-            // If blacklisted, do no evaluate.
-            if (blacklisted.contains(ref)) {
-                logger.warning("Skipping evaluation: " + location + " references blacklisted " + ref);
-                canEvaluate = false;
-                break;
-            }
+    /** Computes every formula that has no result yet, so a full print matches an eager sheet */
+    private void pullAll() {
+        if (!lazy) {
+            return;
+        }
+        for (int i = 0; i < expressions.size(); i++) {
+            pull(expressions.cellAt(i));
+        }
+        if (!rulesFinalized) {
+            finalizeHorizontalLines();
+        }
+    }
 
-            values[i] = resolveCellValue(ref, referenceChain);
+    /**
+     * Scans the grid for "#hl" cells and replaces them with dash strings
+     * matching the cachedWidth.
+     */
+    public void finalizeHorizontalLines() {
+        // If cachedWidth is not set, compute it
+        if (cachedWidth < 0) {
+            cachedWidth = computeGlobalWidth();
         }
 
-        referenceChain.remove(location);
+        grid.markRules("#hl");
+        grid.setRuleWidth(cachedWidth);
+        rulesFinalized = true;
+    }
 
-        // If references evaluated, compute sum/product
-        if (canEvaluate) {
-            double result = SpreadSheetUtils.evaluateExpression(exprInfo.getOperation(), values);
-            setCellValue(location, Double.toString(result));
-            return result;
-        } else {
-            blacklisted.add(location);
-            throw new CircularReferenceException("Evaluation failed for " + location, location);
+    /** Width used for printing; after a recalculation it is recomputed and the rules follow it */
+    private int printWidth() {
+        if (cachedWidth < 0 && rulesFinalized) {
+            cachedWidth = computeGlobalWidth();
+            grid.setRuleWidth(cachedWidth);
         }
+        // fallback if expressions were never evaluated
+        return (cachedWidth >= 0) ? cachedWidth : computeGlobalWidth();
     }
 
-    /** Sets a cell value (unchanged, but needed for expression results) */
+    /**
+     * Sets a cell value. After an evaluation, the formulas depending on the cell are flagged
+     * so that {@link #recalculate()} can bring them up to date.
+     */
     public void setCellValue(Pair position, String value) {
-        ensureRowExists(position.getX(), position.getY());
-        grid.get(position.getX()).set(position.getY(), value);
+        grid.set(position.getX(), position.getY(), value);
+        cellChanged(position.getX(), position.getY());
     }
 
-    /** Retrieves the value of a cell  */
+    /** Retrieves the value of a cell; in lazy mode a formula is computed first if needed  */
     public String getCellValue(Pair position) {
-        if (position.getX() >= grid.size() || position.getY() >= grid.get(position.getX()).size()) {
-            return "";
+        if (lazy) {
+            pull(CellKey.of(position.getX(), position.getY()));
         }
-        return grid.get(position.getX()).get(position.getY());
+        return grid.get(position.getX(), position.getY());
     }
 
-    /** Converts (A1, B3) to a Pair  */
+    /** Converts (A1, B3, AA12) to a Pair  */
     public static Pair convertCellReference(String ref) {
-        char colLetter = ref.charAt(0);
-        int rowNumber = Integer.parseInt(ref.substring(1)) - 1;
-        return new Pair(columnLetterToGridIndex(colLetter), rowNumber);
+        int letters = 0;
+        while (letters < ref.length() && Character.isLetter(ref.charAt(letters))) {
+            letters++;
+        }
+        int rowNumber = Integer.parseInt(ref.substring(letters)) - 1;
+        return new Pair(columnLettersToGridIndex(ref.substring(0, letters)), rowNumber);
     }
 
 
 
+    /** Prints the grid in SpreadSheet format to standard output */
     public void printGrid() {
-        // fallback if expressions were never evaluated
-        int width = (cachedWidth >= 0) ? cachedWidth : computeGlobalWidth();
-
-        int maxRows = 0;
-        for (List<String> col : grid) {
-            maxRows = Math.max(maxRows, col.size());
-        }
-
-        for (int row = 0; row < maxRows; row++) {
-            StringBuilder sb = new StringBuilder();
-            for (int col = 0; col < grid.size(); col++) {
-                List<String> columnData = grid.get(col);
-                String cellVal = (row < columnData.size()) ? columnData.get(row) : "";
-                sb.append("|").append(isNumeric(cellVal)
-                        ? rightAlign(cellVal, width)
-                        : leftAlign(cellVal, width));
-            }
-            sb.append("|");
-            System.out.println(sb);
+        pullAll();
+        int width = printWidth();
+        String stdoutEncoding = System.getProperty("sun.stdout.encoding");
+        Charset charset = (stdoutEncoding != null) ? Charset.forName(stdoutEncoding) : Charset.defaultCharset();
+        try {
+            render(Channels.newChannel(System.out), charset, width);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        System.out.flush();
     }
 
     /** Prints the grid in SpreadSheet format to an output file*/
     public void printGridToFile(String filePath) throws IOException {
-        try (FileWriter writer = new FileWriter(filePath)) {
-            int width = (cachedWidth >= 0) ? cachedWidth : computeGlobalWidth();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            pullAll();
+            render(channel, Charset.defaultCharset(), printWidth());
+        }
+    }
 
-            int maxRows = 0;
-            for (List<String> col : grid) {
-                maxRows = Math.max(maxRows, col.size());
-            }
+    /** Prints the grid in SpreadSheet format to a stream, which is flushed but not closed */
+    public void printGrid(OutputStream out, Charset charset) throws IOException {
+        pullAll();
+        render(Channels.newChannel(out), charset, printWidth());
+        out.flush();
+    }
 
-            for (int row = 0; row < maxRows; row++) {
-                StringBuilder sb = new StringBuilder();
-                for (int col = 0; col < grid.size(); col++) {
-                    List<String> columnData = grid.get(col);
-                    String cellVal = (row < columnData.size()) ? columnData.get(row) : "";
-                    if (isNumeric(cellVal)) {
-                        sb.append("|").append(rightAlign(cellVal, width));
-                    } else {
-                        sb.append("|").append(leftAlign(cellVal, width));
-                    }
+    /**
+     * Prints {@code rowCount} rows from {@code firstRow} to a stream, which is flushed but not
+     * closed. In lazy mode only the formulas of these rows, and what they read, are computed.
+     * Cells are padded to the widest cell of the sheet as it stands, so rows printed before
+     * more formulas were computed may be narrower than later ones.
+     */
+    public void printRows(OutputStream out, Charset charset, int firstRow, int rowCount) throws IOException {
+        int endRow = Math.min(grid.maxRowCount(), firstRow + rowCount);
+        if (lazy) {
+            for (int row = firstRow; row < endRow; row++) {
+                for (int col = 0; col < grid.columnCount(); col++) {
+                    pull(CellKey.of(col, row));
                 }
-                sb.append("|");
-                writer.write(sb.toString());
-                writer.write(System.lineSeparator());
+            }
+            if (!rulesFinalized) {
+                finalizeHorizontalLines();
             }
         }
+        render(Channels.newChannel(out), charset, printWidth(), Math.max(0, firstRow), endRow);
+        out.flush();
     }
 
-    /** Helper function for computing the longest text length in the grid*/
-    private int computeGlobalWidth() {
-        int maxLen = 0;
-        for (List<String> column : grid) {
-            for (String cellVal : column) {
-                maxLen = Math.max(maxLen, cellVal.length());
-            }
+    /** Renders the grid into a channel, recording the time and bytes written */
+    private void render(WritableByteChannel out, Charset charset, int width) throws IOException {
+        render(out, charset, width, 0, grid.maxRowCount());
+    }
+
+    private void render(WritableByteChannel out, Charset charset, int width, int firstRow, int endRow)
+            throws IOException {
+        long start = System.nanoTime();
+        GridRenderer renderer = new GridRenderer(grid, charset);
+        try {
+            renderer.render(out, width, firstRow, endRow);
+        } finally {
+            stats.addNanos(Phase.RENDER, System.nanoTime() - start);
+            stats.addBytesWritten(renderer.bytesWritten());
         }
-        return maxLen;
     }
 
+    /** Helper function for the longest text length in the grid; the store tracks it on every write */
+    private int computeGlobalWidth() {
+        return grid.maxTextLength();
+    }
 
+    /**
+     * Releases the cell storage: an off-heap sheet frees its memory and an out-of-core sheet
+     * deletes its temporary file. Heap sheets need not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        grid.close();
+    }
 }
@@ -1,11 +1,12 @@
 package org.nbc.csvtospreadsheet;
 
-import java.util.Arrays;
-
 public class SpreadSheetUtils {
 
+    /** Whole numbers below this magnitude are printed by Double.toString as plain digits and ".0". */
+    private static final double PLAIN_WHOLE_LIMIT = 1e7;
+
     public static boolean isNumeric(String cellVal) {
-        if (cellVal.isEmpty()) return false;
+        if (cellVal.isEmpty() || !mayStartNumber(cellVal)) return false;
         try {
             Double.parseDouble(cellVal);
             return true;
@@ -14,26 +15,88 @@ public class SpreadSheetUtils {
         }
     }
 
+    /**
+     * Cheap pre-check for isNumeric: Double.parseDouble only accepts text whose first
+     * non-blank character is a digit, a sign, a dot, or the start of "NaN"/"Infinity".
+     * Rejecting everything else up front avoids an exception for every label.
+     */
+    private static boolean mayStartNumber(String cellVal) {
+        int i = 0;
+        while (i < cellVal.length() && cellVal.charAt(i) <= ' ') {
+            i++;
+        }
+        if (i == cellVal.length()) return false;
+        char c = cellVal.charAt(i);
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'N' || c == 'I';
+    }
+
     /**
      * Processes the provided terms based on the chosen operation.
-     * sum and product are supported currently, but can be extended for other operations.
-     * @param operation The action to perform e.g. SUM, PRODUCT.
+     * SUM and PROD run through {@link AggregationKernels}; any other operation folds the terms
+     * through its accumulator.
+     * @param operation The action to perform e.g. SUM, PROD, AVG.
      * @param terms     One or more numeric values that will be used by the operation.
      * @return The numeric result after applying the operation to all terms.
      */
-    public static double evaluateExpression(SupportedOperations operation, double... terms) {
-        return switch (operation) {
-            case SUM -> Arrays.stream(terms).sum();
-            case PROD -> Arrays.stream(terms).reduce(1, (a, b) -> a * b);
-            // We will add more cases here our support for other operations increase
-            default -> throw new UnsupportedOperationException("Operation not supported: " + operation);
-        };
+    public static double evaluateExpression(Operation operation, double... terms) {
+        return evaluateExpression(operation, terms, terms.length);
+    }
+
+    /**
+     * Same as {@link #evaluateExpression(Operation, double...)} but only uses the first
+     * {@code count} terms, so callers can reuse one buffer for every formula.
+     */
+    public static double evaluateExpression(Operation operation, double[] terms, int count) {
+        if (operation == SupportedOperations.SUM) {
+            return AggregationKernels.sum(terms, 0, count);
+        }
+        if (operation == SupportedOperations.PROD) {
+            return AggregationKernels.product(terms, 0, count);
+        }
+        Accumulator accumulator = operation.newAccumulator();
+        for (int i = 0; i < count; i++) {
+            accumulator.add(terms[i]);
+        }
+        return accumulator.result();
+    }
+
+    /**
+     * True if {@code Double.toString(value)} is {@code Long.toString((long) value)} followed by
+     * ".0", so the text can be produced from the digits without formatting the double.
+     * This holds for every whole number below 10^7 in magnitude except -0.0.
+     */
+    public static boolean isPlainWholeNumber(double value) {
+        return value == (long) value && Math.abs(value) < PLAIN_WHOLE_LIMIT
+                && Double.doubleToRawLongBits(value) != Long.MIN_VALUE;
+    }
+
+    /** Number of characters in {@code Double.toString(value)}, without building the string when it is a plain whole number. */
+    public static int doubleLength(double value) {
+        return isPlainWholeNumber(value) ? integerLength((long) value) + 2 : Double.toString(value).length();
+    }
+
+    /** Number of characters in {@code Long.toString(value)}. */
+    public static int integerLength(long value) {
+        int length = (value < 0) ? 2 : 1;
+        for (long rest = Math.abs(value / 10); rest > 0; rest /= 10) {
+            length++;
+        }
+        return length;
     }
 
     public static int columnLetterToGridIndex(char columnLetter) {
         return Character.toUpperCase(columnLetter) - 'A';
     }
 
+    /** Converts column letters such as "A", "Z", "AA" or "XFD" to a 0-based column index. */
+    public static int columnLettersToGridIndex(String columnLetters) {
+        int col = 0;
+        for (int i = 0; i < columnLetters.length(); i++) {
+            col = col * 26 + (columnLetterToGridIndex(columnLetters.charAt(i)) + 1);
+        }
+        return col - 1;
+    }
+
     public static String columnIndexToLetter(int col) {
         if (col < 0) {
             throw new IllegalArgumentException("Column index cannot be negative");
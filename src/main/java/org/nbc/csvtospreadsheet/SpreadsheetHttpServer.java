@@ -0,0 +1,205 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves conversions over HTTP with the JDK's built-in server: a client POSTs CSV to
+ * {@code /convert} and receives the rendered sheet as UTF-8 text. The request body is parsed
+ * as it is read, and the grid is rendered straight into the response body.
+ *
+ * <p>Each request runs on its own virtual thread when the runtime has them (Java 21 and
+ * later), otherwise on a cached thread pool. Bodies larger than the configured limit are
+ * rejected with 413, whether or not the client announced their length.
+ *
+ * <p>With a {@link ResultCache} the body is read in full first, so that a repeated input
+ * can be answered from the cache without being parsed.
+ */
+public class SpreadsheetHttpServer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(SpreadsheetHttpServer.class.getName());
+
+    /** Path conversions are posted to. */
+    public static final String CONVERT_PATH = "/convert";
+
+    /** Connections the OS may queue before they are accepted, so bursts of clients are not refused. */
+    private static final int BACKLOG = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long maxRequestBytes;
+    private final ResultCache cache;
+
+    private SpreadsheetHttpServer(HttpServer server, ExecutorService executor, long maxRequestBytes,
+                                  ResultCache cache) {
+        this.server = server;
+        this.executor = executor;
+        this.maxRequestBytes = maxRequestBytes;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts a server on {@code address}; port 0 picks a free port, see {@link #port()}.
+     * Request bodies may hold at most {@code maxRequestBytes} bytes.
+     */
+    public static SpreadsheetHttpServer start(InetSocketAddress address, long maxRequestBytes) throws IOException {
+        return start(address, maxRequestBytes, null);
+    }
+
+    /** As above, answering repeated inputs from {@code cache} when it is not null. */
+    public static SpreadsheetHttpServer start(InetSocketAddress address, long maxRequestBytes,
+                                              ResultCache cache) throws IOException {
+        HttpServer server = HttpServer.create(address, BACKLOG);
+        ExecutorService executor = newRequestExecutor();
+        SpreadsheetHttpServer instance = new SpreadsheetHttpServer(server, executor, maxRequestBytes, cache);
+        server.createContext(CONVERT_PATH, instance::handle);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Listening on " + server.getAddress() + CONVERT_PATH);
+        return instance;
+    }
+
+    /** A virtual-thread-per-task executor when the runtime supports it, else a cached pool. */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** The port the server is bound to. */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Only POST is supported");
+                return;
+            }
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && parseLength(length) > maxRequestBytes) {
+                sendError(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes");
+                return;
+            }
+
+            if (cache != null) {
+                byte[] output;
+                try (InputStream body = new LimitedInputStream(exchange.getRequestBody(), maxRequestBytes)) {
+                    output = cache.convert(body.readAllBytes(), StandardCharsets.UTF_8);
+                } catch (RequestTooLargeException e) {
+                    sendError(exchange, 413, e.getMessage());
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, output.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(output);
+                }
+                return;
+            }
+
+            SpreadSheet spreadSheet = new SpreadSheet();
+            try (InputStream body = new LimitedInputStream(exchange.getRequestBody(), maxRequestBytes)) {
+                spreadSheet.loadCsv(body);
+            } catch (RequestTooLargeException e) {
+                sendError(exchange, 413, e.getMessage());
+                return;
+            }
+            spreadSheet.evaluateAllExpressions();
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                spreadSheet.printGrid(out, StandardCharsets.UTF_8);
+            }
+            ConversionMetrics.global().record(spreadSheet.getStats());
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Conversion request failed: " + e);
+            throw e;
+        }
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** Stops accepting requests, waits up to a second for running ones, and stops the threads. */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /** Thrown when a body turns out to be larger than the limit while it is being read. */
+    private static final class RequestTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RequestTooLargeException(long limit) {
+            super("Request body exceeds " + limit + " bytes");
+        }
+    }
+
+    /** Counts the bytes read from a body and fails once there are more than the limit. */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws RequestTooLargeException {
+            count += n;
+            if (count > limit) {
+                throw new RequestTooLargeException(limit);
+            }
+        }
+    }
+}
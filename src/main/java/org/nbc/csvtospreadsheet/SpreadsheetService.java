@@ -1,6 +1,12 @@
 package org.nbc.csvtospreadsheet;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.util.logging.Logger;
 
@@ -10,6 +16,10 @@ import java.util.logging.Logger;
  * the csv data is read into a SpreadSheet object and the expressions in the csv are evaluated.
  * The output is then written to the specified output file.
  * Entering "exit" at either prompt ends the routine.
+ *
+ * <p>Started with {@code --batch}, the service instead converts a whole directory, or every
+ * pair listed in a manifest, without prompting; see {@link BatchProcessor}.
+ * Started with {@code --serve}, it converts CSV posted over HTTP; see {@link SpreadsheetHttpServer}.
  */
 public class SpreadsheetService {
     private static final Logger logger = Logger.getLogger("org.nbc.csvtospreadsheet");
@@ -21,6 +31,16 @@ public class SpreadsheetService {
      * evaluated, and the results are written to the indicated output file.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            System.exit(runBatch(args));
+        }
+        if (args.length > 0 && "--serve".equals(args[0])) {
+            if (!serve(args)) {
+                System.exit(2);
+            }
+            return;
+        }
+
         Scanner sc = new Scanner(System.in);
         System.out.println("Service started. Type 'exit' to quit at any time.");
 
@@ -51,6 +71,8 @@ public class SpreadsheetService {
             try {
                 spreadSheet.printGridToFile(outputFile);
                 logger.info("Output written to " + outputFile);
+                ConversionMetrics.global().record(spreadSheet.getStats());
+                logger.fine(spreadSheet.getStats().toString());
             } catch (Exception e) {
                 logger.severe("Error writing output: " + e.getMessage());
             }
@@ -59,4 +81,127 @@ public class SpreadsheetService {
         sc.close();
         logger.info("Service stopped.");
     }
+
+    /**
+     * Runs {@code --batch <input dir> <output dir>} or {@code --batch <manifest>}, optionally
+     * followed by {@code --threads N}, {@code --memory MB} and the cache options, prints the
+     * summary and returns the exit status: 0 if every file was converted, 1 if some failed,
+     * 2 for bad arguments.
+     */
+    static int runBatch(String[] commandLine) {
+        List<String> paths = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memory = Runtime.getRuntime().maxMemory() / 2;
+        ResultCache cache;
+        List<String> args = new ArrayList<>(List.of(commandLine));
+        try {
+            cache = takeCacheOptions(args);
+            for (int i = 1; i < args.size(); i++) {
+                if ("--threads".equals(args.get(i)) && i + 1 < args.size()) {
+                    threads = Integer.parseInt(args.get(++i));
+                } else if ("--memory".equals(args.get(i)) && i + 1 < args.size()) {
+                    memory = Long.parseLong(args.get(++i)) << 20;
+                } else {
+                    paths.add(args.get(i));
+                }
+            }
+        } catch (NumberFormatException e) {
+            logger.severe("Invalid number: " + e.getMessage());
+            return 2;
+        } catch (IOException e) {
+            logger.severe("Cannot open the cache directory: " + e.getMessage());
+            return 2;
+        }
+        if (paths.isEmpty() || paths.size() > 2 || threads < 1) {
+            System.err.println("Usage: --batch <input dir> <output dir> | --batch <manifest> [--threads N] [--memory MB]"
+                    + " [--cache MB] [--cache-dir DIR] [--cache-disk MB]");
+            return 2;
+        }
+
+        try {
+            Path source = Path.of(paths.get(0));
+            List<BatchProcessor.Job> jobs;
+            if (Files.isDirectory(source)) {
+                Path outputDir = Path.of(paths.size() > 1 ? paths.get(1) : paths.get(0));
+                jobs = BatchProcessor.jobsFromDirectory(source, outputDir);
+            } else {
+                jobs = BatchProcessor.jobsFromManifest(source);
+            }
+            BatchProcessor processor = new BatchProcessor(threads, memory);
+            processor.setCache(cache);
+            BatchProcessor.Summary summary = processor.run(jobs);
+            System.out.println(summary);
+            if (cache != null) {
+                System.out.println(cache);
+            }
+            return summary.getFailures().isEmpty() ? 0 : 1;
+        } catch (IOException e) {
+            logger.severe("Cannot list batch input: " + e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    /**
+     * Starts the HTTP endpoint for {@code --serve [port] [--max-bytes N]}, with the cache options,
+     * and returns once it is listening; the server keeps the JVM alive. Returns false for bad arguments.
+     */
+    static boolean serve(String[] commandLine) {
+        int port = 8080;
+        long maxBytes = 16L << 20;
+        List<String> args = new ArrayList<>(List.of(commandLine));
+        try {
+            ResultCache cache = takeCacheOptions(args);
+            for (int i = 1; i < args.size(); i++) {
+                if ("--max-bytes".equals(args.get(i)) && i + 1 < args.size()) {
+                    maxBytes = Long.parseLong(args.get(++i));
+                } else {
+                    port = Integer.parseInt(args.get(i));
+                }
+            }
+            SpreadsheetHttpServer.start(new InetSocketAddress(port), maxBytes, cache);
+            return true;
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: --serve [port] [--max-bytes N] [--cache MB] [--cache-dir DIR] [--cache-disk MB]");
+            return false;
+        } catch (IOException e) {
+            logger.severe("Cannot start the HTTP server: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Removes {@code --cache MB}, {@code --cache-dir DIR} and {@code --cache-disk MB} from the
+     * arguments and returns the cache they describe, or null if there is none. The disk tier
+     * defaults to 1 GiB once a directory is given.
+     */
+    static ResultCache takeCacheOptions(List<String> args) throws IOException {
+        long memoryMb = -1;
+        long diskMb = 1024;
+        String directory = null;
+        for (int i = 0; i + 1 < args.size(); ) {
+            String option = args.get(i);
+            if ("--cache".equals(option)) {
+                memoryMb = Long.parseLong(args.get(i + 1));
+            } else if ("--cache-disk".equals(option)) {
+                diskMb = Long.parseLong(args.get(i + 1));
+            } else if ("--cache-dir".equals(option)) {
+                directory = args.get(i + 1);
+            } else {
+                i++;
+                continue;
+            }
+            args.subList(i, i + 2).clear();
+        }
+        if (memoryMb < 0 && directory == null) {
+            return null;
+        }
+        long memoryCap = Math.max(0, memoryMb) << 20;
+        if (directory == null) {
+            return new ResultCache(memoryCap);
+        }
+        return new ResultCache(memoryCap, Path.of(directory), diskMb << 20);
+    }
 }
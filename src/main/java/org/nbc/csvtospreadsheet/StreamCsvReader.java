@@ -0,0 +1,48 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Feeds a CSV stream to a {@link CsvParser} through one reusable heap buffer, for input that
+ * is not a file, such as a request body. Complete records are parsed as soon as they arrive;
+ * the unfinished tail is moved to the front of the buffer before the next read, and the buffer
+ * only grows when a single record does not fit in it.
+ */
+public class StreamCsvReader {
+    static final int DEFAULT_BUFFER = 1 << 16;
+
+    private StreamCsvReader() {
+    }
+
+    /** Parses the whole stream into the sink and returns the number of records read. */
+    public static int read(InputStream in, CsvParser.CellSink sink) throws IOException {
+        return read(in, new CsvParser(sink), DEFAULT_BUFFER);
+    }
+
+    static int read(InputStream in, CsvParser parser, int bufferSize) throws IOException {
+        byte[] bytes = new byte[bufferSize];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int filled = 0;
+        while (true) {
+            if (filled == bytes.length) {
+                // Not one record fits: grow, keeping what was read so far
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            int n = in.read(bytes, filled, bytes.length - filled);
+            if (n < 0) {
+                parser.parse(buffer, 0, filled, true);
+                return parser.nextRow();
+            }
+            filled += n;
+            int consumed = parser.parse(buffer, 0, filled, false);
+            if (consumed > 0) {
+                System.arraycopy(bytes, consumed, bytes, 0, filled - consumed);
+                filled -= consumed;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.nbc.csvtospreadsheet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link TextTable} keeping its strings on the heap; the default for a {@link CellStore}.
+ * Each distinct interned text is stored once and cells refer to it by a small int id,
+ * so repeated labels such as headers or "#hl" markers cost four bytes per cell.
+ * Ids of removed texts are kept on a free list and handed out again first.
+ */
+public class StringTable implements TextTable {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] values = new String[64];
+    private int[] references = new int[64];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int end;
+    private int size;
+
+    @Override
+    public synchronized int intern(String text) {
+        Integer id = ids.get(text);
+        if (id != null) {
+            references[id]++;
+            return id;
+        }
+        int added = add(text);
+        ids.put(text, added);
+        return added;
+    }
+
+    @Override
+    public synchronized int add(String text) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (end == values.length) {
+                values = Arrays.copyOf(values, end * 2);
+                references = Arrays.copyOf(references, end * 2);
+            }
+            id = end++;
+        }
+        values[id] = text;
+        references[id] = 1;
+        size++;
+        return id;
+    }
+
+    @Override
+    public synchronized void release(int id) {
+        if (--references[id] > 0) {
+            return;
+        }
+        ids.remove(values[id], id);
+        values[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+        size--;
+    }
+
+    @Override
+    public synchronized int find(String text) {
+        Integer id = ids.get(text);
+        return (id == null) ? -1 : id;
+    }
+
+    @Override
+    public String get(int id) {
+        return values[id];
+    }
+
+    @Override
+    public int length(int id) {
+        return values[id].length();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -1,6 +1,154 @@
 package org.nbc.csvtospreadsheet;
 
-public enum SupportedOperations {
-    PROD,
-    SUM
+/**
+ * The built-in operations. SUM and PROD count empty and text cells as 0, and their large ranges
+ * are answered by the {@link RangeIndex}. Their accumulators take the same steps as the scalar
+ * loops of {@link AggregationKernels}. The others only see numeric cells.
+ */
+public enum SupportedOperations implements Operation {
+    PROD {
+        @Override
+        public Accumulator newAccumulator() {
+            return new Accumulator() {
+                private double product = 1.0;
+
+                @Override
+                public void add(double value) {
+                    product *= value;
+                }
+
+                @Override
+                public void addZeros(long count) {
+                    // Further zeros cannot change a product already multiplied by one
+                    if (count > 0) {
+                        add(0.0);
+                    }
+                }
+
+                @Override
+                public double result() {
+                    return product;
+                }
+            };
+        }
+
+        @Override
+        public boolean blanksAsZero() {
+            return true;
+        }
+    },
+    SUM {
+        @Override
+        public Accumulator newAccumulator() {
+            return new CompensatedSum();
+        }
+
+        @Override
+        public boolean blanksAsZero() {
+            return true;
+        }
+    },
+    /** Mean of the numeric cells; NaN if there are none. */
+    AVG {
+        @Override
+        public Accumulator newAccumulator() {
+            return new CompensatedSum() {
+                @Override
+                public double result() {
+                    return (count == 0) ? Double.NaN : super.result() / count;
+                }
+            };
+        }
+    },
+    /** Smallest numeric cell; 0 if there are none. */
+    MIN {
+        @Override
+        public Accumulator newAccumulator() {
+            return new Extreme(true);
+        }
+    },
+    /** Largest numeric cell; 0 if there are none. */
+    MAX {
+        @Override
+        public Accumulator newAccumulator() {
+            return new Extreme(false);
+        }
+    },
+    /** Number of numeric cells. */
+    COUNT {
+        @Override
+        public Accumulator newAccumulator() {
+            return new CompensatedSum() {
+                @Override
+                public double result() {
+                    return count;
+                }
+            };
+        }
+    };
+
+    /** Kahan summation, giving the same result as {@link AggregationKernels#scalarSum}. */
+    private static class CompensatedSum implements Accumulator {
+        long count;
+        private double sum;
+        private double compensation;
+        private double simpleSum;
+
+        @Override
+        public void add(double value) {
+            count++;
+            double corrected = value - compensation;
+            double next = sum + corrected;
+            compensation = (next - sum) - corrected;
+            sum = next;
+            simpleSum += value;
+        }
+
+        @Override
+        public void addZeros(long count) {
+            // A zero only folds the pending compensation into the sum; once that is gone, it changes nothing
+            for (; count > 0 && compensation != 0; count--) {
+                add(0.0);
+            }
+            this.count += count;
+        }
+
+        @Override
+        public double result() {
+            double result = sum - compensation;
+            return (Double.isNaN(result) && Double.isInfinite(simpleSum)) ? simpleSum : result;
+        }
+    }
+
+    private static final class Extreme implements Accumulator {
+        private final boolean min;
+        private boolean any;
+        private double extreme;
+
+        Extreme(boolean min) {
+            this.min = min;
+        }
+
+        @Override
+        public void add(double value) {
+            if (!any) {
+                extreme = value;
+                any = true;
+            } else {
+                extreme = min ? Math.min(extreme, value) : Math.max(extreme, value);
+            }
+        }
+
+        @Override
+        public void addZeros(long count) {
+            if (count > 0) {
+                add(0.0);
+            }
+        }
+
+        @Override
+        public double result() {
+            return any ? extreme : 0.0;
+        }
+    }
 }
@@ -0,0 +1,33 @@
+package org.nbc.csvtospreadsheet;
+
+/**
+ * The texts of the cells of a {@link CellStore}. Cells refer to their text by a small int id.
+ * Texts added through {@link #intern} are shared: each distinct one is stored once. Texts added
+ * through {@link #add} get an id of their own and are never looked up.
+ *
+ * <p>Every id handed out counts one reference to its text, which the cell gives back with
+ * {@link #release} when it is overwritten. A text without references is removed and its id
+ * may be handed out again. Changes may come from several threads at once.
+ */
+public interface TextTable {
+    /** Returns the id of the given text, adding it to the table if it is not present yet, and counts one more reference to it. */
+    int intern(String text);
+
+    /** Stores a text that is not shared under a new id, with one reference; {@link #find} does not see it. */
+    int add(String text);
+
+    /** Drops one reference to the text; the last one removes it. */
+    void release(int id);
+
+    /** Returns the id of the given interned text, or -1 if it is not in the table. */
+    int find(String text);
+
+    /** Returns the text stored under the given id. */
+    String get(int id);
+
+    /** Returns {@code get(id).length()}. */
+    int length(int id);
+
+    /** Number of texts in the table. */
+    int size();
+}
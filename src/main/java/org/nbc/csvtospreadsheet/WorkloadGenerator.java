@@ -0,0 +1,262 @@
+package org.nbc.csvtospreadsheet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.nbc.csvtospreadsheet.SpreadSheetUtils.columnIndexToLetter;
+
+/**
+ * Writes synthetic CSV sheets for load tests and regression tests. The leftmost columns hold
+ * plain cells: integers, decimals, text and "#hl" markers in configurable proportions. The
+ * rightmost {@code formulaColumns} columns hold formulas wired according to a {@link Topology},
+ * and cycles of a given length can be injected into them.
+ *
+ * <p>Rows are written one at a time, so memory use does not depend on the size of the sheet.
+ * All choices come from one {@link Random} seeded up front, so the same settings and seed
+ * always produce the same bytes.
+ */
+public class WorkloadGenerator {
+
+    /** How formulas reference other cells. */
+    public enum Topology {
+        /** Each formula reads the formula above it and one plain cell: one chain per column, as long as the sheet. */
+        CHAIN,
+        /** Each formula reads {@code fanIn} random plain cells from anywhere in the sheet. */
+        FAN_IN,
+        /** Each formula reads two neighbouring formulas of the row above, so paths split and join again. */
+        DIAMOND,
+        /** Each formula reads {@code fanIn} random cells of earlier rows, formulas included. */
+        RANDOM_DAG
+    }
+
+    private final int rows;
+    private final int columns;
+    private final long seed;
+
+    private int formulaColumns = 1;
+    private Topology topology = Topology.CHAIN;
+    private int fanIn = 4;
+    private double decimalFraction = 0.1;
+    private double textFraction = 0.1;
+    private double ruleFraction = 0.01;
+    private int cycleCount;
+    private int cycleLength;
+
+    /** A generator for {@code rows} rows of {@code columns} cells, drawing from {@code seed}. */
+    public WorkloadGenerator(int rows, int columns, long seed) {
+        if (rows < 1 || columns < 2) {
+            throw new IllegalArgumentException("Need at least 1 row and 2 columns: " + rows + "x" + columns);
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.seed = seed;
+    }
+
+    /** Sets how many of the rightmost columns hold formulas; at least one plain column is kept. */
+    public void setFormulaColumns(int formulaColumns) {
+        if (formulaColumns < 0 || formulaColumns >= columns) {
+            throw new IllegalArgumentException("Formula columns must be in [0, " + columns + "): " + formulaColumns);
+        }
+        this.formulaColumns = formulaColumns;
+    }
+
+    public void setTopology(Topology topology) {
+        this.topology = topology;
+    }
+
+    /** Number of references per formula for {@link Topology#FAN_IN} and {@link Topology#RANDOM_DAG}. */
+    public void setFanIn(int fanIn) {
+        if (fanIn < 1) {
+            throw new IllegalArgumentException("Fan-in must be at least 1: " + fanIn);
+        }
+        this.fanIn = fanIn;
+    }
+
+    /** Sets the share of plain cells that are decimals, text and "#hl"; the rest are integers. */
+    public void setPlainMix(double decimalFraction, double textFraction, double ruleFraction) {
+        if (decimalFraction < 0 || textFraction < 0 || ruleFraction < 0
+                || decimalFraction + textFraction + ruleFraction > 1) {
+            throw new IllegalArgumentException("Fractions must be non-negative and add up to at most 1");
+        }
+        this.decimalFraction = decimalFraction;
+        this.textFraction = textFraction;
+        this.ruleFraction = ruleFraction;
+    }
+
+    /**
+     * Injects {@code count} cycles of {@code length} formulas each, spread evenly down the
+     * first formula column: each formula of a cycle reads the next and the last reads the first.
+     * Formulas that read a cycle, e.g. the rest of a chain, are unevaluable too.
+     */
+    public void setCycles(int count, int length) {
+        if (count < 0 || length < 1 || (long) count * length > rows) {
+            throw new IllegalArgumentException("Cannot fit " + count + " cycles of " + length + " in " + rows + " rows");
+        }
+        this.cycleCount = count;
+        this.cycleLength = length;
+    }
+
+    /** Writes the sheet to a UTF-8 file and returns the number of cells written. */
+    public long write(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            return write(out);
+        }
+    }
+
+    /** Writes the sheet as CSV, one line per row, and returns the number of cells written. */
+    public long write(Writer writer) throws IOException {
+        if (formulaColumns == 0 && cycleCount > 0) {
+            throw new IllegalStateException("Cycles need at least one formula column");
+        }
+        BufferedWriter out = (writer instanceof BufferedWriter) ? (BufferedWriter) writer : new BufferedWriter(writer);
+        Random random = new Random(seed);
+        int plainColumns = columns - formulaColumns;
+        String[] letters = new String[columns];
+        for (int col = 0; col < columns; col++) {
+            letters[col] = columnIndexToLetter(col);
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (int row = 0; row < rows; row++) {
+            line.setLength(0);
+            for (int col = 0; col < columns; col++) {
+                if (col > 0) {
+                    line.append(',');
+                }
+                if (col < plainColumns) {
+                    appendPlain(line, random, row, col);
+                } else {
+                    appendFormula(line, random, letters, plainColumns, row, col);
+                }
+            }
+            out.append(line).append('\n');
+        }
+        out.flush();
+        return (long) rows * columns;
+    }
+
+    private void appendPlain(StringBuilder line, Random random, int row, int col) {
+        double kind = random.nextDouble();
+        if (kind < ruleFraction) {
+            line.append("#hl");
+        } else if (kind < ruleFraction + textFraction) {
+            line.append("label").append(row).append('_').append(col);
+        } else if (kind < ruleFraction + textFraction + decimalFraction) {
+            line.append(random.nextInt(100_000) / 100.0);
+        } else {
+            line.append(random.nextInt(1000));
+        }
+    }
+
+    private void appendFormula(StringBuilder line, Random random, String[] letters, int plainColumns,
+                               int row, int col) {
+        int first = plainColumns;
+        int cycleRow = cycleStart(row);
+        if (col == first && cycleRow >= 0) {
+            // Inside an injected cycle: read the next cell of the cycle, wrapping to its start
+            int next = (row + 1 < cycleRow + cycleLength) ? row + 1 : cycleRow;
+            line.append("#(sum ").append(letters[col]).append(next + 1).append(')');
+            return;
+        }
+
+        switch (topology) {
+            case CHAIN -> {
+                line.append("#(sum ");
+                if (row > 0) {
+                    line.append(letters[col]).append(row).append(' ');
+                }
+                line.append(letters[random.nextInt(plainColumns)]).append(row + 1).append(')');
+            }
+            case FAN_IN -> {
+                line.append("#(sum");
+                for (int i = 0; i < fanIn; i++) {
+                    line.append(' ').append(letters[random.nextInt(plainColumns)]).append(random.nextInt(rows) + 1);
+                }
+                line.append(')');
+            }
+            case DIAMOND -> {
+                if (row == 0) {
+                    line.append("#(sum ").append(letters[random.nextInt(plainColumns)]).append("1)");
+                } else {
+                    int right = first + (col - first + 1) % formulaColumns;
+                    line.append("#(sum ").append(letters[col]).append(row);
+                    if (right != col) {
+                        line.append(' ').append(letters[right]).append(row);
+                    }
+                    line.append(')');
+                }
+            }
+            default -> {
+                line.append("#(sum");
+                for (int i = 0; i < fanIn; i++) {
+                    if (row == 0) {
+                        line.append(' ').append(letters[random.nextInt(plainColumns)]).append(1);
+                    } else {
+                        line.append(' ').append(letters[random.nextInt(columns)]).append(random.nextInt(row) + 1);
+                    }
+                }
+                line.append(')');
+            }
+        }
+    }
+
+    /** The first row of the injected cycle covering {@code row}, or -1 if none does. */
+    private int cycleStart(int row) {
+        if (cycleCount == 0) {
+            return -1;
+        }
+        // Cycle i starts at row i * spacing; the spacing is at least the cycle length
+        int spacing = rows / cycleCount;
+        int index = row / spacing;
+        int start = index * spacing;
+        return (index < cycleCount && row < start + cycleLength) ? start : -1;
+    }
+
+    /**
+     * Command-line entry point:
+     * {@code <output.csv> [--rows N] [--columns N] [--formula-columns N] [--topology T]
+     * [--fan-in N] [--cycles COUNT LENGTH] [--seed S]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: <output.csv> [--rows N] [--columns N] [--formula-columns N]"
+                    + " [--topology CHAIN|FAN_IN|DIAMOND|RANDOM_DAG] [--fan-in N] [--cycles COUNT LENGTH] [--seed S]");
+            System.exit(2);
+        }
+        int rows = 100_000;
+        int columns = 8;
+        int formulaColumns = 2;
+        long seed = 42;
+        Topology topology = Topology.CHAIN;
+        int fanIn = 4;
+        int cycles = 0;
+        int cycleLength = 1;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rows" -> rows = Integer.parseInt(args[++i]);
+                case "--columns" -> columns = Integer.parseInt(args[++i]);
+                case "--formula-columns" -> formulaColumns = Integer.parseInt(args[++i]);
+                case "--topology" -> topology = Topology.valueOf(args[++i].toUpperCase());
+                case "--fan-in" -> fanIn = Integer.parseInt(args[++i]);
+                case "--cycles" -> {
+                    cycles = Integer.parseInt(args[++i]);
+                    cycleLength = Integer.parseInt(args[++i]);
+                }
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        WorkloadGenerator generator = new WorkloadGenerator(rows, columns, seed);
+        generator.setFormulaColumns(formulaColumns);
+        generator.setTopology(topology);
+        generator.setFanIn(fanIn);
+        generator.setCycles(cycles, cycleLength);
+        long cells = generator.write(Path.of(args[0]));
+        System.out.println("Wrote " + cells + " cells to " + args[0]);
+    }
+}
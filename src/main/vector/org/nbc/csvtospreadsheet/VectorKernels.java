@@ -0,0 +1,63 @@
+package org.nbc.csvtospreadsheet;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Aggregation loops on {@code jdk.incubator.vector}, loaded by {@link AggregationKernels} when
+ * the {@code vector} profile compiled it and the JVM was started with the module and property.
+ * Each lane keeps its own compensated sum; the lanes and the tail are folded together with
+ * the scalar compensation at the end.
+ */
+public class VectorKernels implements AggregationKernels.Kernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double sum(double[] terms, int from, int to) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        DoubleVector compensation = DoubleVector.zero(SPECIES);
+        DoubleVector simpleSum = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector values = DoubleVector.fromArray(SPECIES, terms, i);
+            DoubleVector corrected = values.sub(compensation);
+            DoubleVector next = sum.add(corrected);
+            compensation = next.sub(sum).sub(corrected);
+            sum = next;
+            simpleSum = simpleSum.add(values);
+        }
+
+        // Lane sums, negated lane compensations and the tail, summed with compensation
+        int lanes = SPECIES.length();
+        double[] rest = new double[2 * lanes + (to - i)];
+        sum.intoArray(rest, 0);
+        compensation.neg().intoArray(rest, lanes);
+        System.arraycopy(terms, i, rest, 2 * lanes, to - i);
+        double result = AggregationKernels.scalarSum(rest, 0, rest.length);
+        if (Double.isNaN(result)) {
+            double simple = simpleSum.reduceLanes(VectorOperators.ADD);
+            for (int j = i; j < to; j++) {
+                simple += terms[j];
+            }
+            if (Double.isInfinite(simple)) {
+                return simple;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double product(double[] terms, int from, int to) {
+        DoubleVector product = DoubleVector.broadcast(SPECIES, 1.0);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            product = product.mul(DoubleVector.fromArray(SPECIES, terms, i));
+        }
+        double result = product.reduceLanes(VectorOperators.MUL);
+        for (; i < to; i++) {
+            result *= terms[i];
+        }
+        return result;
+    }
+}
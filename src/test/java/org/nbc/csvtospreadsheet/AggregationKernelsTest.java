@@ -0,0 +1,71 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class AggregationKernelsTest {
+
+    @Test
+    public void scalarKernelsMatchStreams() {
+        Random random = new Random(3);
+        for (int length = 0; length < 100; length++) {
+            double[] terms = new double[length + 2];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+            }
+            assertEquals(Arrays.stream(terms, 1, length + 1).sum(),
+                    AggregationKernels.scalarSum(terms, 1, length + 1), "Sum of " + length + " terms");
+            assertEquals(Arrays.stream(terms, 1, length + 1).reduce(1, (a, b) -> a * b),
+                    AggregationKernels.scalarProduct(terms, 1, length + 1), "Product of " + length + " terms");
+        }
+    }
+
+    @Test
+    public void specialValuesMatchStreams() {
+        double[][] cases = {
+                {},
+                {-0.0},
+                {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY},
+                {Double.NEGATIVE_INFINITY, 1.0},
+                {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY},
+                {Double.NaN, 2.0},
+                {1e308, 1e308, -1e308},
+                {1.0, 1e-17, 1e-17, 1e-17, -1.0}
+        };
+        for (double[] terms : cases) {
+            assertEquals(Arrays.stream(terms).sum(), AggregationKernels.scalarSum(terms, 0, terms.length),
+                    "Sum of " + Arrays.toString(terms));
+            assertEquals(Arrays.stream(terms).reduce(1, (a, b) -> a * b),
+                    AggregationKernels.scalarProduct(terms, 0, terms.length), "Product of " + Arrays.toString(terms));
+        }
+    }
+
+    @Test
+    public void longSlicesAgreeWithScalarKernels() {
+        // Runs through the vector kernel under the vector profile, and the scalar one otherwise
+        assertEquals(Boolean.getBoolean(AggregationKernels.VECTOR_PROPERTY), AggregationKernels.vectorEnabled());
+        Random random = new Random(4);
+        for (int length : new int[] {AggregationKernels.VECTOR_THRESHOLD, 1000, 4099, 1 << 16}) {
+            double[] terms = new double[length];
+            for (int i = 0; i < length; i++) {
+                terms[i] = random.nextDouble() * 100;
+            }
+            double sum = AggregationKernels.scalarSum(terms, 0, length);
+            assertEquals(sum, AggregationKernels.sum(terms, 0, length), Math.ulp(sum) * 4, "Sum of " + length);
+
+            Arrays.fill(terms, 1.0);
+            terms[length / 3] = 2.5;
+            terms[length - 1] = -4.0;
+            assertEquals(-10.0, AggregationKernels.product(terms, 0, length), "Product of " + length);
+        }
+
+        double[] infinite = new double[1000];
+        infinite[7] = Double.POSITIVE_INFINITY;
+        infinite[999] = Double.POSITIVE_INFINITY;
+        assertEquals(Double.POSITIVE_INFINITY, AggregationKernels.sum(infinite, 0, infinite.length));
+    }
+}
@@ -0,0 +1,153 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class BatchProcessorTest {
+
+    @Test
+    public void convertsDirectoryLikeSingleSheets() throws Exception {
+        Path input = Files.createTempDirectory("batch_in");
+        Path output = Files.createTempDirectory("batch_out");
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(input.resolve("sheet" + i + ".csv"),
+                    i + ",2,#(sum A1 B1)\n#hl\n3," + i + ",#(prod A3 B3 C1)\n", StandardCharsets.UTF_8);
+        }
+        Files.writeString(input.resolve("notes.md"), "not a csv", StandardCharsets.UTF_8);
+
+        List<BatchProcessor.Job> jobs = BatchProcessor.jobsFromDirectory(input, output);
+        assertEquals(20, jobs.size(), "Only .csv files become jobs");
+
+        // A tiny budget forces jobs to wait for each other without blocking any of them forever
+        BatchProcessor.Summary summary = new BatchProcessor(4, 1).run(jobs);
+        assertEquals(20, summary.getSucceeded());
+        assertTrue(summary.getFailures().isEmpty(), "No job should fail: " + summary.getFailures());
+
+        for (BatchProcessor.Job job : jobs) {
+            SpreadSheet single = new SpreadSheet();
+            single.loadCsvMapped(job.getInput().toString());
+            single.evaluateAllExpressions();
+            Path expected = Files.createTempFile("batch_expected", ".txt");
+            expected.toFile().deleteOnExit();
+            single.printGridToFile(expected.toString());
+            assertEquals(Files.readString(expected), Files.readString(job.getOutput()), "Output of " + job);
+        }
+    }
+
+    @Test
+    public void outputMatchesInteractiveServiceByteForByte() throws Exception {
+        Path input = Files.createTempDirectory("batch_same_in");
+        Path output = Files.createTempDirectory("batch_same_out");
+        Files.copy(Path.of("test.csv"), input.resolve("test.csv"));
+        WorkloadGenerator generator = new WorkloadGenerator(3000, 6, 11);
+        generator.setFormulaColumns(2);
+        generator.setTopology(WorkloadGenerator.Topology.RANDOM_DAG);
+        generator.setCycles(5, 3);
+        generator.write(input.resolve("generated.csv"));
+
+        List<BatchProcessor.Job> jobs = BatchProcessor.jobsFromDirectory(input, output);
+        BatchProcessor.Summary summary = new BatchProcessor(2, 1 << 30).run(jobs);
+        assertEquals(2, summary.getSucceeded());
+
+        for (BatchProcessor.Job job : jobs) {
+            // What SpreadsheetService does for one file
+            SpreadSheet interactive = new SpreadSheet();
+            interactive.loadCsv(job.getInput().toString());
+            interactive.evaluateAllExpressions();
+            Path expected = Files.createTempFile("interactive_expected", ".txt");
+            expected.toFile().deleteOnExit();
+            interactive.printGridToFile(expected.toString());
+            assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(job.getOutput()), "Output of " + job);
+        }
+    }
+
+    @Test
+    public void errorsStopTheRun() throws Exception {
+        Path input = Files.createTempDirectory("batch_error_in");
+        Path output = Files.createTempDirectory("batch_error_out");
+        for (int i = 0; i < 50; i++) {
+            Files.writeString(input.resolve("sheet" + i + ".csv"), i + ",#(sum A1)\n", StandardCharsets.UTF_8);
+        }
+        AtomicInteger processed = new AtomicInteger();
+        BatchProcessor processor = new BatchProcessor(1, 1 << 20) {
+            @Override
+            void process(Job job) throws IOException {
+                if (processed.incrementAndGet() == 3) {
+                    throw new OutOfMemoryError("simulated");
+                }
+                super.process(job);
+            }
+        };
+
+        OutOfMemoryError error = assertThrows(OutOfMemoryError.class,
+                () -> processor.run(BatchProcessor.jobsFromDirectory(input, output)));
+        assertEquals("simulated", error.getMessage());
+        assertEquals(3, processed.get(), "No job starts after the error");
+    }
+
+    @Test
+    public void repeatedInputsComeFromCache() throws Exception {
+        Path input = Files.createTempDirectory("batch_cached_in");
+        Path output = Files.createTempDirectory("batch_cached_out");
+        for (int i = 0; i < 10; i++) {
+            // Only two distinct contents among ten files
+            Files.writeString(input.resolve("copy" + i + ".csv"), (i % 2) + ",5,#(sum A1 B1)\n", StandardCharsets.UTF_8);
+        }
+        BatchProcessor processor = new BatchProcessor(1, 1 << 20);
+        ResultCache cache = new ResultCache(1 << 20);
+        processor.setCache(cache);
+
+        BatchProcessor.Summary summary = processor.run(BatchProcessor.jobsFromDirectory(input, output));
+
+        assertEquals(10, summary.getSucceeded());
+        assertEquals(2, cache.getMisses(), "Each distinct input is converted once");
+        assertEquals(8, cache.getHits());
+        assertTrue(Files.readString(output.resolve("copy3.txt")).contains("6.0"), "Cached output is written");
+    }
+
+    @Test
+    public void failingJobDoesNotStopOthers() throws Exception {
+        Path dir = Files.createTempDirectory("batch_manifest");
+        Files.writeString(dir.resolve("good.csv"), "1,#(sum A1 A1)\n", StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        lines.add("# input,output");
+        lines.add("missing.csv, missing.txt");
+        lines.add("");
+        lines.add("good.csv, good.txt");
+        Path manifest = dir.resolve("manifest.txt");
+        Files.write(manifest, lines, StandardCharsets.UTF_8);
+
+        List<BatchProcessor.Job> jobs = BatchProcessor.jobsFromManifest(manifest);
+        assertEquals(2, jobs.size(), "Comments and blank lines are skipped");
+        assertEquals(dir.resolve("good.txt").toAbsolutePath(), jobs.get(1).getOutput().toAbsolutePath(),
+                "Relative paths are resolved against the manifest");
+
+        BatchProcessor.Summary summary = new BatchProcessor(2, 1 << 20).run(jobs);
+        assertEquals(1, summary.getSucceeded());
+        assertEquals(1, summary.getFailures().size());
+        assertTrue(summary.getFailures().get(0).contains("missing.csv"), "The failure names its input");
+        assertTrue(Files.readString(dir.resolve("good.txt")).contains("2.0"), "The good file is still converted");
+    }
+
+    @Test
+    public void rejectsMalformedManifest() throws IOException {
+        Path manifest = Files.createTempFile("batch_manifest", ".txt");
+        manifest.toFile().deleteOnExit();
+        Files.writeString(manifest, "only-one-path.csv\n", StandardCharsets.UTF_8);
+        IOException e = assertThrows(IOException.class, () -> BatchProcessor.jobsFromManifest(manifest),
+                "A line without an output path should be rejected");
+        assertTrue(e.getMessage().contains("line 1"), "The error names the line");
+    }
+}
@@ -0,0 +1,138 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class CellStoreTest {
+
+    @Test
+    public void classifiesCellsOnWrite() {
+        CellStore store = new CellStore();
+        store.set(0, 0, "Label");
+        store.set(0, 1, "42");
+        store.set(0, 2, "2.5");
+        store.set(0, 3, "1.50");
+        store.set(0, 4, "");
+
+        assertEquals(CellStore.TEXT, store.kind(0, 0), "Label should be stored as text");
+        assertEquals(CellStore.INTEGER, store.kind(0, 1), "'42' should be stored as an integer");
+        assertEquals(CellStore.NUMBER, store.kind(0, 2), "'2.5' should be stored as a plain number");
+        assertEquals(CellStore.NUMBER_TEXT, store.kind(0, 3), "'1.50' should keep its original spelling");
+        assertEquals(CellStore.EMPTY, store.kind(0, 4), "Empty string should be stored as empty");
+
+        assertEquals(42.0, store.numericValue(0, 1), 0.0, "Numeric value of '42'");
+        assertEquals(1.5, store.numericValue(0, 3), 0.0, "Numeric value of '1.50'");
+        assertEquals(0.0, store.numericValue(0, 0), 0.0, "Text cells have a numeric value of 0");
+    }
+
+    @Test
+    public void getReturnsOriginalText() {
+        CellStore store = new CellStore();
+        String[] values = {"Values", "007", "-0", " 12 ", "1e3", "NaN", "-15", "3.0"};
+        for (int row = 0; row < values.length; row++) {
+            store.set(1, row, values[row]);
+        }
+        for (int row = 0; row < values.length; row++) {
+            assertEquals(values[row], store.get(1, row), "Row " + row + " should round-trip");
+        }
+        assertTrue(store.isNumeric(1, 3), "' 12 ' should still be numeric");
+        assertFalse(store.isNumeric(1, 0), "'Values' should not be numeric");
+    }
+
+    @Test
+    public void setNumberFormatsLikeDoubleToString() {
+        CellStore store = new CellStore();
+        store.setNumber(0, 0, 5.0);
+        assertEquals("5.0", store.get(0, 0), "Evaluated results render with Double.toString");
+        assertEquals(3, store.textLength(0, 0), "Length of '5.0'");
+    }
+
+    @Test
+    public void outOfBoundsCellsAreEmpty() {
+        CellStore store = new CellStore();
+        store.set(2, 3, "x");
+        assertEquals(3, store.columnCount(), "Writing column 2 creates columns 0..2");
+        assertEquals(4, store.maxRowCount(), "Writing row 3 gives four rows");
+        assertEquals("", store.get(0, 0), "Unwritten cells are empty");
+        assertEquals("", store.get(10, 10), "Cells outside the store are empty");
+        assertEquals("", store.get(-1, 0), "Negative coordinates are empty");
+    }
+
+    @Test
+    public void spansChunkBoundaries() {
+        CellStore store = new CellStore();
+        for (int row = 0; row < 5000; row++) {
+            store.set(0, row, (row % 2 == 0) ? Integer.toString(row) : "#hl");
+        }
+        assertEquals(5000, store.maxRowCount(), "All rows should be present");
+        assertEquals("4998", store.get(0, 4998), "Last even row");
+        assertEquals("#hl", store.get(0, 4999), "Last odd row");
+    }
+
+    @Test
+    public void markRulesFollowsRuleWidth() {
+        CellStore store = new CellStore();
+        store.set(0, 0, "#hl");
+        store.set(1, 0, "#hl");
+        store.set(1, 1, "Total:");
+
+        store.markRules("#hl");
+        store.setRuleWidth(3);
+
+        assertEquals(CellStore.RULE, store.kind(0, 0), "Marker becomes a rule");
+        assertEquals("---", store.get(0, 0), "First rule rendered");
+        assertEquals("---", store.get(1, 0), "Second rule rendered");
+        assertEquals("Total:", store.get(1, 1), "Other text untouched");
+        assertEquals(6, store.maxTextLength(), "Longest value is 'Total:', rules count as their marker");
+
+        store.setRuleWidth(6);
+        assertEquals("------", store.get(0, 0), "Rules follow the new width");
+    }
+
+    @Test
+    public void maxTextLengthFollowsOverwrites() {
+        CellStore store = new CellStore();
+        store.set(0, 0, "a much longer label than the others");
+        store.setInteger(0, 1, -1234);
+        store.setNumber(1, 0, 2.5);
+        assertEquals(35, store.maxTextLength(), "Longest value is the label");
+
+        store.set(0, 0, "short");
+        assertEquals(5, store.maxTextLength(), "Overwriting the longest cell shrinks the width");
+
+        store.setNumber(0, 0, 1.0 / 3);
+        assertEquals(18, store.maxTextLength(), "Length of Double.toString(1.0 / 3)");
+
+        store.set(0, 0, "");
+        assertEquals(5, store.maxTextLength(), "Next longest is '-1234'");
+    }
+
+    @Test
+    public void overwrittenTextsAreReleased() {
+        CellStore store = new CellStore();
+        String formula = "#(sum A1 A2 A3 A4 A5 A6 A7 A8 A9 A10)";
+        for (int row = 0; row < 100; row++) {
+            store.set(0, row, "label");
+            store.set(1, row, formula);
+        }
+        assertEquals(101, store.textCount(), "Short labels are shared, long texts are stored per cell");
+        assertEquals(store.textId(0, 0), store.textId(0, 99));
+
+        for (int row = 0; row < 100; row++) {
+            store.setNumber(1, row, row);
+        }
+        assertEquals(1, store.textCount(), "Formula texts go when their results replace them");
+
+        store.set(0, 5, "other");
+        assertEquals(2, store.textCount());
+        assertEquals("label", store.get(0, 4));
+        assertEquals("other", store.get(0, 5));
+        for (int row = 0; row < 100; row++) {
+            store.set(0, row, "");
+        }
+        assertEquals(0, store.textCount(), "The shared label goes with its last cell");
+    }
+}
@@ -0,0 +1,86 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+public class ConversionMetricsTest {
+
+    private static ConversionStats stats(long loadMicros, int depth) {
+        ConversionStats stats = new ConversionStats();
+        stats.addNanos(ConversionStats.Phase.LOAD, loadMicros * 1000);
+        stats.addCellsLoaded(10);
+        stats.addFormulasCompiled(3);
+        stats.addEvaluation(2, 1, depth);
+        stats.addBytesWritten(100);
+        return stats;
+    }
+
+    @Test
+    public void recordAccumulatesCounters() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        metrics.record(stats(5, 2));
+        metrics.record(stats(7, 4));
+
+        assertEquals(2, metrics.getConversions());
+        assertEquals(20, metrics.getCellsLoaded());
+        assertEquals(6, metrics.getFormulasCompiled());
+        assertEquals(4, metrics.getFormulasEvaluated());
+        assertEquals(2, metrics.getFormulasSkipped());
+        assertEquals(4, metrics.getMaxDepth(), "Depth is a maximum, not a sum");
+        assertEquals(200, metrics.getBytesWritten());
+        assertEquals(0.012, metrics.getPhaseMillis()[ConversionStats.Phase.LOAD.ordinal()], 1e-9);
+    }
+
+    @Test
+    public void histogramBucketsByPowerOfTwo() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        for (int i = 0; i < 99; i++) {
+            metrics.record(stats(3, 1)); // bucket 2: [2, 4) us
+        }
+        metrics.record(stats(1000, 1)); // bucket 10: [512, 1024) us
+
+        long[] histogram = metrics.getLatencyHistogram("load");
+        assertEquals(99, histogram[2]);
+        assertEquals(1, histogram[10]);
+        assertEquals(100, metrics.getLatencyHistogram("render")[0], "Phases that took no time land in bucket 0");
+
+        assertEquals(4, metrics.getLatencyPercentileMicros("load", 50));
+        assertEquals(4, metrics.getLatencyPercentileMicros("load", 99));
+        assertEquals(1024, metrics.getLatencyPercentileMicros("load", 100));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        ConversionMetrics metrics = new ConversionMetrics();
+        metrics.record(stats(5, 2));
+        metrics.reset();
+
+        assertEquals(0, metrics.getConversions());
+        assertEquals(0, metrics.getMaxDepth());
+        assertArrayEquals(new long[40], metrics.getLatencyHistogram("LOAD"));
+        assertEquals(0, metrics.getLatencyPercentileMicros("LOAD", 99));
+    }
+
+    @Test
+    public void globalInstanceIsPublishedOverJmx() throws Exception {
+        ConversionMetrics global = ConversionMetrics.global();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ConversionMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+
+        long before = (Long) server.getAttribute(name, "Conversions");
+        global.record(stats(5, 2));
+        assertTrue((Long) server.getAttribute(name, "Conversions") > before);
+        Object percentile = server.invoke(name, "getLatencyPercentileMicros",
+                new Object[] {"LOAD", 50.0}, new String[] {String.class.getName(), double.class.getName()});
+        assertTrue(percentile instanceof Long);
+    }
+}
@@ -0,0 +1,52 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class DiagnosticsTest {
+
+    @Test
+    public void countsEveryProblemButSamplesOnlyTheFirst() {
+        Diagnostics diagnostics = new Diagnostics();
+        for (int row = 0; row < 25; row++) {
+            diagnostics.record(Diagnostics.Category.BLACKLISTED_REFERENCE, CellKey.of(1, row));
+        }
+        diagnostics.record(Diagnostics.Category.INVALID_FORMULA, CellKey.of(2, 4));
+
+        Diagnostics.Report report = diagnostics.report();
+        assertEquals(25, report.getCount(Diagnostics.Category.BLACKLISTED_REFERENCE));
+        assertEquals(Diagnostics.SAMPLE_LIMIT, report.getSamples(Diagnostics.Category.BLACKLISTED_REFERENCE).size());
+        assertEquals(new Pair(1, 9), report.getSamples(Diagnostics.Category.BLACKLISTED_REFERENCE).get(9));
+        assertEquals(List.of(new Pair(2, 4)), report.getSamples(Diagnostics.Category.INVALID_FORMULA));
+        assertEquals(0, report.getCount(Diagnostics.Category.CYCLE_MEMBER));
+        assertEquals(26, report.getTotal());
+    }
+
+    @Test
+    public void reportIsASnapshot() {
+        Diagnostics diagnostics = new Diagnostics();
+        assertTrue(diagnostics.isEmpty());
+        diagnostics.record(Diagnostics.Category.CYCLE_MEMBER, CellKey.of(0, 0));
+        Diagnostics.Report report = diagnostics.report();
+        diagnostics.record(Diagnostics.Category.CYCLE_MEMBER, CellKey.of(0, 1));
+
+        assertEquals(1, report.getCount(Diagnostics.Category.CYCLE_MEMBER));
+        assertEquals(2, diagnostics.report().getCount(Diagnostics.Category.CYCLE_MEMBER));
+    }
+
+    @Test
+    public void summaryIsOneLine() {
+        Diagnostics diagnostics = new Diagnostics();
+        diagnostics.recordCycle();
+        diagnostics.record(Diagnostics.Category.CYCLE_MEMBER, CellKey.of(0, 3));
+        diagnostics.record(Diagnostics.Category.CYCLE_MEMBER, CellKey.of(2, 3));
+        diagnostics.record(Diagnostics.Category.BLACKLISTED_REFERENCE, CellKey.of(2, 6));
+
+        assertEquals("Skipping evaluation of 3 formulas: 2 on cycles (1 cycles) e.g. [A4, C4], "
+                + "1 reading blacklisted cells e.g. [C7], 0 invalid", diagnostics.report().toString());
+    }
+}
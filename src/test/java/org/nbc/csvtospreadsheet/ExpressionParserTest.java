@@ -21,6 +21,10 @@ public class ExpressionParserTest {
     public void isExpressionWithInvalidExpression() {
         assertFalse(ExpressionParser.isExpression("#(sum )"), "Expression with missing cell refs should be invalid");
         assertFalse(ExpressionParser.isExpression("#(sumA1)"), "Expression with incorrect format should be invalid");
+        assertFalse(ExpressionParser.isExpression("#(sum A1B2)"), "References must be separated by whitespace");
+        assertFalse(ExpressionParser.isExpression("#(sum A1) "), "Nothing may follow the closing parenthesis");
+        assertFalse(ExpressionParser.isExpression("#(sum A)"), "References need a row number");
+        assertFalse(ExpressionParser.isExpression("12.5"), "Numbers are not expressions");
     }
 
     @Test
@@ -79,4 +83,75 @@ public class ExpressionParserTest {
         ExpressionInfo info = ExpressionParser.parseExpression("#(sumA1)");
         assertNull(info, "Parsing should fail for an expression with incorrect format");
     }
+
+    @Test
+    public void compileResolvesCoordinates() {
+        CompiledExpression compiled = ExpressionParser.compile("#(prod A3 B10)");
+        assertNotNull(compiled, "Compiling should succeed for a valid expression");
+        assertTrue(compiled.isValid(), "PROD is supported");
+        assertEquals(SupportedOperations.PROD, compiled.getOperation(), "Operation should be PROD");
+        assertEquals(2, compiled.size(), "Two references expected");
+        assertEquals(0, compiled.col(0), "A3 is column 0");
+        assertEquals(2, compiled.row(0), "A3 is row 2");
+        assertEquals(1, compiled.col(1), "B10 is column 1");
+        assertEquals(9, compiled.row(1), "B10 is row 9");
+        assertEquals("#(prod A3 B10)", compiled.getSource(), "Source text is kept");
+    }
+
+    @Test
+    public void compileDistinguishesInvalidFromNonExpressions() {
+        assertNull(ExpressionParser.compile("Total:"), "Plain text is not an expression");
+        CompiledExpression unsupported = ExpressionParser.compile("#(multiply A1 A2)");
+        assertNotNull(unsupported, "Unsupported operations are still expressions");
+        assertFalse(unsupported.isValid(), "Unsupported operations cannot be evaluated");
+    }
+
+    @Test
+    public void compileMultiLetterColumns() {
+        CompiledExpression compiled = ExpressionParser.compile("#(sum AA12 XFD1 ab3)");
+        assertNotNull(compiled, "Multi-letter columns should be accepted");
+        assertEquals(3, compiled.size(), "Three references expected");
+        assertEquals(26, compiled.col(0), "AA is column 26");
+        assertEquals(11, compiled.row(0), "AA12 is row 11");
+        assertEquals(16383, compiled.col(1), "XFD is column 16383");
+        assertEquals(27, compiled.col(2), "Lower-case ab is column 27");
+    }
+
+    @Test
+    public void compileExpandsSmallRanges() {
+        CompiledExpression compiled = ExpressionParser.compile("#(sum B2:A1 C5)");
+        assertNotNull(compiled, "Ranges should be accepted");
+        assertEquals(0, compiled.rangeCount(), "Small ranges are expanded");
+        assertEquals(5, compiled.size(), "Four cells of the range and C5");
+        assertEquals(List.of(new Pair(0, 0), new Pair(1, 0), new Pair(0, 1), new Pair(1, 1), new Pair(2, 4)),
+                compiled.toExpressionInfo().getCellRefs(), "Expanded row by row from the top-left corner");
+        assertFalse(ExpressionParser.isExpression("#(sum A1:)"), "A range needs two corners");
+        assertFalse(ExpressionParser.isExpression("#(sum A1: B2)"), "No space inside a range");
+    }
+
+    @Test
+    public void compileKeepsLargeRanges() {
+        CompiledExpression compiled = ExpressionParser.compile("#(sum A1:A100000 C3 c500:a1)");
+        assertNotNull(compiled, "Large ranges should be accepted");
+        assertEquals(1, compiled.size(), "Only C3 is a single reference");
+        assertEquals(2, compiled.rangeCount(), "Both ranges are kept whole");
+        assertEquals(99999, compiled.rangeLastRow(0), "A100000 is row 99999");
+        assertEquals(0, compiled.rangeFirstCol(1), "Corners are normalised");
+        assertEquals(2, compiled.rangeLastCol(1), "Corners are normalised");
+
+        ExpressionInfo info = compiled.toExpressionInfo();
+        assertEquals(List.of(new CellRange(0, 0, 0, 99999), new CellRange(0, 0, 2, 499)), info.getRanges());
+        assertEquals("A1:C500", info.getRanges().get(1).toString());
+        assertEquals(ExpressionParser.compile("#(sum A1:A100000 C3 A1:C500)").toExpressionInfo(), info,
+                "Equal ranges make equal expressions");
+    }
+
+    @Test
+    public void compileRejectsRowZero() {
+        for (String expression : new String[] {"#(sum A0)", "#(sum A0:A10)", "#(sum A0:A100)", "#(sum A100:A0)"}) {
+            CompiledExpression compiled = ExpressionParser.compile(expression);
+            assertNotNull(compiled, expression + " is still an expression");
+            assertFalse(compiled.isValid(), expression + ": rows are numbered from 1");
+        }
+    }
 }
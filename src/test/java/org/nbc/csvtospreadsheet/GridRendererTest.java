@@ -0,0 +1,63 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class GridRendererTest {
+
+    @Test
+    public void matchesAlignHelpers() throws IOException {
+        CellStore grid = new CellStore();
+        String[] values = {"Label", "42", "-7", "1.50", "", "héllo", "#hl", "3.0", "Long text here"};
+        for (int i = 0; i < values.length; i++) {
+            grid.set(i % 3, i / 3, values[i]);
+        }
+        grid.setNumber(1, 3, 1.0 / 3);
+        grid.setNumber(2, 3, -0.0);
+        grid.setNumber(0, 4, 9_999_999.0);
+        grid.setNumber(1, 4, 1e7);
+        grid.setNumber(2, 4, -12.0);
+        grid.markRules("#hl");
+        int width = grid.maxTextLength();
+        grid.setRuleWidth(width);
+
+        StringBuilder expected = new StringBuilder();
+        for (int row = 0; row < grid.maxRowCount(); row++) {
+            for (int col = 0; col < grid.columnCount(); col++) {
+                String value = grid.get(col, row);
+                expected.append('|').append(grid.isNumeric(col, row)
+                        ? SpreadSheetUtils.rightAlign(value, width)
+                        : SpreadSheetUtils.leftAlign(value, width));
+            }
+            expected.append('|').append(System.lineSeparator());
+        }
+
+        assertEquals(expected.toString(), render(grid, width), "Renderer should match the align helpers");
+    }
+
+    @Test
+    public void flushesRowsLargerThanTheBuffer() throws IOException {
+        CellStore grid = new CellStore();
+        String text = "x".repeat(3 << 20);
+        grid.set(0, 0, text);
+        grid.setInteger(1, 0, 5);
+
+        String output = render(grid, text.length());
+        assertEquals("|" + text + "|" + " ".repeat(text.length() - 1) + "5|" + System.lineSeparator(), output,
+                "Cells wider than the buffer are written in pieces");
+    }
+
+    private static String render(CellStore grid, int width) throws IOException {
+        Charset charset = StandardCharsets.UTF_8;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GridRenderer(grid, charset).render(Channels.newChannel(out), width);
+        return out.toString(charset);
+    }
+}
@@ -0,0 +1,72 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            long key = CellKey.of(random.nextInt(40), random.nextInt(400));
+            if (random.nextInt(3) == 0) {
+                Integer previous = expected.remove(key);
+                assertEquals((previous == null) ? -1 : previous, map.remove(key, -1), "Removed value of " + key);
+            } else {
+                Integer previous = expected.put(key, i);
+                assertEquals((previous == null) ? -1 : previous, map.put(key, i, -1), "Previous value of " + key);
+            }
+        }
+        assertEquals(expected.size(), map.size(), "Size after random operations");
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey(), -1), "Value of " + entry.getKey());
+        }
+        int used = 0;
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isUsed(slot)) {
+                used++;
+                assertEquals(expected.get(map.keyAt(slot)), map.valueAt(slot), "Slot " + slot);
+            }
+        }
+        assertEquals(expected.size(), used, "Every entry is in exactly one slot");
+    }
+
+    @Test
+    public void cellKeysRoundTrip() {
+        long key = CellKey.of(16383, 1_048_575);
+        assertEquals(16383, CellKey.col(key), "Column");
+        assertEquals(1_048_575, CellKey.row(key), "Row");
+        assertEquals(new Pair(-1, 5), CellKey.toPair(CellKey.of(-1, 5)), "Negative columns survive packing");
+    }
+
+    @Test
+    public void cellSetWorksAsSetOfPairs() {
+        CellSet set = new CellSet();
+        assertTrue(set.add(new Pair(1, 2)), "New cell");
+        assertFalse(set.add(CellKey.of(1, 2)), "Same cell as a packed key");
+        set.add(new Pair(3, 4));
+        set.add(new Pair(5, 6));
+
+        assertTrue(set.contains(new Pair(3, 4)), "Contains a Pair");
+        assertEquals(Set.of(new Pair(1, 2), new Pair(3, 4), new Pair(5, 6)), set, "Equal to a HashSet of Pairs");
+
+        for (Iterator<Pair> it = set.iterator(); it.hasNext(); ) {
+            if (it.next().getX() != 3) {
+                it.remove();
+            }
+        }
+        assertEquals(Set.of(new Pair(3, 4)), set, "Removal through the iterator");
+    }
+}
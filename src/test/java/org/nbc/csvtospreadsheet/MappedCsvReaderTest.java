@@ -0,0 +1,105 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class MappedCsvReaderTest {
+
+    @Test
+    public void matchesScannerLoaderOnTestCsv() throws IOException {
+        SpreadSheet scanned = new SpreadSheet();
+        scanned.loadCsv("test.csv");
+        SpreadSheet mapped = new SpreadSheet();
+        mapped.loadCsvMapped("test.csv");
+
+        assertEquals(scanned.getCachedExpressions(), mapped.getCachedExpressions(),
+                "Both loaders should cache the same expressions");
+        assertEquals(render(scanned), render(mapped), "Both loaders should produce the same grid");
+    }
+
+    @Test
+    public void followsSplitRulesForUnquotedFields() throws IOException {
+        Path csv = write("a, b ,,\r\n,,\n\nlast,42,-7,007");
+        SpreadSheet scanned = new SpreadSheet();
+        scanned.loadCsv(csv.toString());
+        SpreadSheet mapped = new SpreadSheet();
+        mapped.loadCsvMapped(csv.toString());
+
+        assertEquals(render(scanned), render(mapped), "Trailing empty fields and blank lines should match split()");
+        assertEquals("b", mapped.getCellValue(new Pair(1, 0)), "Fields are trimmed");
+        assertEquals("007", mapped.getCellValue(new Pair(3, 3)), "Leading zeros are kept");
+    }
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        Path csv = write("\"a,b\",\"say \"\"hi\"\"\"\n\"multi\nline\",x\n");
+        List<String> cells = new ArrayList<>();
+        int rows = MappedCsvReader.read(csv, sink(cells));
+
+        assertEquals(2, rows, "The embedded line break must not start a new record");
+        assertEquals(List.of("0,0=a,b", "1,0=say \"hi\"", "0,1=multi\nline", "1,1=x"), cells);
+    }
+
+    @Test
+    public void remapsWhenRecordsCrossWindows() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < 200; row++) {
+            sb.append("label").append(row).append(',').append(row).append(",\"q,").append(row).append("\"\n");
+        }
+        Path csv = write(sb.toString());
+
+        List<String> cells = new ArrayList<>();
+        int rows = MappedCsvReader.read(csv, new CsvParser(sink(cells)), 64);
+
+        assertEquals(200, rows, "All records should be read across 64-byte windows");
+        assertEquals("2,199=q,199", cells.get(cells.size() - 1), "Last quoted field");
+        assertEquals("1,150=150", cells.get(150 * 3 + 1), "Integers are read without decoding");
+    }
+
+    @Test
+    public void rejectsRecordsLargerThanWindow() throws IOException {
+        Path csv = write("this line is longer than the window\nx\n");
+        assertThrows(IOException.class,
+                () -> MappedCsvReader.read(csv, new CsvParser(sink(new ArrayList<>())), 8),
+                "A record that does not fit a window cannot be mapped");
+    }
+
+    private static CsvParser.CellSink sink(List<String> cells) {
+        return new CsvParser.CellSink() {
+            @Override
+            public void text(int col, int row, String value) {
+                cells.add(col + "," + row + "=" + value);
+            }
+
+            @Override
+            public void integer(int col, int row, long value) {
+                cells.add(col + "," + row + "=" + value);
+            }
+        };
+    }
+
+    private static Path write(String content) throws IOException {
+        File file = File.createTempFile("mapped_csv_test", ".csv");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+        return file.toPath();
+    }
+
+    private static String render(SpreadSheet sheet) throws IOException {
+        File out = File.createTempFile("mapped_csv_out", ".txt");
+        out.deleteOnExit();
+        sheet.evaluateAllExpressions();
+        sheet.printGridToFile(out.getAbsolutePath());
+        return Files.readString(out.toPath(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+public class OffHeapCellStorageTest {
+
+    @Test
+    public void stringTableInternsAndDecodes() {
+        OffHeapStringTable table = new OffHeapStringTable();
+        try {
+            String[] texts = {"Label", "", "héllo wörld", "#hl", "x".repeat(3 << 20), "日本"};
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < texts.length; i++) {
+                    assertEquals(i, table.intern(texts[i]), "Interning is stable: " + i);
+                }
+            }
+            for (int i = 0; i < 5000; i++) {
+                table.intern("text" + i);
+            }
+            assertEquals(texts.length + 5000, table.size(), "Distinct texts");
+            for (int i = 0; i < texts.length; i++) {
+                assertEquals(texts[i], table.get(i), "Round trip of text " + i);
+                assertEquals(texts[i].length(), table.length(i), "Length of text " + i);
+            }
+            assertEquals(texts.length + 4999, table.find("text4999"), "Found after rehashing");
+            assertEquals(-1, table.find("missing"), "Unknown text");
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    public void stringTableReleasesTexts() {
+        OffHeapStringTable table = new OffHeapStringTable();
+        try {
+            String big = "y".repeat(1 << 19);
+            int[] bigIds = new int[8];
+            for (int i = 0; i < bigIds.length; i++) {
+                bigIds[i] = table.add(big + i);
+            }
+            int shared = table.intern("shared");
+            assertEquals(shared, table.intern("shared"), "Interned twice, two references");
+            for (int i = 0; i < 2000; i++) {
+                table.intern("text" + i);
+            }
+            for (int i = 0; i < 2000; i += 2) {
+                table.release(table.find("text" + i));
+            }
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(i % 2 == 0, table.find("text" + i) < 0, "Released texts leave the hash table: " + i);
+            }
+
+            table.release(shared);
+            assertEquals("shared", table.get(table.find("shared")), "One reference is left");
+            table.release(shared);
+            assertEquals(-1, table.find("shared"));
+
+            for (int i = 0; i < bigIds.length - 1; i++) {
+                table.release(bigIds[i]); // leaves more dead than live bytes, so the slabs are compacted
+            }
+            String last = big + (bigIds.length - 1);
+            assertEquals(last, table.get(bigIds[bigIds.length - 1]), "Moved by compaction");
+            assertEquals("text1999", table.get(table.find("text1999")));
+            assertEquals(1001, table.size());
+
+            int reused = table.add("new");
+            assertTrue(reused < 2009, "Ids of removed texts are handed out again");
+            assertEquals("new", table.get(reused));
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    public void offHeapSheetMatchesHeapSheet() throws IOException {
+        StringBuilder csv = new StringBuilder("Name,Value,Double\n#hl,#hl,#hl\n");
+        for (int row = 3; row < 4000; row++) {
+            csv.append("item").append(row % 50).append(',').append(row).append(",#(sum B").append(row)
+                    .append(" B").append(row).append(")\n");
+        }
+        File input = File.createTempFile("offheap_test", ".csv");
+        input.deleteOnExit();
+        Files.writeString(input.toPath(), csv);
+
+        SpreadSheet heap = new SpreadSheet();
+        heap.loadCsvMapped(input.getAbsolutePath());
+        heap.evaluateAllExpressions();
+        File heapOut = File.createTempFile("offheap_heap", ".txt");
+        heapOut.deleteOnExit();
+        heap.printGridToFile(heapOut.getAbsolutePath());
+
+        File offHeapOut = File.createTempFile("offheap_direct", ".txt");
+        offHeapOut.deleteOnExit();
+        try (SpreadSheet offHeap = SpreadSheet.offHeap()) {
+            offHeap.loadCsvMapped(input.getAbsolutePath());
+            offHeap.evaluateAllExpressions();
+            offHeap.printGridToFile(offHeapOut.getAbsolutePath());
+            assertEquals("7998.0", offHeap.getCellValue(new Pair(2, 3998)), "Last formula");
+        }
+
+        assertTrue(Files.size(heapOut.toPath()) > 0, "Heap output written");
+        assertEquals(Files.readString(heapOut.toPath()), Files.readString(offHeapOut.toPath()),
+                "Off-heap output should match");
+    }
+}
@@ -0,0 +1,100 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class OperationRegistryTest {
+
+    @Test
+    public void findsBuiltInsInAnyCase() {
+        assertSame(SupportedOperations.SUM, OperationRegistry.lookup("sum"));
+        assertSame(SupportedOperations.AVG, OperationRegistry.lookup("Avg"));
+        assertSame(SupportedOperations.COUNT, OperationRegistry.lookup("#(count A1)", 2, 7));
+        assertNull(OperationRegistry.lookup("median"));
+        assertNull(OperationRegistry.lookup("su"));
+        assertNull(OperationRegistry.lookup("s[m"), "Only letters fold case");
+    }
+
+    @Test
+    public void registersUserOperations() {
+        // Sum of squares; registered operations skip empty and text cells
+        Operation squares = OperationRegistry.register("sumsq", () -> new Accumulator() {
+            private double total;
+
+            @Override
+            public void add(double value) {
+                total += value * value;
+            }
+
+            @Override
+            public double result() {
+                return total;
+            }
+        });
+        assertSame(squares, OperationRegistry.lookup("SUMSQ"));
+        for (int i = 0; i < 40; i++) {
+            // Growing the table keeps every operation reachable
+            OperationRegistry.register("extra" + (char) ('a' + i / 26) + (char) ('a' + i % 26), () -> null);
+        }
+        assertSame(squares, OperationRegistry.lookup("sumSq"));
+        assertSame(SupportedOperations.PROD, OperationRegistry.lookup("PROD"));
+
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.setCellValue(new Pair(0, 0), "3");
+        sheet.setCellValue(new Pair(0, 1), "text");
+        sheet.setCellValue(new Pair(0, 2), "4");
+        Pair cell = new Pair(1, 0);
+        sheet.setCellValue(cell, "#(sumsq A1 A2 A3)");
+        sheet.getCachedExpressions().put(cell, "#(sumsq A1 A2 A3)");
+        sheet.evaluateAllExpressions();
+        assertEquals("25.0", sheet.getCellValue(cell));
+    }
+
+    @Test
+    public void rejectsBadNames() {
+        assertThrows(IllegalArgumentException.class, () -> OperationRegistry.register(SupportedOperations.SUM));
+        assertThrows(IllegalArgumentException.class, () -> OperationRegistry.register("Sum", () -> null));
+        assertThrows(IllegalArgumentException.class, () -> OperationRegistry.register("sum2", () -> null));
+        assertThrows(IllegalArgumentException.class, () -> OperationRegistry.register("", () -> null));
+    }
+
+    @Test
+    public void builtInsAddManyZerosAsIfOneByOne() {
+        double[] values = {0.1, 1e16, -3.5, 7.25};
+        for (SupportedOperations operation : SupportedOperations.values()) {
+            Accumulator oneByOne = operation.newAccumulator();
+            Accumulator atOnce = operation.newAccumulator();
+            for (double value : values) {
+                oneByOne.add(value);
+                atOnce.add(value);
+            }
+            for (int i = 0; i < 1000; i++) {
+                oneByOne.add(0.0);
+            }
+            atOnce.addZeros(1000);
+            assertEquals(oneByOne.result(), atOnce.result(), operation.name());
+        }
+    }
+
+    @Test
+    public void registrationsOnOneThreadAreSeenOnOthers() throws Exception {
+        Thread reader = new Thread(() -> {
+            // Spins on lookups while the table is being resized; each must see a whole table
+            while (OperationRegistry.lookup("lateop") == null) {
+                assertSame(SupportedOperations.SUM, OperationRegistry.lookup("sum"));
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 100; i++) {
+            OperationRegistry.register("growth" + (char) ('a' + i / 26) + (char) ('a' + i % 26), () -> null);
+        }
+        OperationRegistry.register("lateop", () -> null);
+        reader.join(10_000);
+        assertFalse(reader.isAlive(), "The reader saw the registration");
+    }
+}
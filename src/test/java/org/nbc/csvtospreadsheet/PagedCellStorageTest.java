@@ -0,0 +1,83 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class PagedCellStorageTest {
+
+    @Test
+    public void evictedBlocksAreReloaded() throws IOException {
+        try (PagedCellStorage storage = new PagedCellStorage(null, 2)) {
+            for (int b = 0; b < 10; b++) {
+                CellBlock block = storage.write(b % 2, b);
+                block.setTag(7, CellStore.NUMBER);
+                block.setNumber(7, b + 0.5);
+                block.setNumberLength(7, 3);
+                block.setTextId(8, b);
+            }
+            assertTrue(storage.pageWrites() >= 8, "Only two blocks fit the cache");
+
+            for (int b = 0; b < 10; b++) {
+                CellBlock block = storage.read(b % 2, b);
+                assertEquals(CellStore.NUMBER, block.tag(7), "Tag of block " + b);
+                assertEquals(b + 0.5, block.number(7), 0.0, "Number of block " + b);
+                assertEquals(3, block.numberLength(7), "Number length of block " + b);
+                assertEquals(b, block.textId(8), "Text id of block " + b);
+            }
+            assertTrue(storage.pageReads() > 0, "Blocks were read back from the file");
+            assertNull(storage.read(5, 0), "Blocks that were never written do not exist");
+        }
+    }
+
+    @Test
+    public void cellStoreWorksOnPagedStorage() throws IOException {
+        try (CellStore store = new CellStore(new PagedCellStorage(null, 1))) {
+            for (int row = 0; row < 5000; row++) {
+                store.set(row % 3, row, (row % 5 == 0) ? "#hl" : Integer.toString(row));
+            }
+            store.markRules("#hl");
+            store.setRuleWidth(4);
+
+            assertEquals("4999", store.get(4999 % 3, 4999), "Last integer");
+            assertEquals("----", store.get(0, 0), "Rules survive eviction");
+            assertEquals(4, store.maxTextLength(), "Width is tracked across pages");
+        }
+    }
+
+    @Test
+    public void textLargerThanTheHeapIsPaged() throws Exception {
+        // 600,000 texts of about 90 characters do not fit a 32 MiB heap
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-Xmx32m", "-cp", System.getProperty("java.class.path"),
+                PagedCellStorageTest.class.getName(), "600000").redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor(), output);
+    }
+
+    /** Fills a paged store with {@code args[0]} rows of distinct texts and reads some back; run by the test above. */
+    public static void main(String[] args) throws IOException {
+        int rows = Integer.parseInt(args[0]);
+        try (CellStore store = new CellStore(new PagedCellStorage(null, 64))) {
+            for (int row = 0; row < rows; row++) {
+                store.set(0, row, text(row));
+                store.set(1, row, Integer.toString(row));
+            }
+            for (int row = 0; row < rows; row += 997) {
+                if (!store.get(0, row).equals(text(row))) {
+                    throw new IllegalStateException("Row " + row + " reads " + store.get(0, row));
+                }
+            }
+        }
+    }
+
+    private static String text(int row) {
+        return "distinct text of row " + row + " " + "x".repeat(60);
+    }
+}
@@ -2,6 +2,8 @@ package org.nbc.csvtospreadsheet;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Objects;
+
 import org.junit.jupiter.api.Test;
 
 public class PairTest {
@@ -28,6 +30,7 @@ public class PairTest {
         Pair p2 = new Pair(1, 1, "B2");
         assertEquals(p1, p2, "Pairs with the same coordinates should be equal");
         assertEquals(p1.hashCode(), p2.hashCode(), "Pairs with the same coordinates should have the same hashCode");
+        assertEquals(Objects.hash(1, 1), p1.hashCode(), "hashCode keeps the value of Objects.hash");
 
         Pair p3 = new Pair(2, 2, "C3");
         assertNotEquals(p1, p3, "Pairs with different coordinates should not be equal");
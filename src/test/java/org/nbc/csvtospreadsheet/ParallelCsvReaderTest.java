@@ -0,0 +1,90 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class ParallelCsvReaderTest {
+
+    @Test
+    public void matchesSequentialReaderOnAwkwardInput() throws IOException {
+        String[] fields = {
+                "42", "label", "#(sum A1 B2)", "\"quoted, with comma\"", "\"multi\nline\"",
+                "\"esc \"\" quote\"", "mid\"quote", "", " padded ", "\"\"", "-7", "1.50", "#hl",
+        };
+        String[] breaks = {"\n", "\r\n", "\r"};
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < 2000; row++) {
+            int count = random.nextInt(6);
+            for (int col = 0; col < count; col++) {
+                if (col > 0) {
+                    sb.append(',');
+                }
+                sb.append(fields[random.nextInt(fields.length)]);
+            }
+            sb.append(breaks[random.nextInt(breaks.length)]);
+        }
+        Path csv = write(sb.toString());
+
+        List<String> expected = new ArrayList<>();
+        int expectedRows = MappedCsvReader.read(csv, sink(expected));
+
+        for (int chunks : new int[] {2, 7, 64, 997}) {
+            List<String> actual = new ArrayList<>();
+            int rows = ParallelCsvReader.read(csv, 4, chunks, 0, sink(actual));
+            assertEquals(expectedRows, rows, "Row count with " + chunks + " chunks");
+            assertEquals(expected, actual, "Cells with " + chunks + " chunks");
+        }
+    }
+
+    @Test
+    public void loadCsvParallelMatchesMappedGrid() throws IOException {
+        StringBuilder sb = new StringBuilder("Values,Factor\n#hl,#hl\n");
+        for (int row = 3; row < 5000; row++) {
+            sb.append(row).append(',').append(row % 7).append(",#(prod A").append(row)
+                    .append(" B").append(row).append(")\n");
+        }
+        Path csv = write(sb.toString());
+
+        SpreadSheet mapped = new SpreadSheet();
+        mapped.loadCsvMapped(csv.toString());
+        SpreadSheet parallel = new SpreadSheet();
+        parallel.loadCsvParallel(csv.toString(), 4);
+
+        assertEquals(mapped.getCachedExpressions(), parallel.getCachedExpressions(),
+                "Both loaders should cache the same expressions");
+        assertEquals(mapped.getCellValue(new Pair(2, 4998)), parallel.getCellValue(new Pair(2, 4998)),
+                "Last expression cell");
+    }
+
+    private static CsvParser.CellSink sink(List<String> cells) {
+        return new CsvParser.CellSink() {
+            @Override
+            public void text(int col, int row, String value) {
+                cells.add(col + "," + row + "=" + value);
+            }
+
+            @Override
+            public void integer(int col, int row, long value) {
+                cells.add(col + "," + row + "=" + value);
+            }
+        };
+    }
+
+    private static Path write(String content) throws IOException {
+        File file = File.createTempFile("parallel_csv_test", ".csv");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+        return file.toPath();
+    }
+}
@@ -0,0 +1,114 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+public class ResultCacheTest {
+
+    @Test
+    public void servesRepeatedInputFromCache() throws IOException {
+        byte[] csv = Files.readAllBytes(Path.of("test.csv"));
+        ResultCache cache = new ResultCache(1 << 20);
+
+        byte[] first = cache.convert(csv, Charset.defaultCharset());
+        byte[] second = cache.convert(csv.clone(), Charset.defaultCharset());
+
+        assertArrayEquals(renderFile("test.csv"), first, "Cached output should match the file output");
+        assertArrayEquals(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertNotEquals(ResultCache.key(csv, StandardCharsets.UTF_8), ResultCache.key(csv, StandardCharsets.UTF_16),
+                "The output charset is part of the key");
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverCap() {
+        ResultCache cache = new ResultCache(100);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        cache.get("a");                 // b is now the least recently used
+        cache.put("c", new byte[40]);
+
+        assertNull(cache.get("b"), "b should have been evicted");
+        assertEquals(40, cache.get("a").length);
+        assertEquals(40, cache.get("c").length);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(80, cache.getMemoryBytes());
+
+        cache.put("huge", new byte[1000]);
+        assertNull(cache.get("huge"), "Entries larger than the cap are not kept");
+    }
+
+    @Test
+    public void diskTierSurvivesRestartAndHonoursCap() throws IOException {
+        Path dir = Files.createTempDirectory("result_cache");
+        ResultCache cache = new ResultCache(0, dir, 100);
+        cache.put("a", "first".getBytes(StandardCharsets.UTF_8));
+        cache.put("b", new byte[60]);
+        cache.put("c", new byte[60]);   // pushes a and b out of the 100-byte disk tier
+
+        ResultCache reopened = new ResultCache(1 << 20, dir, 100);
+        assertNull(reopened.get("a"));
+        assertNull(reopened.get("b"));
+        assertEquals(60, reopened.get("c").length, "Entries on disk are found after a restart");
+        assertEquals(60, reopened.getMemoryBytes(), "Disk hits are promoted into memory");
+        assertEquals(1, reopened.getHits());
+    }
+
+    @Test
+    public void concurrentDiskWritesKeepTheTierConsistent() throws Exception {
+        Path dir = Files.createTempDirectory("result_cache");
+        ResultCache cache = new ResultCache(0, dir, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            tasks.add(executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    String key = "k" + ((i * 7 + thread) % 40);
+                    cache.put(key, new byte[100]);
+                    cache.get(key);
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+
+        assertTrue(cache.getDiskBytes() <= 1000, "The disk tier stays under its cap");
+        ResultCache reopened = new ResultCache(0, dir, 1000);
+        assertTrue(reopened.getDiskBytes() <= 1000);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.filter(path -> path.toString().endsWith(".tmp")).count(), "No temporary files are left");
+        }
+    }
+
+    private static byte[] renderFile(String path) throws IOException {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsvMapped(path);
+        sheet.evaluateAllExpressions();
+        File out = File.createTempFile("cache_expected", ".txt");
+        out.deleteOnExit();
+        sheet.printGridToFile(out.getAbsolutePath());
+        return Files.readAllBytes(out.toPath());
+    }
+}
@@ -3,13 +3,20 @@ package org.nbc.csvtospreadsheet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.jupiter.api.Test;
 
@@ -41,6 +48,10 @@ public class SpreadSheetTest {
         Pair p3 = SpreadSheet.convertCellReference("Z1");
         assertEquals(25, p3.getX(), "Z1 should map to column 25");
         assertEquals(0, p3.getY(), "Z1 should map to row 0");
+
+        Pair p4 = SpreadSheet.convertCellReference("AA12");
+        assertEquals(26, p4.getX(), "AA12 should map to column 26");
+        assertEquals(11, p4.getY(), "AA12 should map to row 11");
     }
 
     @Test
@@ -64,6 +75,29 @@ public class SpreadSheetTest {
         assertEquals("#hl", cellB2, "Expected '#hl' but got '" + cellB2 + "'");
     }
 
+    @Test
+    public void statsCoverEveryPhase() throws IOException {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsv("test.csv");
+        sheet.evaluateAllExpressions();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sheet.printGrid(out, StandardCharsets.UTF_8);
+
+        ConversionStats stats = sheet.getStats();
+        assertEquals(23, stats.getCellsLoaded(), "Every field, empty ones included");
+        assertEquals(7, stats.getFormulasCompiled());
+        assertEquals(3, stats.getFormulasEvaluated(), "C3, C5 and B8");
+        assertEquals(4, stats.getFormulasSkipped(), "A4 and C4 form a cycle; C7 and B9 read it");
+        assertEquals(0, stats.getMaxDepth(), "No evaluated formula reads another formula");
+        assertEquals(1, stats.getCyclesFound(), "A4 and C4");
+        assertEquals(out.size(), stats.getBytesWritten());
+        for (ConversionStats.Phase phase : ConversionStats.Phase.values()) {
+            assertTrue(stats.getNanos(phase) >= 0);
+        }
+        assertTrue(stats.getNanos(ConversionStats.Phase.LOAD) > 0);
+        assertTrue(stats.getNanos(ConversionStats.Phase.RENDER) > 0);
+    }
+
     @Test
     public void evaluateExpressionsWithNoCircularReferences() {
         SpreadSheet sheet = new SpreadSheet();
@@ -97,6 +131,554 @@ public class SpreadSheetTest {
         assertTrue(isA1Blacklisted && isA2Blacklisted, "Expected A1 & A2 to be blacklisted due to circular ref.");
     }
 
+    @Test
+    public void eachCycleIsReportedOnce() {
+        SpreadSheet sheet = new SpreadSheet();
+        putFormula(sheet, new Pair(0, 0), "#(sum A2)"); // A1 <-> A2
+        putFormula(sheet, new Pair(0, 1), "#(sum A1)");
+        putFormula(sheet, new Pair(1, 0), "#(sum B1)"); // B1 reads itself
+        putFormula(sheet, new Pair(2, 0), "#(sum A1 B1)"); // C1 only reads the cycles
+        putFormula(sheet, new Pair(3, 2), "#(sum E1)"); // D3 -> E1 -> D2 -> D3
+        putFormula(sheet, new Pair(4, 0), "#(sum D2)");
+        putFormula(sheet, new Pair(3, 1), "#(sum D3)");
+
+        sheet.evaluateAllExpressions();
+
+        List<List<Pair>> cycles = sheet.getCycles();
+        assertEquals(List.of(
+                List.of(new Pair(0, 0), new Pair(0, 1)),
+                List.of(new Pair(1, 0)),
+                List.of(new Pair(3, 1), new Pair(3, 2), new Pair(4, 0))), cycles);
+        assertTrue(sheet.getBlacklistedPairs().contains(new Pair(2, 0)), "Dependents of a cycle are blacklisted");
+        assertEquals(3, sheet.getStats().getCyclesFound());
+        assertEquals(7, sheet.getStats().getFormulasSkipped());
+    }
+
+    @Test
+    public void diagnosticsCountSkippedFormulasByCause() throws IOException {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsv("test.csv");
+        putFormula(sheet, new Pair(3, 0), "#(median A3 B3)"); // D1: unknown operation
+        sheet.evaluateAllExpressions();
+
+        Diagnostics.Report report = sheet.getDiagnostics();
+        assertEquals(2, report.getCount(Diagnostics.Category.CYCLE_MEMBER));
+        assertEquals(List.of(new Pair(0, 3), new Pair(2, 3)), report.getSamples(Diagnostics.Category.CYCLE_MEMBER));
+        assertEquals(1, report.getCycles());
+        assertEquals(List.of(new Pair(2, 6), new Pair(1, 8)),
+                report.getSamples(Diagnostics.Category.BLACKLISTED_REFERENCE), "C7 and B9 read the cycle");
+        assertEquals(List.of(new Pair(3, 0)), report.getSamples(Diagnostics.Category.INVALID_FORMULA));
+        assertEquals(5, report.getTotal());
+        assertEquals(report.getTotal(), sheet.getStats().getFormulasSkipped());
+    }
+
+    @Test
+    public void diagnosticsKeepOnlyASampleOfManyCycles() throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator(1_000, 3, 5);
+        generator.setFormulaColumns(1);
+        generator.setCycles(100, 2);
+        StringWriter csv = new StringWriter();
+        generator.write(csv);
+
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsv(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)));
+        sheet.evaluateAllExpressions();
+
+        Diagnostics.Report report = sheet.getDiagnostics();
+        assertEquals(100, report.getCycles());
+        assertEquals(200, report.getCount(Diagnostics.Category.CYCLE_MEMBER));
+        assertEquals(800, report.getCount(Diagnostics.Category.BLACKLISTED_REFERENCE));
+        assertEquals(Diagnostics.SAMPLE_LIMIT, report.getSamples(Diagnostics.Category.CYCLE_MEMBER).size());
+        assertTrue(report.toString().contains("190 more"), report.toString());
+    }
+
+    @Test
+    public void lazyDiagnosticsCoverFormulasRead() {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.setLazyEvaluation(true);
+        putFormula(sheet, new Pair(0, 0), "#(sum B1)"); // A1 <-> B1
+        putFormula(sheet, new Pair(1, 0), "#(sum A1)");
+        putFormula(sheet, new Pair(2, 0), "#(sum A1)"); // C1 reads the cycle
+        putFormula(sheet, new Pair(3, 0), "#(sum D1)"); // D1 reads itself
+
+        sheet.getCellValue(new Pair(2, 0));
+        Diagnostics.Report report = sheet.getDiagnostics();
+        assertEquals(List.of(new Pair(1, 0), new Pair(0, 0)), report.getSamples(Diagnostics.Category.CYCLE_MEMBER));
+        assertEquals(List.of(new Pair(2, 0)), report.getSamples(Diagnostics.Category.BLACKLISTED_REFERENCE));
+        assertEquals(3, report.getTotal(), "D1 was not read");
+    }
+
+    @Test
+    public void thousandsOfCyclesAreFoundInOnePass() throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator(30_000, 4, 5);
+        generator.setFormulaColumns(1);
+        generator.setCycles(3_000, 4);
+        StringWriter csv = new StringWriter();
+        generator.write(csv);
+
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsv(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)));
+        sheet.evaluateAllExpressions();
+
+        List<List<Pair>> cycles = sheet.getCycles();
+        assertEquals(3_000, cycles.size());
+        assertEquals(List.of(new Pair(3, 0), new Pair(3, 1), new Pair(3, 2), new Pair(3, 3)), cycles.get(0));
+        // The chain starts inside the first cycle, so every formula depends on one
+        assertEquals(30_000, sheet.getStats().getFormulasSkipped());
+    }
+
+    @Test
+    public void evaluateExpressionsWithDeepChain() {
+        SpreadSheet sheet = new SpreadSheet();
+        int depth = 200_000;
+
+        sheet.setCellValue(new Pair(0, 0), "1");
+        for (int row = 1; row < depth; row++) {
+            String expression = "#(sum A" + row + ")";
+            sheet.setCellValue(new Pair(0, row), expression);
+            sheet.getCachedExpressions().put(new Pair(0, row), expression);
+        }
+
+        sheet.evaluateAllExpressions();
+
+        String result = sheet.getCellValue(new Pair(0, depth - 1));
+        assertEquals("1.0", result, "Expected the value to flow down the whole chain");
+        assertEquals(depth - 2, sheet.getStats().getMaxDepth(), "A2 reads a plain cell; each later formula adds one");
+    }
+
+    @Test
+    public void evaluateExpressionsDownstreamOfCycle() {
+        SpreadSheet sheet = new SpreadSheet();
+
+        sheet.setCellValue(new Pair(0, 0), "#(sum A2)");
+        sheet.getCachedExpressions().put(new Pair(0, 0), "#(sum A2)");
+        sheet.setCellValue(new Pair(0, 1), "#(sum A1)");
+        sheet.getCachedExpressions().put(new Pair(0, 1), "#(sum A1)");
+
+        sheet.setCellValue(new Pair(1, 0), "#(sum A1)"); // B1 depends on the cycle
+        sheet.getCachedExpressions().put(new Pair(1, 0), "#(sum A1)");
+        sheet.setCellValue(new Pair(1, 1), "4");
+        sheet.setCellValue(new Pair(1, 2), "#(prod B2 B2)"); // B3 is independent
+        sheet.getCachedExpressions().put(new Pair(1, 2), "#(prod B2 B2)");
+
+        sheet.evaluateAllExpressions();
+
+        assertTrue(sheet.getBlacklistedPairs().contains(new Pair(1, 0)), "Expected B1 to be blacklisted");
+        assertEquals("#(sum A1)", sheet.getCellValue(new Pair(1, 0)), "Blacklisted cells keep their text");
+        assertEquals("16.0", sheet.getCellValue(new Pair(1, 2)), "Independent cells are still evaluated");
+    }
+
+    @Test
+    public void parallelEvaluationMatchesSequential() {
+        SpreadSheet sequential = buildLayeredSheet();
+        SpreadSheet parallel = buildLayeredSheet();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.setParallelEvaluation(pool, 1);
+            sequential.evaluateAllExpressions();
+            parallel.evaluateAllExpressions();
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 3000; row++) {
+                Pair cell = new Pair(col, row);
+                assertEquals(sequential.getCellValue(cell), parallel.getCellValue(cell),
+                        "Cell " + cell + " differs between sequential and parallel evaluation");
+            }
+        }
+    }
+
+    @Test
+    public void outOfCoreSheetMatchesHeapSheet() throws IOException {
+        SpreadSheet heap = buildLayeredSheet();
+        heap.evaluateAllExpressions();
+
+        // 4 columns of 3000 rows need 12 blocks; caching 3 forces constant eviction
+        try (SpreadSheet paged = fillLayeredSheet(SpreadSheet.outOfCore(null, 3))) {
+            paged.evaluateAllExpressions();
+            for (int col = 0; col < 4; col++) {
+                for (int row = 0; row < 3000; row++) {
+                    Pair cell = new Pair(col, row);
+                    assertEquals(heap.getCellValue(cell), paged.getCellValue(cell),
+                            "Cell " + cell + " differs between heap and out-of-core storage");
+                }
+            }
+
+            File heapOut = File.createTempFile("spreadsheet_heap", ".txt");
+            heapOut.deleteOnExit();
+            File pagedOut = File.createTempFile("spreadsheet_paged", ".txt");
+            pagedOut.deleteOnExit();
+            heap.printGridToFile(heapOut.getAbsolutePath());
+            paged.printGridToFile(pagedOut.getAbsolutePath());
+            assertEquals(Files.readString(heapOut.toPath()), Files.readString(pagedOut.toPath()),
+                    "Out-of-core output should match");
+        }
+    }
+
+    @Test
+    public void recalculateOnlyTouchesDependents() {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.setCellValue(new Pair(0, 0), "2"); // A1
+        sheet.setCellValue(new Pair(0, 1), "3"); // A2
+        String[][] formulas = {
+                {"B1", "#(sum A1 A2)"},
+                {"B2", "#(prod B1 A1)"},
+                {"B3", "#(sum A2)"},
+        };
+        for (String[] formula : formulas) {
+            Pair cell = SpreadSheet.convertCellReference(formula[0]);
+            sheet.setCellValue(cell, formula[1]);
+            sheet.getCachedExpressions().put(cell, formula[1]);
+        }
+        sheet.evaluateAllExpressions();
+        assertEquals("10.0", sheet.getCellValue(new Pair(1, 1)), "B2 = (2 + 3) * 2");
+
+        sheet.setCellValue(new Pair(0, 0), "10");
+        int recalculated = sheet.recalculate();
+
+        assertEquals(2, recalculated, "Only B1 and B2 depend on A1");
+        assertEquals("13.0", sheet.getCellValue(new Pair(1, 0)), "B1 = 10 + 3");
+        assertEquals("130.0", sheet.getCellValue(new Pair(1, 1)), "B2 = 13 * 10");
+        assertEquals("3.0", sheet.getCellValue(new Pair(1, 2)), "B3 is unchanged");
+        assertEquals(0, sheet.recalculate(), "Nothing is left to recalculate");
+    }
+
+    @Test
+    public void lazyReadsEvaluateOnlyWhatTheyNeed() {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.setLazyEvaluation(true);
+        sheet.setCellValue(new Pair(0, 0), "2"); // A1
+        sheet.setCellValue(new Pair(0, 1), "3"); // A2
+        putFormula(sheet, new Pair(1, 0), "#(sum A1 A2)");  // B1
+        putFormula(sheet, new Pair(1, 1), "#(prod B1 A1)"); // B2
+        putFormula(sheet, new Pair(1, 2), "#(sum A2)");     // B3
+        sheet.evaluateAllExpressions();
+        assertEquals(0, sheet.getStats().getFormulasEvaluated(), "Nothing is computed up front");
+
+        assertEquals("10.0", sheet.getCellValue(new Pair(1, 1)), "B2 = (2 + 3) * 2");
+        assertEquals(2, sheet.getStats().getFormulasEvaluated(), "B2 and B1, not B3");
+        assertEquals("5.0", sheet.getCellValue(new Pair(1, 0)));
+        assertEquals(2, sheet.getStats().getFormulasEvaluated(), "B1 was memoised");
+
+        sheet.setCellValue(new Pair(0, 0), "10");
+        assertEquals(0, sheet.recalculate(), "Reads recompute what changed");
+        assertEquals("130.0", sheet.getCellValue(new Pair(1, 1)), "B2 = (10 + 3) * 10");
+        assertEquals(4, sheet.getStats().getFormulasEvaluated(), "B1 and B2 again");
+        assertEquals("3.0", sheet.getCellValue(new Pair(1, 2)));
+        assertEquals(5, sheet.getStats().getFormulasEvaluated());
+    }
+
+    @Test
+    public void lazyReadsBlacklistCycles() {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.setLazyEvaluation(true);
+        putFormula(sheet, new Pair(0, 0), "#(sum B1)"); // A1
+        putFormula(sheet, new Pair(1, 0), "#(sum A1)"); // B1
+        putFormula(sheet, new Pair(2, 0), "#(sum B1)"); // C1
+
+        assertEquals("#(sum B1)", sheet.getCellValue(new Pair(2, 0)), "C1 reads a cycle and keeps its text");
+        assertEquals(3, sheet.getStats().getFormulasSkipped());
+        assertTrue(sheet.getBlacklistedPairs().contains(new Pair(0, 0)));
+        assertTrue(sheet.getBlacklistedPairs().contains(new Pair(1, 0)));
+    }
+
+    @Test
+    public void lazyPrintMatchesEagerPrint() throws IOException {
+        SpreadSheet eager = new SpreadSheet();
+        eager.loadCsv("test.csv");
+        eager.evaluateAllExpressions();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        eager.printGrid(expected, StandardCharsets.UTF_8);
+
+        SpreadSheet lazy = new SpreadSheet();
+        lazy.setLazyEvaluation(true);
+        lazy.loadCsv("test.csv");
+        lazy.evaluateAllExpressions();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        lazy.printGrid(actual, StandardCharsets.UTF_8);
+
+        assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+        assertEquals(3, lazy.getStats().getFormulasEvaluated());
+        assertEquals(4, lazy.getStats().getFormulasSkipped());
+    }
+
+    @Test
+    public void printRowsEvaluatesOnlyVisibleRows() throws IOException {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.setLazyEvaluation(true);
+        for (int row = 0; row < 100; row++) {
+            sheet.setCellValue(new Pair(0, row), Integer.toString(row));
+            putFormula(sheet, new Pair(1, row), "#(sum A" + (row + 1) + " A" + (row + 1) + ")");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sheet.printRows(out, StandardCharsets.UTF_8, 10, 2);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split(System.lineSeparator());
+        assertEquals(2, lines.length);
+        // Cells are padded to the widest text, the unevaluated "#(sum A100 A100)"
+        assertEquals(String.format("|%16s|%16s|", "10", "20.0"), lines[0]);
+        assertEquals(String.format("|%16s|%16s|", "11", "22.0"), lines[1]);
+        assertEquals(2, sheet.getStats().getFormulasEvaluated(), "B11 and B12 only");
+    }
+
+    @Test
+    public void statisticalOperationsSkipBlanksAndText() {
+        SpreadSheet sheet = new SpreadSheet();
+        String[] column = {"4", "", "label", "-2", "9", "1.5"}; // A1..A6
+        for (int row = 0; row < column.length; row++) {
+            sheet.setCellValue(new Pair(0, row), column[row]);
+        }
+        putFormula(sheet, new Pair(1, 0), "#(avg A1:A6)");
+        putFormula(sheet, new Pair(1, 1), "#(min A1:A6)");
+        putFormula(sheet, new Pair(1, 2), "#(max A1:A6 B1)");
+        putFormula(sheet, new Pair(1, 3), "#(count A1:A6)");
+        putFormula(sheet, new Pair(1, 4), "#(sum A1:A6)");
+        putFormula(sheet, new Pair(1, 5), "#(prod A1:A3)");
+        putFormula(sheet, new Pair(1, 6), "#(avg A2 A3)");
+        putFormula(sheet, new Pair(1, 7), "#(MIN A2)");
+
+        sheet.evaluateAllExpressions();
+
+        assertEquals("3.125", sheet.getCellValue(new Pair(1, 0)), "(4 - 2 + 9 + 1.5) / 4");
+        assertEquals("-2.0", sheet.getCellValue(new Pair(1, 1)));
+        assertEquals("9.0", sheet.getCellValue(new Pair(1, 2)), "MAX also reads the average in B1");
+        assertEquals("4.0", sheet.getCellValue(new Pair(1, 3)), "Only numeric cells are counted");
+        assertEquals("12.5", sheet.getCellValue(new Pair(1, 4)));
+        assertEquals("0.0", sheet.getCellValue(new Pair(1, 5)), "PROD still counts blanks as 0");
+        assertEquals("NaN", sheet.getCellValue(new Pair(1, 6)), "No numbers to average");
+        assertEquals("0.0", sheet.getCellValue(new Pair(1, 7)), "MIN of no numbers is 0");
+    }
+
+    @Test
+    public void sumsAndProductsMatchStreams() {
+        // Terms are folded one at a time; the results are still those of a DoubleStream
+        SpreadSheet sheet = new SpreadSheet();
+        double[] terms = new double[40];
+        StringBuilder refs = new StringBuilder();
+        for (int row = 0; row < terms.length; row++) {
+            terms[row] = 1.1 + row * 0.37 - ((row % 3 == 0) ? 1e6 : 0);
+            sheet.setCellValue(new Pair(0, row), Double.toString(terms[row]));
+            refs.append(" A").append(row + 1);
+        }
+        putFormula(sheet, new Pair(1, 0), "#(sum" + refs + ")");
+        putFormula(sheet, new Pair(1, 1), "#(prod" + refs + ")");
+
+        sheet.evaluateAllExpressions();
+
+        assertEquals(Double.toString(Arrays.stream(terms).sum()), sheet.getCellValue(new Pair(1, 0)));
+        assertEquals(Double.toString(Arrays.stream(terms).reduce(1, (a, b) -> a * b)), sheet.getCellValue(new Pair(1, 1)));
+    }
+
+    @Test
+    public void largeRangesStreamThroughAccumulators() {
+        SpreadSheet sheet = new SpreadSheet();
+        for (int row = 0; row < 1000; row++) {
+            sheet.setCellValue(new Pair(0, row), (row % 2 == 0) ? Integer.toString(row) : "");
+        }
+        putFormula(sheet, new Pair(0, 1), "#(sum A1 A3)"); // a formula inside the range: 0 + 2
+        putFormula(sheet, new Pair(1, 0), "#(avg A1:A1000)");
+        putFormula(sheet, new Pair(1, 1), "#(count A1:A5000)");
+        putFormula(sheet, new Pair(1, 2), "#(max A1:A1000)");
+
+        sheet.evaluateAllExpressions();
+
+        // 500 even rows sum to 249500, plus A2 = 2
+        assertEquals(Double.toString(249502.0 / 501), sheet.getCellValue(new Pair(1, 0)));
+        assertEquals("501.0", sheet.getCellValue(new Pair(1, 1)));
+        assertEquals("998.0", sheet.getCellValue(new Pair(1, 2)));
+
+        sheet.setCellValue(new Pair(0, 999), "5000");
+        sheet.recalculate();
+        assertEquals("502.0", sheet.getCellValue(new Pair(1, 1)), "Changes inside a streamed range are seen");
+        assertEquals("5000.0", sheet.getCellValue(new Pair(1, 2)));
+    }
+
+    @Test
+    public void blanksPastTheSheetArePassedAsOneCount() {
+        // Counts every cell of its ranges, blanks included, without adding them one by one
+        OperationRegistry.register(new Operation() {
+            @Override
+            public String name() {
+                return "cells";
+            }
+
+            @Override
+            public Accumulator newAccumulator() {
+                return new Accumulator() {
+                    private long count;
+
+                    @Override
+                    public void add(double value) {
+                        count++;
+                    }
+
+                    @Override
+                    public void addZeros(long zeros) {
+                        count += zeros;
+                    }
+
+                    @Override
+                    public double result() {
+                        return count;
+                    }
+                };
+            }
+
+            @Override
+            public boolean blanksAsZero() {
+                return true;
+            }
+        });
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.setCellValue(new Pair(0, 0), "1");
+        putFormula(sheet, new Pair(1, 0), "#(cells A1:A2000000000)");
+        sheet.evaluateAllExpressions();
+
+        assertEquals("2.0E9", sheet.getCellValue(new Pair(1, 0)));
+    }
+
+    @Test
+    public void rangesFromRowZeroAreNotSummed() {
+        SpreadSheet sheet = new SpreadSheet();
+        for (int row = 0; row < 200; row++) {
+            sheet.setCellValue(new Pair(0, row), "1");
+        }
+        putFormula(sheet, new Pair(1, 0), "#(sum A0:A100)"); // B1: a large range
+        putFormula(sheet, new Pair(1, 1), "#(sum A0:A10)");  // B2: an expanded one
+        sheet.evaluateAllExpressions();
+
+        assertEquals("#(sum A0:A100)", sheet.getCellValue(new Pair(1, 0)));
+        assertEquals("#(sum A0:A10)", sheet.getCellValue(new Pair(1, 1)));
+        assertEquals(2, sheet.getDiagnostics().getCount(Diagnostics.Category.INVALID_FORMULA));
+    }
+
+    @Test
+    public void largeRangesAggregateThroughIndex() {
+        SpreadSheet sheet = new SpreadSheet();
+        for (int row = 0; row < 2000; row++) {
+            sheet.setCellValue(new Pair(0, row), Integer.toString(row));
+            sheet.setCellValue(new Pair(3, row), (row % 500 == 0) ? "2" : "1");
+            if (row % 10 == 0) {
+                // Every tenth cell of B is itself a formula, so the range must wait for it
+                putFormula(sheet, new Pair(1, row), "#(sum A" + (row + 1) + " A" + (row + 1) + ")");
+            } else {
+                sheet.setCellValue(new Pair(1, row), "3");
+            }
+        }
+        putFormula(sheet, new Pair(2, 0), "#(sum B1:B2000)");
+        putFormula(sheet, new Pair(2, 1), "#(sum A1:B2000 C1)");
+        putFormula(sheet, new Pair(2, 2), "#(prod D1:D2000)");
+        putFormula(sheet, new Pair(2, 3), "#(prod D1:D3000)");
+        sheet.evaluateAllExpressions();
+
+        assertEquals(Double.toString(sumOfB(sheet)), sheet.getCellValue(new Pair(2, 0)), "C1 = SUM(B1:B2000)");
+        double columnA = 1999 * 2000 / 2.0;
+        assertEquals(Double.toString(columnA + 2 * sumOfB(sheet)), sheet.getCellValue(new Pair(2, 1)),
+                "C2 = SUM(A1:B2000) + C1");
+        assertEquals("16.0", sheet.getCellValue(new Pair(2, 2)), "Four cells of D hold 2");
+        assertEquals("0.0", sheet.getCellValue(new Pair(2, 3)), "Empty cells count as 0");
+
+        sheet.setCellValue(new Pair(0, 10), "1000"); // A11 feeds the formula in B11
+        sheet.setCellValue(new Pair(1, 5), "-7");    // B6 is a plain cell inside the range
+        assertEquals(3, sheet.recalculate(), "Only B11, C1 and C2 are affected");
+        assertEquals("2000.0", sheet.getCellValue(new Pair(1, 10)), "B11 = A11 + A11");
+        assertEquals(Double.toString(sumOfB(sheet)), sheet.getCellValue(new Pair(2, 0)), "C1 after the change");
+        assertEquals(Double.toString(columnA - 10 + 1000 + 2 * sumOfB(sheet)), sheet.getCellValue(new Pair(2, 1)),
+                "C2 after the change");
+    }
+
+    @Test
+    public void rangeSumsMatchListedCells() {
+        // Decimal fractions are not exact doubles, so every addition rounds
+        SpreadSheet sheet = new SpreadSheet();
+        StringBuilder column = new StringBuilder();
+        StringBuilder rectangle = new StringBuilder();
+        for (int row = 0; row < 1000; row++) {
+            sheet.setCellValue(new Pair(0, row), Double.toString(0.1 + (row % 37) * 0.01));
+            sheet.setCellValue(new Pair(1, row), Double.toString((row % 3 == 0) ? 1234.7 : 0.3));
+            column.append(" A").append(row + 1);
+            if (row < 300) {
+                rectangle.append(" A").append(row + 1).append(" B").append(row + 1);
+            }
+        }
+        putFormula(sheet, new Pair(2, 0), "#(sum A1:A1000)");
+        putFormula(sheet, new Pair(2, 1), "#(sum" + column + ")");
+        putFormula(sheet, new Pair(2, 2), "#(sum A1:B300)");
+        putFormula(sheet, new Pair(2, 3), "#(sum" + rectangle + ")");
+        putFormula(sheet, new Pair(2, 4), "#(sum A2:A999)");
+        putFormula(sheet, new Pair(2, 5), "#(sum" + column.substring(" A1".length(), column.lastIndexOf(" ")) + ")");
+        sheet.evaluateAllExpressions();
+
+        assertEquals(sheet.getCellValue(new Pair(2, 1)), sheet.getCellValue(new Pair(2, 0)), "One column");
+        assertEquals(sheet.getCellValue(new Pair(2, 3)), sheet.getCellValue(new Pair(2, 2)), "A rectangle");
+        assertEquals(sheet.getCellValue(new Pair(2, 5)), sheet.getCellValue(new Pair(2, 4)), "Rows inside the column");
+
+        sheet.setCellValue(new Pair(0, 500), "0.7");
+        sheet.recalculate();
+        assertEquals(sheet.getCellValue(new Pair(2, 1)), sheet.getCellValue(new Pair(2, 0)), "After an update");
+    }
+
+    @Test
+    public void recalculateFindsOnlyTheRangesCoveringAChange() {
+        SpreadSheet sheet = new SpreadSheet();
+        for (int row = 0; row < 1000; row++) {
+            sheet.setCellValue(new Pair(0, row), "1");
+        }
+        putFormula(sheet, new Pair(2, 0), "#(sum A1:A1000)"); // C1 spans the whole column
+        for (int i = 0; i < 100; i++) {
+            // B(i+1) covers A(5i+1) to A(5i+200): overlapping ranges, sorted by first row
+            putFormula(sheet, new Pair(1, i), "#(count A" + (5 * i + 1) + ":A" + (5 * i + 200) + ")");
+        }
+        sheet.evaluateAllExpressions();
+
+        sheet.setCellValue(new Pair(0, 499), "2"); // A500
+        assertEquals(41, sheet.recalculate(), "B61 to B100, and C1");
+        assertEquals("1001.0", sheet.getCellValue(new Pair(2, 0)));
+
+        sheet.setCellValue(new Pair(0, 999), "2"); // A1000
+        assertEquals(1, sheet.recalculate(), "Only C1 reaches the last row");
+        assertEquals("1002.0", sheet.getCellValue(new Pair(2, 0)));
+
+        sheet.setCellValue(new Pair(3, 499), "2"); // D500 is in no range
+        assertEquals(0, sheet.recalculate());
+    }
+
+    private static double sumOfB(SpreadSheet sheet) {
+        double sum = 0;
+        for (int row = 0; row < 2000; row++) {
+            sum += Double.parseDouble(sheet.getCellValue(new Pair(1, row)));
+        }
+        return sum;
+    }
+
+    private static void putFormula(SpreadSheet sheet, Pair cell, String expression) {
+        sheet.setCellValue(cell, expression);
+        sheet.getCachedExpressions().put(cell, expression);
+    }
+
+    /** Column A holds inputs; columns B to D each read two cells of the previous column. */
+    private static SpreadSheet buildLayeredSheet() {
+        return fillLayeredSheet(new SpreadSheet());
+    }
+
+    private static SpreadSheet fillLayeredSheet(SpreadSheet sheet) {
+        for (int row = 0; row < 3000; row++) {
+            sheet.setCellValue(new Pair(0, row), Double.toString(row * 0.1));
+            for (int col = 1; col < 4; col++) {
+                String prev = SpreadSheetUtils.columnIndexToLetter(col - 1);
+                String expression = (col % 2 == 0)
+                        ? "#(prod " + prev + (row + 1) + " " + prev + ((row + 1) % 3000 + 1) + ")"
+                        : "#(sum " + prev + (row + 1) + " " + prev + ((row + 7) % 3000 + 1) + ")";
+                sheet.setCellValue(new Pair(col, row), expression);
+                sheet.getCachedExpressions().put(new Pair(col, row), expression);
+            }
+        }
+        return sheet;
+    }
+
     /**
      * Tests that adding a column via setCellValue (which uses ensureColumnExists)
      * works correctly. Here, we set a cell in a column/row that doesn't exist yet,
@@ -5,6 +5,8 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 
 
@@ -47,6 +49,15 @@ public class SpreadSheetUtilsTest {
         assertEquals(25, SpreadSheetUtils.columnLetterToGridIndex('z'), "'z' => 25");
     }
 
+    @Test
+    public void columnLettersToGridIndex() {
+        assertEquals(0, SpreadSheetUtils.columnLettersToGridIndex("A"), "A => 0");
+        assertEquals(25, SpreadSheetUtils.columnLettersToGridIndex("z"), "z => 25");
+        assertEquals(26, SpreadSheetUtils.columnLettersToGridIndex("AA"), "AA => 26");
+        assertEquals(52, SpreadSheetUtils.columnLettersToGridIndex("BA"), "BA => 52");
+        assertEquals(16383, SpreadSheetUtils.columnLettersToGridIndex("XFD"), "XFD => 16383");
+    }
+
     @Test
     public void columnIndexToLetter() {
         assertEquals("A", SpreadSheetUtils.columnIndexToLetter(0), "0 => A");
@@ -84,4 +95,23 @@ public class SpreadSheetUtilsTest {
         result = SpreadSheetUtils.leftAlign("LongText", 4);
         assertEquals("LongText", result, "Should not truncate; returns text");
     }
+
+    @Test
+    public void doubleLengthMatchesDoubleToString() {
+        double[] values = {0.0, -0.0, 1.0, -1.0, 42.0, 9_999_999.0, -9_999_999.0, 1e7, 1e7 + 1, -1e7,
+                0.5, 1.0 / 3, 1e-3, 1e-4, 123.456, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE};
+        for (double value : values) {
+            assertEquals(Double.toString(value).length(), SpreadSheetUtils.doubleLength(value),
+                    "Length of " + value);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            double value = random.nextInt(40_000_000) - 20_000_000;
+            assertEquals(Double.toString(value).length(), SpreadSheetUtils.doubleLength(value),
+                    "Length of " + value);
+        }
+        assertTrue(SpreadSheetUtils.isPlainWholeNumber(-9_999_999.0));
+        assertFalse(SpreadSheetUtils.isPlainWholeNumber(-0.0), "Double.toString(-0.0) keeps the sign");
+        assertFalse(SpreadSheetUtils.isPlainWholeNumber(1e7), "Double.toString(1e7) is \"1.0E7\"");
+    }
 }
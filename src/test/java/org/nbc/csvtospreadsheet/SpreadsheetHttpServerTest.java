@@ -0,0 +1,92 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+public class SpreadsheetHttpServerTest {
+
+    @Test
+    public void convertsPostedCsvLikeTheFileLoader() throws Exception {
+        try (SpreadsheetHttpServer server = start(1 << 20)) {
+            HttpClient client = HttpClient.newHttpClient();
+            String csv = new String(Files.readAllBytes(Path.of("test.csv")), StandardCharsets.UTF_8);
+
+            HttpResponse<String> response = client.send(post(server, csv), HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertEquals(renderFile("test.csv"), response.body(), "The response should match the file output");
+        }
+    }
+
+    @Test
+    public void servesManyRequestsConcurrently() throws Exception {
+        try (SpreadsheetHttpServer server = start(1 << 20)) {
+            HttpClient client = HttpClient.newHttpClient();
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String csv = i + ",3,#(prod A1 B1)\n";
+                responses.add(client.sendAsync(post(server, csv), HttpResponse.BodyHandlers.ofString()));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                HttpResponse<String> response = responses.get(i).join();
+                assertEquals(200, response.statusCode());
+                assertEquals(Double.toString(i * 3.0), response.body().split("\\|")[3].trim(), "Request " + i);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsOversizedAndNonPostRequests() throws Exception {
+        try (SpreadsheetHttpServer server = start(64)) {
+            HttpClient client = HttpClient.newHttpClient();
+            String large = "1,2,3\n".repeat(100);
+
+            HttpResponse<String> tooLarge = client.send(post(server, large), HttpResponse.BodyHandlers.ofString());
+            assertEquals(413, tooLarge.statusCode(), "Bodies over the limit are rejected");
+
+            HttpRequest get = HttpRequest.newBuilder(uri(server)).GET().build();
+            assertEquals(405, client.send(get, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+    }
+
+    private static SpreadsheetHttpServer start(long maxBytes) throws IOException {
+        return SpreadsheetHttpServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), maxBytes);
+    }
+
+    private static URI uri(SpreadsheetHttpServer server) {
+        return URI.create("http://127.0.0.1:" + server.port() + SpreadsheetHttpServer.CONVERT_PATH);
+    }
+
+    private static HttpRequest post(SpreadsheetHttpServer server, String csv) {
+        return HttpRequest.newBuilder(uri(server))
+                .POST(HttpRequest.BodyPublishers.ofString(csv, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private static String renderFile(String path) throws IOException {
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsvMapped(path);
+        sheet.evaluateAllExpressions();
+        File out = File.createTempFile("http_expected", ".txt");
+        out.deleteOnExit();
+        sheet.printGridToFile(out.getAbsolutePath());
+        return Files.readString(out.toPath(), Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,59 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class StreamCsvReaderTest {
+
+    @Test
+    public void matchesMappedReaderAcrossSmallReads() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int row = 0; row < 300; row++) {
+            sb.append("label").append(row).append(',').append(row).append(",\"q,\n").append(row).append("\"\r\n");
+        }
+        sb.append("a record much longer than the sixteen byte buffer,1");
+        Path csv = Files.createTempFile("stream_csv_test", ".csv");
+        csv.toFile().deleteOnExit();
+        Files.writeString(csv, sb.toString(), StandardCharsets.UTF_8);
+
+        List<String> expected = new ArrayList<>();
+        int expectedRows = MappedCsvReader.read(csv, sink(expected));
+
+        List<String> actual = new ArrayList<>();
+        // Hands out at most 7 bytes per read, so records always arrive in pieces
+        InputStream trickle = new ByteArrayInputStream(Files.readAllBytes(csv)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        int rows = StreamCsvReader.read(trickle, new CsvParser(sink(actual)), 16);
+
+        assertEquals(expectedRows, rows, "Row count");
+        assertEquals(expected, actual, "Cells");
+    }
+
+    private static CsvParser.CellSink sink(List<String> cells) {
+        return new CsvParser.CellSink() {
+            @Override
+            public void text(int col, int row, String value) {
+                cells.add(col + "," + row + "=" + value);
+            }
+
+            @Override
+            public void integer(int col, int row, long value) {
+                cells.add(col + "," + row + "=" + value);
+            }
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package org.nbc.csvtospreadsheet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class WorkloadGeneratorTest {
+
+    @Test
+    public void sameSeedGivesSameSheet() throws IOException {
+        assertEquals(generate(7, WorkloadGenerator.Topology.RANDOM_DAG),
+                generate(7, WorkloadGenerator.Topology.RANDOM_DAG), "Output depends only on settings and seed");
+        assertNotEquals(generate(7, WorkloadGenerator.Topology.RANDOM_DAG),
+                generate(8, WorkloadGenerator.Topology.RANDOM_DAG), "Another seed gives another sheet");
+    }
+
+    @Test
+    public void acyclicTopologiesEvaluateCompletely() throws IOException {
+        for (WorkloadGenerator.Topology topology : WorkloadGenerator.Topology.values()) {
+            WorkloadGenerator generator = new WorkloadGenerator(2000, 6, 1);
+            generator.setFormulaColumns(3);
+            generator.setTopology(topology);
+            SpreadSheet sheet = load(generator);
+
+            assertEquals(2000 * 3, sheet.getCachedExpressions().size(), topology + " formula count");
+            assertTrue(sheet.getBlacklistedPairs().isEmpty(), topology + " should have no cycles");
+            Double.parseDouble(sheet.getCellValue(new Pair(5, 1999)));
+        }
+    }
+
+    @Test
+    public void injectedCyclesAreBlacklisted() throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator(1000, 4, 3);
+        generator.setFormulaColumns(2);
+        generator.setTopology(WorkloadGenerator.Topology.FAN_IN);
+        generator.setCycles(3, 5);
+        SpreadSheet sheet = load(generator);
+
+        // Fan-in formulas only read plain cells, so nothing but the cycles is affected
+        assertEquals(15, sheet.getBlacklistedPairs().size(), "Three cycles of five cells");
+        assertTrue(sheet.getBlacklistedPairs().contains(new Pair(2, 0)), "The first cycle starts at the top");
+        assertTrue(sheet.getBlacklistedPairs().contains(new Pair(2, 337)), "The second starts a third of the way down");
+    }
+
+    private static String generate(long seed, WorkloadGenerator.Topology topology) throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator(500, 5, seed);
+        generator.setFormulaColumns(2);
+        generator.setTopology(topology);
+        StringWriter out = new StringWriter();
+        generator.write(out);
+        return out.toString();
+    }
+
+    private static SpreadSheet load(WorkloadGenerator generator) throws IOException {
+        Path csv = Files.createTempFile("workload", ".csv");
+        csv.toFile().deleteOnExit();
+        generator.write(csv);
+        SpreadSheet sheet = new SpreadSheet();
+        sheet.loadCsvMapped(csv.toString());
+        sheet.evaluateAllExpressions();
+        return sheet;
+    }
+}